@@ -3,6 +3,7 @@ package com.ttsea.jcamera.demo.scan;
 import android.Manifest;
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.graphics.Rect;
 import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.view.View;
@@ -13,8 +14,10 @@ import com.google.zxing.Result;
 import com.ttsea.jcamera.callbacks.SimpleCameraCallback;
 import com.ttsea.jcamera.core.CameraScanView;
 import com.ttsea.jcamera.core.Constants;
+import com.ttsea.jcamera.core.FrameInfo;
 import com.ttsea.jcamera.demo.R;
 import com.ttsea.jcamera.demo.debug.JLog;
+import com.ttsea.jcamera.demo.scan.zxing.DecodePipeline;
 import com.ttsea.jcamera.demo.scan.zxing.ZXingDecoder;
 import com.ttsea.jcamera.demo.utils.Utils;
 
@@ -25,6 +28,8 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ScanUI extends AppCompatActivity {
     private Activity mActivity;
 
@@ -32,6 +37,12 @@ public class ScanUI extends AppCompatActivity {
     private CameraScanView scanView;
     private ImageView ivPause;
 
+    //扫描框在原始帧中的区域，只在相机线程中使用，每一帧复用
+    private final Rect frameRect = new Rect();
+    private DecodePipeline decodePipeline;
+    //多个解码线程可能同时解码成功，只处理第一个结果
+    private final AtomicBoolean isDecoded = new AtomicBoolean(false);
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -45,6 +56,21 @@ public class ScanUI extends AppCompatActivity {
         scanView = findViewById(R.id.cameraView);
         ivPause = findViewById(R.id.ivPause);
 
+        //只需要扫描框内的数据，不需要相机旋转整帧数据
+        scanView.setRawFrameEnabled(true);
+        //连续取帧，由解码流水线决定处理哪些帧
+        scanView.setEveryFramePreview(true);
+
+        //预览尺寸一般比较大，先解码缩小后的数据
+        ZXingDecoder.getInstance().setPyramidEnabled(true);
+        decodePipeline = new DecodePipeline(DecodePipeline.getDefaultWorkerCount(),
+                new DecodePipeline.Callback() {
+                    @Override
+                    public void onDecoded(Result result) {
+                        onDecodeResult(result);
+                    }
+                });
+
         scanView.setCameraCallback(new SimpleCameraCallback() {
             @Override
             public void onCameraOpened() {
@@ -63,7 +89,7 @@ public class ScanUI extends AppCompatActivity {
             public void onStartPreview() {
                 super.onStartPreview();
                 ivPause.setVisibility(View.GONE);
-                scanView.setOneShotPreview();
+                isDecoded.set(false);
             }
 
             @Override
@@ -73,8 +99,13 @@ public class ScanUI extends AppCompatActivity {
             }
 
             @Override
-            public void oneShotFrameData(@Nullable byte[] data, int format, int width, int height) {
-                decodeData(data, format, width, height);
+            public void everyRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+                if (data == null || isDecoded.get()) {
+                    return;
+                }
+                //这里只拷贝扫描框内的数据，data返回后马上会归还给相机
+                scanView.getScanRect(info, frameRect);
+                decodePipeline.submit(data, info, frameRect);
             }
         });
 
@@ -114,6 +145,7 @@ public class ScanUI extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        decodePipeline.start();
         tryOpenCamera();
     }
 
@@ -121,38 +153,39 @@ public class ScanUI extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         scanView.releaseCamera();
+        decodePipeline.stop();
     }
 
-    private void decodeData(@Nullable byte[] data, int format, int width, int height) {
-        final Result result = ZXingDecoder.getInstance().decodeData(data, scanView.getScanRect(), width, height);
+    /**
+     * 解码成功，在解码线程中回调
+     */
+    private void onDecodeResult(final Result result) {
+        if (result == null || Utils.isEmpty(result.getText())) {
+            return;
+        }
+        if (!isDecoded.compareAndSet(false, true)) {
+            return;
+        }
 
-        if (result != null && !Utils.isEmpty(result.getText())) {
-            JLog.d("format:" + format + ", preSize:" + width + "x" + height + ", result:" + result);
+        JLog.d("result:" + result);
 
-            MediaPlayer.OnCompletionListener completionListener = new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer player) {
-                    if (player != null) {
-                        player.release();
-                        player = null;
-                    }
-                }
-            };
-            Utils.playSound(mActivity, R.raw.beep, completionListener);
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(mActivity, result.getText(), Toast.LENGTH_LONG).show();
-                    //scanView.stopPreview();
+        MediaPlayer.OnCompletionListener completionListener = new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer player) {
+                if (player != null) {
+                    player.release();
+                    player = null;
                 }
-            });
-
-            scanView.stopPreview();
+            }
+        };
+        Utils.playSound(mActivity, R.raw.beep, completionListener);
 
-        } else {
-            JLog.d("read data...");
-            scanView.setOneShotPreview();
-        }
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(mActivity, result.getText(), Toast.LENGTH_LONG).show();
+                scanView.stopPreview();
+            }
+        });
     }
 }
@@ -0,0 +1,237 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import android.graphics.Rect;
+
+import com.google.zxing.Result;
+import com.ttsea.jcamera.core.FrameInfo;
+import com.ttsea.jcamera.demo.debug.JLog;
+
+import java.util.ArrayDeque;
+
+/**
+ * 多线程解码流水线<br>
+ * 1.相机线程通过{@link #submit(byte[], FrameInfo, Rect)}提交每一帧，这里只拷贝扫描框内的亮度数据，马上返回<br>
+ * 2.固定数量的解码线程，每个线程使用{@link ZXingDecoder}中自己的reader，互不干扰<br>
+ * 3.只保留最新的一帧待解码数据，解码线程都在忙的时候，新帧会替换掉还没开始解码的旧帧<br>
+ * 这样第N帧在解码的时候，第N+1帧已经在采集了，采集和解码不再串行
+ */
+public class DecodePipeline {
+
+    public interface Callback {
+        /**
+         * 解码成功，在解码线程中回调
+         *
+         * @param result 解码结果
+         */
+        void onDecoded(Result result);
+    }
+
+    private final Object mLock = new Object();
+    private final Callback mCallback;
+    private final Worker[] mWorkers;
+    //空闲的帧缓冲区，个数为解码线程数+1，保证提交新帧的时候总有可用的缓冲区
+    private final ArrayDeque<Frame> mFreeFrames = new ArrayDeque<>();
+    //等待解码的最新一帧
+    private Frame mPendingFrame;
+    private boolean running;
+    //每次start()都会加1，上一轮的解码线程发现不一致后会自动退出
+    private int mGeneration;
+
+    //记录丢弃的帧数，用于调试
+    private long mDroppedCount;
+
+    /**
+     * @param workerCount 解码线程数，不能小于1
+     * @param callback    解码成功回调
+     */
+    public DecodePipeline(int workerCount, Callback callback) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be greater than 0, workerCount:" + workerCount);
+        }
+
+        mCallback = callback;
+        mWorkers = new Worker[workerCount];
+        for (int i = 0; i < workerCount + 1; i++) {
+            mFreeFrames.add(new Frame());
+        }
+    }
+
+    /**
+     * 获取默认的解码线程数，留一个核给相机和主线程，最多使用2个线程
+     *
+     * @return 解码线程数
+     */
+    public static int getDefaultWorkerCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(2, cpus - 1));
+    }
+
+    /**
+     * 启动解码线程
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            mGeneration++;
+            mDroppedCount = 0;
+
+            for (int i = 0; i < mWorkers.length; i++) {
+                mWorkers[i] = new Worker("DecodeWorker-" + i, mGeneration);
+                mWorkers[i].start();
+            }
+        }
+        JLog.d("DecodePipeline started, workers:" + mWorkers.length);
+    }
+
+    /**
+     * 停止解码线程，丢弃还没解码的数据
+     */
+    public void stop() {
+        synchronized (mLock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+
+            if (mPendingFrame != null) {
+                mFreeFrames.add(mPendingFrame);
+                mPendingFrame = null;
+            }
+            mLock.notifyAll();
+        }
+
+        for (int i = 0; i < mWorkers.length; i++) {
+            if (mWorkers[i] != null) {
+                mWorkers[i].interrupt();
+                mWorkers[i] = null;
+            }
+        }
+        JLog.d("DecodePipeline stopped, dropped frames:" + mDroppedCount
+                + ", " + ZXingDecoder.getInstance().getInvertRetryPolicy());
+    }
+
+    /**
+     * 提交一帧待解码的数据，只截取frameRect区域的亮度数据，马上返回<br>
+     * 可以在相机回调中直接调用，调用完后data就可以归还给相机了
+     *
+     * @param data      原始帧数据
+     * @param info      原始帧信息
+     * @param frameRect 待解码范围，原始帧坐标系
+     * @return true:提交成功，false:流水线未启动或者数据无效
+     */
+    public boolean submit(byte[] data, FrameInfo info, Rect frameRect) {
+        if (data == null || info == null || frameRect == null || frameRect.isEmpty()) {
+            return false;
+        }
+
+        Frame frame;
+        synchronized (mLock) {
+            if (!running) {
+                return false;
+            }
+
+            frame = mFreeFrames.poll();
+            if (frame == null) {
+                //所有缓冲区都在用，复用还没开始解码的旧帧
+                frame = mPendingFrame;
+                mPendingFrame = null;
+                mDroppedCount++;
+            }
+        }
+
+        if (frame == null) {
+            return false;
+        }
+
+        //拷贝在锁外进行，此时frame不在任何队列中
+        frame.fill(data, info, frameRect);
+
+        synchronized (mLock) {
+            if (!running) {
+                mFreeFrames.add(frame);
+                return false;
+            }
+
+            //最新帧优先，还没开始解码的旧帧直接丢弃
+            if (mPendingFrame != null) {
+                mFreeFrames.add(mPendingFrame);
+                mDroppedCount++;
+            }
+            mPendingFrame = frame;
+            mLock.notify();
+        }
+
+        return true;
+    }
+
+    /**
+     * 待解码的一帧数据，只包含截取并旋转后的亮度数据，缓冲区循环复用
+     */
+    private static final class Frame {
+        private byte[] luminance;
+        private int width;
+        private int height;
+
+        private void fill(byte[] data, FrameInfo info, Rect frameRect) {
+            int size = frameRect.width() * frameRect.height();
+            if (luminance == null || luminance.length < size) {
+                luminance = new byte[size];
+            }
+            width = info.cropLuminance(data, frameRect, luminance);
+            height = size / width;
+        }
+    }
+
+    /**
+     * 解码线程
+     */
+    private final class Worker extends Thread {
+        private final int generation;
+
+        private Worker(String name, int generation) {
+            super(name);
+            this.generation = generation;
+        }
+
+        private boolean isActive() {
+            return running && generation == mGeneration;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Frame frame;
+                synchronized (mLock) {
+                    while (isActive() && mPendingFrame == null) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            //stop()的时候会中断，在循环条件中判断是否退出
+                        }
+                    }
+
+                    if (!isActive()) {
+                        return;
+                    }
+
+                    frame = mPendingFrame;
+                    mPendingFrame = null;
+                }
+
+                Result result = ZXingDecoder.getInstance().decodeLuminance(
+                        frame.luminance, frame.width, frame.height);
+
+                synchronized (mLock) {
+                    mFreeFrames.add(frame);
+                }
+
+                if (result != null && mCallback != null) {
+                    mCallback.onDecoded(result);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 反色条码的重试策略<br>
+ * 正常解码失败后是否再解码一次反色的数据，反色解码和正常解码的代价一样，而大部分帧中根本没有条码，
+ * 每次失败都重试会让每一帧的解码代价翻倍，这里按以下规则决定是否重试：<br>
+ * 1.每N次失败才重试一次，N可以按{@link BarcodeFormat}分别设置，取当前解码格式中最小的N，N为0表示不按次数重试<br>
+ * 2.预检查：采样几行几列，跳变足够多、条和空的宽度不是零碎的1个像素、并且亮段和暗段的亮度相差很大
+ * (看起来有条码)才重试，同样可以按格式开关；噪点、纹理等跳变很多但亮度连续起伏的画面不会重试<br>
+ * 3.反色解码成功后，接下来的{@link #BOOST_COUNT}次失败都会重试；
+ * 反色解码成功的次数多于正常解码后，会先解码反色的数据，此时正常解码作为重试，总是会执行<br>
+ * 可以在多个解码线程中同时使用
+ */
+public class InvertRetryPolicy {
+    /** 反色解码成功后，接下来连续重试的次数 */
+    public static final int BOOST_COUNT = 30;
+
+    //2D码默认的重试间隔，屏幕上的深色模式二维码比较常见
+    private static final int DEFAULT_2D_INTERVAL = 2;
+    //1D码默认的重试间隔，反色的1D码很少见
+    private static final int DEFAULT_1D_INTERVAL = 15;
+
+    //预检查时采样的行数和列数
+    private static final int SAMPLE_LINES = 3;
+    //一条采样线上至少需要的跳变次数，1D码和二维码定位图形都会有多次明暗跳变
+    private static final int MIN_TRANSITIONS = 8;
+    //明暗差小于该值不认为是跳变，与HybridBinarizer的最小动态范围一致
+    private static final int MIN_CONTRAST = 24;
+    //宽度小于该值(像素)的条或者空算作过碎的间隔
+    private static final int MIN_RUN_LENGTH = 2;
+    //过碎的间隔最多占跳变次数的百分比，随机噪点约占40%以上
+    private static final int MAX_SHORT_RUN_PERCENT = 20;
+    //亮段和暗段平均亮度的最小差值，比MIN_CONTRAST大得多，光线较暗时的条码也能满足
+    private static final int MIN_SEPARATION = 64;
+
+    private final Map<BarcodeFormat, Integer> mIntervals = new EnumMap<>(BarcodeFormat.class);
+    private final Map<BarcodeFormat, Boolean> mPreChecks = new EnumMap<>(BarcodeFormat.class);
+
+    private int failedCount;
+    private int boostRemaining;
+    private long normalHits;
+    private long invertedHits;
+    private long retryCount;
+    private long skipCount;
+
+    public InvertRetryPolicy() {
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            mIntervals.put(format, is2D(format) ? DEFAULT_2D_INTERVAL : DEFAULT_1D_INTERVAL);
+            mPreChecks.put(format, true);
+        }
+    }
+
+    private static boolean is2D(BarcodeFormat format) {
+        switch (format) {
+            case AZTEC:
+            case DATA_MATRIX:
+            case MAXICODE:
+            case PDF_417:
+            case QR_CODE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 设置指定格式的重试间隔
+     *
+     * @param format   条码格式
+     * @param interval 每interval次失败重试一次，1表示每次都重试，0表示不按次数重试(只看预检查)
+     */
+    public synchronized void setInterval(BarcodeFormat format, int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval must not be negative, interval:" + interval);
+        }
+        mIntervals.put(format, interval);
+    }
+
+    /**
+     * 设置指定格式是否启用预检查
+     *
+     * @param format   条码格式
+     * @param preCheck true:预检查通过时重试
+     */
+    public synchronized void setPreCheckEnabled(BarcodeFormat format, boolean preCheck) {
+        mPreChecks.put(format, preCheck);
+    }
+
+    /**
+     * 是否先解码反色的数据
+     */
+    public synchronized boolean isInvertedPreferred() {
+        return invertedHits > normalHits;
+    }
+
+    /**
+     * 解码成功后调用，用于统计
+     *
+     * @param inverted 是否是反色解码成功的
+     */
+    public synchronized void onDecoded(boolean inverted) {
+        if (inverted) {
+            invertedHits++;
+            boostRemaining = BOOST_COUNT;
+        } else {
+            normalHits++;
+        }
+    }
+
+    /**
+     * 正常解码失败后调用，判断是否需要再解码反色的数据
+     *
+     * @param formats   当前的解码格式
+     * @param luminance 亮度数据
+     * @param width     数据宽度
+     * @param height    数据高度
+     * @return true:需要重试
+     */
+    public boolean shouldRetry(List<BarcodeFormat> formats, byte[] luminance, int width, int height) {
+        boolean preCheck;
+        synchronized (this) {
+            failedCount++;
+
+            if (boostRemaining > 0) {
+                boostRemaining--;
+                retryCount++;
+                return true;
+            }
+
+            int interval = 0;
+            preCheck = false;
+            for (BarcodeFormat format : formats) {
+                int formatInterval = mIntervals.get(format);
+                if (formatInterval > 0 && (interval == 0 || formatInterval < interval)) {
+                    interval = formatInterval;
+                }
+                preCheck |= mPreChecks.get(format);
+            }
+
+            if (interval > 0 && failedCount % interval == 0) {
+                retryCount++;
+                return true;
+            }
+        }
+
+        //预检查只读数据，不需要加锁
+        boolean retry = preCheck && isBarcodeLikely(luminance, width, height);
+        synchronized (this) {
+            if (retry) {
+                retryCount++;
+            } else {
+                skipCount++;
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * 采样几行几列，判断是否有一条采样线看起来穿过了条码
+     */
+    static boolean isBarcodeLikely(byte[] luminance, int width, int height) {
+        for (int i = 1; i <= SAMPLE_LINES; i++) {
+            int y = height * i / (SAMPLE_LINES + 1);
+            if (isBarcodeLike(luminance, y * width, 1, width)) {
+                return true;
+            }
+            int x = width * i / (SAMPLE_LINES + 1);
+            if (isBarcodeLike(luminance, x, width, height)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一条采样线是否像条码：有足够多的明暗跳变，跳变之间的间隔(条和空的宽度)不能太碎，
+     * 亮段和暗段的平均亮度相差足够大<br>
+     * 只有越过平均值上下MIN_CONTRAST/2的变化才算一次跳变；条码的条和空至少有一个模块宽，
+     * 能解码的条码一个模块一般不止1个像素，噪点和纹理的亮度随机起伏，会有大量只有1个像素宽的间隔
+     */
+    private static boolean isBarcodeLike(byte[] luminance, int offset, int step, int count) {
+        int sum = 0;
+        for (int i = 0, p = offset; i < count; i++, p += step) {
+            sum += luminance[p] & 0xFF;
+        }
+        int average = sum / count;
+        int low = average - MIN_CONTRAST / 2;
+        int high = average + MIN_CONTRAST / 2;
+
+        int transitions = 0;
+        int shortRuns = 0;
+        //亮段和暗段的亮度总和，用于计算两者的平均亮度差
+        long brightSum = 0;
+        int brightCount = 0;
+        long darkSum = 0;
+        int darkCount = 0;
+        //当前这一段明(暗)开始的位置，第一段可能只有一部分在采样线上，不参与统计
+        int runStart = -1;
+        //0:未知，1:亮，-1:暗
+        int state = 0;
+        for (int i = 0, p = offset; i < count; i++, p += step) {
+            int pixel = luminance[p] & 0xFF;
+            int newState = pixel > high ? 1 : pixel < low ? -1 : state;
+            if (newState == 1) {
+                brightSum += pixel;
+                brightCount++;
+            } else if (newState == -1) {
+                darkSum += pixel;
+                darkCount++;
+            }
+            if (newState == state) {
+                continue;
+            }
+
+            if (state != 0) {
+                transitions++;
+                if (runStart >= 0 && i - runStart < MIN_RUN_LENGTH) {
+                    shortRuns++;
+                }
+                runStart = i;
+            }
+            state = newState;
+        }
+
+        if (transitions < MIN_TRANSITIONS || shortRuns * 100 > transitions * MAX_SHORT_RUN_PERCENT) {
+            return false;
+        }
+        //条码只有明暗两种颜色，亮段和暗段的平均亮度相差很大；纹理的亮度连续起伏，两者相差不大
+        return brightSum / brightCount - darkSum / darkCount >= MIN_SEPARATION;
+    }
+
+    /**
+     * 预检查跳过的比例，跳过的次数 / (跳过的次数 + 按预检查或者间隔重试的次数)，用于评估预检查的效果
+     */
+    public synchronized float getSkipRate() {
+        long total = retryCount + skipCount;
+        return total == 0 ? 0 : (float) skipCount / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InvertRetryPolicy{normalHits=" + normalHits + ", invertedHits=" + invertedHits
+                + ", retry=" + retryCount + ", skip=" + skipCount
+                + ", skipRate=" + String.format(Locale.US, "%.1f%%", getSkipRate() * 100) + "}";
+    }
+}
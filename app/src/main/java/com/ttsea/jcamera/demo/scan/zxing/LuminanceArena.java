@@ -0,0 +1,51 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+/**
+ * 解码用的对象池，每个解码线程一个，不能在多个线程间共享<br>
+ * 按待解码区域(ROI)的大小缓存{@link RoiLuminanceSource}和{@link ReusableHybridBinarizer}，
+ * 扫描框大小不变的时候，每一帧都复用同一组对象和缓冲区
+ */
+final class LuminanceArena {
+    private RoiLuminanceSource mSource;
+    private ReusableHybridBinarizer mBinarizer;
+    //截取亮度数据用的缓冲区
+    private byte[] mCropBuffer;
+
+    /**
+     * 获取截取亮度数据用的缓冲区，长度不够的时候才会重新分配
+     *
+     * @param size 需要的长度
+     * @return 长度不小于size的缓冲区
+     */
+    byte[] obtainCropBuffer(int size) {
+        if (mCropBuffer == null || mCropBuffer.length < size) {
+            mCropBuffer = new byte[size];
+        }
+        return mCropBuffer;
+    }
+
+    /**
+     * 获取指定大小的数据源，大小变化时才会重新创建
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param data   亮度数据，长度不能小于 width * height
+     * @return 已经设置好数据的数据源
+     */
+    RoiLuminanceSource obtainSource(int width, int height, byte[] data) {
+        if (mSource == null || mSource.getWidth() != width || mSource.getHeight() != height) {
+            mSource = new RoiLuminanceSource(width, height);
+            mBinarizer = new ReusableHybridBinarizer(mSource);
+        }
+        mSource.setData(data);
+        mBinarizer.invalidate();
+        return mSource;
+    }
+
+    /**
+     * 获取与当前数据源对应的binarizer，see {@link #obtainSource(int, int, byte[])}
+     */
+    ReusableHybridBinarizer getBinarizer() {
+        return mBinarizer;
+    }
+}
@@ -0,0 +1,63 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+/**
+ * 亮度数据金字塔，每一层的宽高都是上一层的一半<br>
+ * 每一层由上一层2x2的盒式滤波(取平均值)得到，第1层是原始数据的1/2，第2层是原始数据的1/4<br>
+ * 预览尺寸很大的时候，大的二维码在缩小后的数据中就能解码成功，解码代价只有原始数据的1/4或者1/16
+ */
+final class LuminancePyramid {
+    /** 最多缩小到第几层 */
+    static final int MAX_LEVEL = 2;
+    /** 每一层较短的一边不能小于该值，再小的话条码的模块太小，很难解码成功 */
+    static final int MIN_LEVEL_SIZE = 160;
+
+    private LuminancePyramid() {
+    }
+
+    /**
+     * 获取最粗糙的可用层级
+     *
+     * @param width  原始数据宽度
+     * @param height 原始数据高度
+     * @return 0表示数据太小，不需要缩小
+     */
+    static int getStartLevel(int width, int height) {
+        int minSize = Math.min(width, height);
+        for (int level = MAX_LEVEL; level > 0; level--) {
+            if ((minSize >> level) >= MIN_LEVEL_SIZE) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 将数据缩小一半，每2x2个像素取平均值，宽高为奇数时忽略最后一行(列)
+     *
+     * @param src       原始数据
+     * @param srcWidth  原始数据宽度
+     * @param srcHeight 原始数据高度
+     * @param dst       用于存放结果，长度不能小于 (srcWidth / 2) * (srcHeight / 2)
+     */
+    static void halve(byte[] src, int srcWidth, int srcHeight, byte[] dst) {
+        int dstWidth = srcWidth / 2;
+        int dstHeight = srcHeight / 2;
+        if (dst.length < dstWidth * dstHeight) {
+            throw new IllegalArgumentException("dst is too small, need:" + dstWidth * dstHeight
+                    + ", dst:" + dst.length);
+        }
+
+        int d = 0;
+        for (int y = 0; y < dstHeight; y++) {
+            int s0 = 2 * y * srcWidth;
+            int s1 = s0 + srcWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int sum = (src[s0] & 0xFF) + (src[s0 + 1] & 0xFF)
+                        + (src[s1] & 0xFF) + (src[s1 + 1] & 0xFF);
+                dst[d++] = (byte) ((sum + 2) >> 2);
+                s0 += 2;
+                s1 += 2;
+            }
+        }
+    }
+}
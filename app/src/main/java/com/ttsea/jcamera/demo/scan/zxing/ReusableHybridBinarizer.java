@@ -0,0 +1,164 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+
+/**
+ * 可复用的{@link com.google.zxing.common.HybridBinarizer}<br>
+ * 算法与HybridBinarizer一致(8x8的块，每块取周围5x5块的平均值作为阈值)，不同的是：<br>
+ * 1.BitMatrix和每一块的阈值数组只在创建时分配，之后每一帧都复用<br>
+ * 2.数据源内容变化(新的一帧或者切换反色)后调用{@link #invalidate()}，下一次取矩阵时重新计算<br>
+ * 注：HybridBinarizer是final的，所以这里继承GlobalHistogramBinarizer，1D解码使用的getBlackRow()与其一致
+ */
+final class ReusableHybridBinarizer extends GlobalHistogramBinarizer {
+    private static final int BLOCK_SIZE_POWER = 3;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER;
+    private static final int BLOCK_SIZE_MASK = BLOCK_SIZE - 1;
+    private static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+
+    private final int subWidth;
+    private final int subHeight;
+    private BitMatrix matrix;
+    private int[][] blackPoints;
+    //matrix是否和当前的数据源一致
+    private boolean isMatrixValid;
+
+    ReusableHybridBinarizer(LuminanceSource source) {
+        super(source);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        subWidth = (width >> BLOCK_SIZE_POWER) + ((width & BLOCK_SIZE_MASK) != 0 ? 1 : 0);
+        subHeight = (height >> BLOCK_SIZE_POWER) + ((height & BLOCK_SIZE_MASK) != 0 ? 1 : 0);
+    }
+
+    /**
+     * 数据源内容已经变化，下一次取矩阵时重新计算
+     */
+    void invalidate() {
+        isMatrixValid = false;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (isMatrixValid) {
+            return matrix;
+        }
+
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width >= MINIMUM_DIMENSION && height >= MINIMUM_DIMENSION) {
+            if (matrix == null) {
+                matrix = new BitMatrix(width, height);
+                blackPoints = new int[subHeight][subWidth];
+            } else {
+                matrix.clear();
+            }
+            byte[] luminances = source.getMatrix();
+            calculateBlackPoints(luminances, subWidth, subHeight, width, height, blackPoints);
+            calculateThresholdForBlock(luminances, subWidth, subHeight, width, height, blackPoints, matrix);
+        } else {
+            //区域太小，使用全局直方图的方式
+            matrix = super.getBlackMatrix();
+        }
+
+        isMatrixValid = true;
+        return matrix;
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new ReusableHybridBinarizer(source);
+    }
+
+    private static void calculateThresholdForBlock(byte[] luminances, int subWidth, int subHeight,
+                                                   int width, int height, int[][] blackPoints,
+                                                   BitMatrix matrix) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = 0; y < subHeight; y++) {
+            int yoffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+            int top = cap(y, 2, subHeight - 3);
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                int left = cap(x, 2, subWidth - 3);
+                int sum = 0;
+                for (int z = -2; z <= 2; z++) {
+                    int[] blackRow = blackPoints[top + z];
+                    sum += blackRow[left - 2] + blackRow[left - 1] + blackRow[left]
+                            + blackRow[left + 1] + blackRow[left + 2];
+                }
+                thresholdBlock(luminances, xoffset, yoffset, sum / 25, width, matrix);
+            }
+        }
+    }
+
+    private static int cap(int value, int min, int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+
+    private static void thresholdBlock(byte[] luminances, int xoffset, int yoffset,
+                                       int threshold, int stride, BitMatrix matrix) {
+        for (int y = 0, offset = yoffset * stride + xoffset; y < BLOCK_SIZE; y++, offset += stride) {
+            for (int x = 0; x < BLOCK_SIZE; x++) {
+                //用<=，保证阈值为0的时候纯黑的像素也是黑色
+                if ((luminances[offset + x] & 0xFF) <= threshold) {
+                    matrix.set(xoffset + x, yoffset + y);
+                }
+            }
+        }
+    }
+
+    private static void calculateBlackPoints(byte[] luminances, int subWidth, int subHeight,
+                                             int width, int height, int[][] blackPoints) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = 0; y < subHeight; y++) {
+            int yoffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                int sum = 0;
+                int min = 0xFF;
+                int max = 0;
+                for (int yy = 0, offset = yoffset * width + xoffset; yy < BLOCK_SIZE; yy++, offset += width) {
+                    for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                        int pixel = luminances[offset + xx] & 0xFF;
+                        sum += pixel;
+                        if (pixel < min) {
+                            min = pixel;
+                        }
+                        if (pixel > max) {
+                            max = pixel;
+                        }
+                    }
+                    //对比度已经足够，剩下的行只需要累加
+                    if (max - min > MIN_DYNAMIC_RANGE) {
+                        for (yy++, offset += width; yy < BLOCK_SIZE; yy++, offset += width) {
+                            for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                                sum += luminances[offset + xx] & 0xFF;
+                            }
+                        }
+                    }
+                }
+
+                int average = sum >> (BLOCK_SIZE_POWER * 2);
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    //对比度很低，认为是背景，取最小值的一半，再参考周围已经计算过的块
+                    average = min / 2;
+                    if (y > 0 && x > 0) {
+                        int averageNeighborBlackPoint = (blackPoints[y - 1][x]
+                                + (2 * blackPoints[y][x - 1]) + blackPoints[y - 1][x - 1]) / 4;
+                        if (min < averageNeighborBlackPoint) {
+                            average = averageNeighborBlackPoint;
+                        }
+                    }
+                }
+                blackPoints[y][x] = average;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * 可复用的亮度数据源，数据就是待解码区域(ROI)的亮度数据，宽度即为行跨度<br>
+ * 1.通过{@link #setData(byte[])}更换每一帧的数据，不需要重新创建<br>
+ * 2.通过{@link #setInverted(boolean)}切换反色，反色数据写入内部复用的缓冲区，
+ * 不会像{@link LuminanceSource#invert()}那样每次都创建新对象和新数组
+ */
+final class RoiLuminanceSource extends LuminanceSource {
+    private byte[] mData;
+    //反色后的数据，只在需要的时候计算
+    private byte[] mInvertedData;
+    private boolean inverted;
+    private boolean isInvertedDataValid;
+
+    RoiLuminanceSource(int width, int height) {
+        super(width, height);
+    }
+
+    /**
+     * 设置亮度数据
+     *
+     * @param data 亮度数据，长度不能小于 width * height
+     */
+    void setData(byte[] data) {
+        if (data == null || data.length < getWidth() * getHeight()) {
+            throw new IllegalArgumentException("data is too small, need:" + getWidth() * getHeight()
+                    + ", data:" + (data == null ? 0 : data.length));
+        }
+        mData = data;
+        inverted = false;
+        isInvertedDataValid = false;
+    }
+
+    /**
+     * 设置是否返回反色的数据
+     *
+     * @param inverted true:返回反色的数据
+     */
+    void setInverted(boolean inverted) {
+        this.inverted = inverted;
+    }
+
+    boolean isInverted() {
+        return inverted;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+
+        int offset = y * width;
+        if (inverted) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) (255 - (mData[offset + x] & 0xFF));
+            }
+        } else {
+            System.arraycopy(mData, offset, row, 0, width);
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        if (!inverted) {
+            return mData;
+        }
+
+        if (!isInvertedDataValid) {
+            int size = getWidth() * getHeight();
+            if (mInvertedData == null || mInvertedData.length < size) {
+                mInvertedData = new byte[size];
+            }
+            for (int i = 0; i < size; i++) {
+                mInvertedData[i] = (byte) (255 - (mData[i] & 0xFF));
+            }
+            isInvertedDataValid = true;
+        }
+        return mInvertedData;
+    }
+}
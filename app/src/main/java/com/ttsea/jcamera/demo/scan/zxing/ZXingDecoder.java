@@ -5,22 +5,41 @@ import android.graphics.Rect;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.LuminanceSource;
 import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.ResultPoint;
+import com.ttsea.jcamera.core.FrameInfo;
 import com.ttsea.jcamera.demo.debug.JLog;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * 条码解码器<br>
+ * MultiFormatReader不是线程安全的，这里每个线程使用自己的reader(ThreadLocal)，可以在多个线程中同时解码<br>
+ * 解码格式保存在一个不可变的配置中，{@link #setFormats(List)}时整体替换，
+ * 各线程在下一次解码前发现配置变化后再重新设置自己reader的hints
+ */
 public class ZXingDecoder {
-    private final List<BarcodeFormat> formats = new ArrayList<>();
-    private MultiFormatReader mMultiFormatReader;
-    private static ZXingDecoder instance;
+    private static volatile ZXingDecoder instance;
+
+    //当前的解码配置，只会整体替换，不会修改
+    private volatile Config mConfig;
+    private final InvertRetryPolicy mInvertRetryPolicy = new InvertRetryPolicy();
+    //是否启用金字塔模式，see {@link #setPyramidEnabled(boolean)}
+    private volatile boolean isPyramidEnabled;
+    //每个线程自己的reader
+    private final ThreadLocal<ReaderHolder> mReaders = new ThreadLocal<ReaderHolder>() {
+        @Override
+        protected ReaderHolder initialValue() {
+            return new ReaderHolder();
+        }
+    };
 
     private static final List<BarcodeFormat> ALL_FORMATS = new ArrayList<>();
 
@@ -56,14 +75,22 @@ public class ZXingDecoder {
     }
 
     private ZXingDecoder() {
-        init();
+        mConfig = new Config(ALL_FORMATS);
     }
 
-    private void init() {
-        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, getFormats());
-        mMultiFormatReader = new MultiFormatReader();
-        mMultiFormatReader.setHints(hints);
+    /**
+     * 获取当前线程的reader和对象池，解码配置变化后会重新设置hints
+     *
+     * @return 当前线程的ReaderHolder
+     */
+    private ReaderHolder obtainHolder() {
+        Config config = mConfig;
+        ReaderHolder holder = mReaders.get();
+        if (holder.config != config) {
+            holder.reader.setHints(config.hints);
+            holder.config = config;
+        }
+        return holder;
     }
 
     /**
@@ -76,62 +103,277 @@ public class ZXingDecoder {
      * @return 解码结果，为null的时候表示为解码成功
      */
     public Result decodeData(byte[] data, Rect rect, int width, int height) {
-        if (rect == null || rect.isEmpty()
+        if (data == null || rect == null || rect.isEmpty()
                 || width <= 0 || height <= 0) {
             return null;
         }
 
+        int left = rect.left;
+        int top = rect.top;
+        int right = rect.right;
+        int bottom = rect.bottom;
+
         if (rect.width() > width) {
-            rect.left = rect.left * width / rect.width();
-            rect.right = rect.right * width / rect.width();
+            left = rect.left * width / rect.width();
+            right = rect.right * width / rect.width();
         }
 
         if (rect.height() > height) {
-            rect.top = rect.top * height / rect.height();
-            rect.bottom = rect.bottom * height / rect.height();
+            top = rect.top * height / rect.height();
+            bottom = rect.bottom * height / rect.height();
+        }
+
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        if (left >= right || top >= bottom) {
+            return null;
+        }
+
+        //逐行截取Y平面中的数据
+        ReaderHolder holder = obtainHolder();
+        int cropWidth = right - left;
+        int cropHeight = bottom - top;
+        byte[] luminance = holder.arena.obtainCropBuffer(cropWidth * cropHeight);
+        for (int y = 0; y < cropHeight; y++) {
+            System.arraycopy(data, (top + y) * width + left, luminance, y * cropWidth, cropWidth);
         }
 
+        return decodeLevels(holder, luminance, cropWidth, cropHeight);
+    }
+
+    /**
+     * 解码原始帧中的数据<br>
+     * 只截取frameRect区域的亮度数据并旋转成屏幕方向，不需要旋转整帧数据
+     *
+     * @param data      原始帧数据
+     * @param info      原始帧信息
+     * @param frameRect 待解码范围，原始帧坐标系，see {@link FrameInfo#mapViewRectToFrame(Rect, int, int, Rect)}
+     * @return 解码结果，为null的时候表示为解码成功
+     */
+    public Result decodeRawData(byte[] data, FrameInfo info, Rect frameRect) {
+        if (data == null || info == null || frameRect == null || frameRect.isEmpty()) {
+            return null;
+        }
+
+        ReaderHolder holder = obtainHolder();
+        int size = frameRect.width() * frameRect.height();
+        byte[] luminance = holder.arena.obtainCropBuffer(size);
+        int cropWidth = info.cropLuminance(data, frameRect, luminance);
+
+        return decodeLevels(holder, luminance, cropWidth, size / cropWidth);
+    }
+
+    /**
+     * 解码亮度数据，可以在多个线程中同时调用
+     *
+     * @param luminance 亮度数据
+     * @param width     数据宽度
+     * @param height    数据高度
+     * @return 解码结果，为null的时候表示为解码成功
+     */
+    public Result decodeLuminance(byte[] luminance, int width, int height) {
+        if (luminance == null || width <= 0 || height <= 0
+                || luminance.length < width * height) {
+            return null;
+        }
+
+        return decodeLevels(obtainHolder(), luminance, width, height);
+    }
+
+    /**
+     * 解码亮度数据，启用金字塔模式的时候先解码缩小后的数据，
+     * 失败后只有原始数据中看起来有条码(预检查通过)，才逐层解码更精细的数据
+     */
+    private Result decodeLevels(ReaderHolder holder, byte[] luminance, int width, int height) {
+        int startLevel = isPyramidEnabled ? LuminancePyramid.getStartLevel(width, height) : 0;
+        if (startLevel == 0) {
+            return decode(holder, holder.arena, luminance, width, height, true);
+        }
+
+        //逐层缩小，每一层的数据保存在该层自己的对象池中
+        byte[] src = luminance;
+        for (int level = 1; level <= startLevel; level++) {
+            int srcWidth = width >> (level - 1);
+            int srcHeight = height >> (level - 1);
+            byte[] dst = holder.getLevelArena(level).obtainCropBuffer((width >> level) * (height >> level));
+            LuminancePyramid.halve(src, srcWidth, srcHeight, dst);
+            src = dst;
+        }
+
+        for (int level = startLevel; level > 0; level--) {
+            LuminanceArena arena = holder.getLevelArena(level);
+            int levelWidth = width >> level;
+            int levelHeight = height >> level;
+            byte[] levelData = arena.obtainCropBuffer(levelWidth * levelHeight);
+            //缩小的数据只做正常解码，反色留给原始数据
+            Result result = decode(holder, arena, levelData, levelWidth, levelHeight, false);
+            if (result != null) {
+                return scaleResult(result, 1 << level);
+            }
+
+            //最粗糙的一层失败后，没有条码的迹象就不再继续
+            if (level == startLevel
+                    && !InvertRetryPolicy.isBarcodeLikely(luminance, width, height)) {
+                return null;
+            }
+        }
+
+        return decode(holder, holder.arena, luminance, width, height, true);
+    }
+
+    /**
+     * 将缩小后数据中的解码结果的坐标换算到原始数据中
+     */
+    private static Result scaleResult(Result result, int scale) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null) {
+            return result;
+        }
+
+        ResultPoint[] scaledPoints = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ResultPoint point = points[i];
+            scaledPoints[i] = point == null ? null
+                    : new ResultPoint(point.getX() * scale, point.getY() * scale);
+        }
+
+        Result scaled = new Result(result.getText(), result.getRawBytes(), scaledPoints,
+                result.getBarcodeFormat(), result.getTimestamp());
+        scaled.putAllMetadata(result.getResultMetadata());
+        return scaled;
+    }
+
+    /**
+     * 解码亮度数据，正常解码失败后由{@link InvertRetryPolicy}决定是否再解码反色的数据<br>
+     * 两次解码使用同一个数据源和binarizer，反色只是切换数据源的状态
+     *
+     * @param retryInverted 是否允许重试反色的数据
+     */
+    private Result decode(ReaderHolder holder, LuminanceArena arena, byte[] luminance,
+                          int width, int height, boolean retryInverted) {
+        MultiFormatReader reader = holder.reader;
+        RoiLuminanceSource source = arena.obtainSource(width, height, luminance);
+        ReusableHybridBinarizer binarizer = arena.getBinarizer();
+        InvertRetryPolicy policy = mInvertRetryPolicy;
         try {
-            PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(data, width, height,
-                    rect.left, rect.top, rect.width(), rect.height(), false);
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            Result result = mMultiFormatReader.decodeWithState(bitmap);
-
-            if (result == null) {
-                LuminanceSource invertedSource = source.invert();
-                bitmap = new BinaryBitmap(new HybridBinarizer(invertedSource));
-                result = mMultiFormatReader.decodeWithState(bitmap);
+            //反色条码更常见的时候先解码反色的数据
+            boolean invertedFirst = retryInverted && policy.isInvertedPreferred();
+            source.setInverted(invertedFirst);
+            try {
+                //BinaryBitmap是final的，只能每次新建，它只是binarizer的一层包装
+                Result result = reader.decodeWithState(new BinaryBitmap(binarizer));
+                if (retryInverted) {
+                    policy.onDecoded(invertedFirst);
+                }
+                return result;
+            } catch (NotFoundException e) {
+                //没有找到条码
             }
 
+            if (!retryInverted) {
+                return null;
+            }
+            if (!invertedFirst && !policy.shouldRetry(holder.config.formats, luminance, width, height)) {
+                return null;
+            }
+
+            source.setInverted(!invertedFirst);
+            binarizer.invalidate();
+            Result result = reader.decodeWithState(new BinaryBitmap(binarizer));
+            policy.onDecoded(!invertedFirst);
             return result;
 
+        } catch (ReaderException e) {
+            //没有解码成功，每一帧都很常见，不输出日志
+
         } catch (Exception e) {
             JLog.w("Exception e:" + e.getMessage());
             // e.printStackTrace();
 
         } finally {
-            mMultiFormatReader.reset();
+            reader.reset();
         }
 
         return null;
     }
 
+    /**
+     * 设置是否启用金字塔模式<br>
+     * 启用后先解码缩小1/2或1/4的数据，失败后有条码的迹象才解码原始数据，适合预览尺寸很大、条码也比较大的场景
+     *
+     * @param enabled true:启用
+     */
+    public void setPyramidEnabled(boolean enabled) {
+        isPyramidEnabled = enabled;
+    }
+
+    public boolean isPyramidEnabled() {
+        return isPyramidEnabled;
+    }
+
+    /**
+     * 获取反色条码的重试策略，可以按格式设置重试间隔和预检查
+     *
+     * @return InvertRetryPolicy
+     */
+    public InvertRetryPolicy getInvertRetryPolicy() {
+        return mInvertRetryPolicy;
+    }
+
+    /**
+     * 获取当前的解码格式
+     *
+     * @return 不可修改的格式列表
+     */
     public List<BarcodeFormat> getFormats() {
-        if (formats.isEmpty()) {
-            formats.addAll(ALL_FORMATS);
-        }
-        return formats;
+        return mConfig.formats;
     }
 
     /**
-     * 设置解码格式
+     * 设置解码格式，立即对所有线程的下一次解码生效
      *
-     * @param formats
+     * @param formats 解码格式，为空的时候解码所有格式
      */
     public void setFormats(List<BarcodeFormat> formats) {
-        this.formats.clear();
-        if (formats != null) {
-            this.formats.addAll(formats);
+        if (formats == null || formats.isEmpty()) {
+            formats = ALL_FORMATS;
+        }
+        mConfig = new Config(formats);
+    }
+
+    /**
+     * 解码配置，创建后不再修改，可以在多个线程间共享
+     */
+    private static final class Config {
+        private final List<BarcodeFormat> formats;
+        private final Map<DecodeHintType, Object> hints;
+
+        private Config(List<BarcodeFormat> formats) {
+            this.formats = Collections.unmodifiableList(new ArrayList<>(formats));
+
+            Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, this.formats);
+            this.hints = Collections.unmodifiableMap(hints);
+        }
+    }
+
+    /**
+     * 线程自己的reader、对象池，以及reader当前使用的配置
+     */
+    private static final class ReaderHolder {
+        private final MultiFormatReader reader = new MultiFormatReader();
+        private final LuminanceArena arena = new LuminanceArena();
+        //金字塔每一层的对象池，下标为层级，用到的时候才创建
+        private final LuminanceArena[] levelArenas = new LuminanceArena[LuminancePyramid.MAX_LEVEL + 1];
+        private Config config;
+
+        private LuminanceArena getLevelArena(int level) {
+            if (levelArenas[level] == null) {
+                levelArenas[level] = new LuminanceArena();
+            }
+            return levelArenas[level];
         }
     }
 }
@@ -0,0 +1,197 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link InvertRetryPolicy}的本地单元测试
+ */
+public class InvertRetryPolicyTest {
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 200;
+
+    private static final List<BarcodeFormat> QR = Collections.singletonList(BarcodeFormat.QR_CODE);
+    private static final List<BarcodeFormat> CODE_128 = Collections.singletonList(BarcodeFormat.CODE_128);
+
+    @Test
+    public void interval_retriesEveryNthFailure() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        policy.setPreCheckEnabled(BarcodeFormat.QR_CODE, false);
+        policy.setInterval(BarcodeFormat.QR_CODE, 3);
+        byte[] flat = createFlat();
+
+        assertFalse(policy.shouldRetry(QR, flat, WIDTH, HEIGHT));
+        assertFalse(policy.shouldRetry(QR, flat, WIDTH, HEIGHT));
+        assertTrue(policy.shouldRetry(QR, flat, WIDTH, HEIGHT));
+        assertFalse(policy.shouldRetry(QR, flat, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void interval_usesSmallestOfFormats() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        policy.setPreCheckEnabled(BarcodeFormat.QR_CODE, false);
+        policy.setPreCheckEnabled(BarcodeFormat.CODE_128, false);
+        policy.setInterval(BarcodeFormat.QR_CODE, 0);
+        policy.setInterval(BarcodeFormat.CODE_128, 2);
+        byte[] flat = createFlat();
+
+        List<BarcodeFormat> formats = Arrays.asList(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128);
+        assertFalse(policy.shouldRetry(formats, flat, WIDTH, HEIGHT));
+        assertTrue(policy.shouldRetry(formats, flat, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void zeroInterval_onlyPreCheck() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        policy.setInterval(BarcodeFormat.CODE_128, 0);
+
+        for (int i = 0; i < 20; i++) {
+            assertFalse(policy.shouldRetry(CODE_128, createFlat(), WIDTH, HEIGHT));
+        }
+        assertTrue(policy.shouldRetry(CODE_128, createBars(), WIDTH, HEIGHT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeInterval_isRejected() {
+        new InvertRetryPolicy().setInterval(BarcodeFormat.QR_CODE, -1);
+    }
+
+    @Test
+    public void invertedHit_boostsFollowingRetries() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        policy.setPreCheckEnabled(BarcodeFormat.CODE_128, false);
+        policy.setInterval(BarcodeFormat.CODE_128, 0);
+        byte[] flat = createFlat();
+
+        policy.onDecoded(true);
+        for (int i = 0; i < InvertRetryPolicy.BOOST_COUNT; i++) {
+            assertTrue(policy.shouldRetry(CODE_128, flat, WIDTH, HEIGHT));
+        }
+        assertFalse(policy.shouldRetry(CODE_128, flat, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void invertedPreferred_afterMoreInvertedHits() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        assertFalse(policy.isInvertedPreferred());
+
+        policy.onDecoded(true);
+        assertTrue(policy.isInvertedPreferred());
+
+        policy.onDecoded(false);
+        assertFalse(policy.isInvertedPreferred());
+    }
+
+    @Test
+    public void preCheck_barsPass() {
+        assertTrue(InvertRetryPolicy.isBarcodeLikely(createBars(), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void preCheck_flatAndGradientFail() {
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(createFlat(), WIDTH, HEIGHT));
+
+        byte[] gradient = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                gradient[y * WIDTH + x] = (byte) (x * 255 / WIDTH);
+            }
+        }
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(gradient, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void preCheck_lowContrastFails() {
+        //明暗差小于最小动态范围，不算跳变
+        byte[] data = createBars();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((data[i] & 0xFF) == 0 ? 120 : 130);
+        }
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(data, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void preCheck_blurredBarsPass() {
+        //相机拍到的条码边缘有1个像素的过渡
+        byte[] data = createBars();
+        byte[] blurred = data.clone();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int i = y * WIDTH + x;
+                blurred[i] = (byte) (((data[i - 1] & 0xFF) + 2 * (data[i] & 0xFF) + (data[i + 1] & 0xFF)) / 4);
+            }
+        }
+        assertTrue(InvertRetryPolicy.isBarcodeLikely(blurred, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void preCheck_noiseFails() {
+        //噪点和纹理的跳变很多，但亮度是连续分布的
+        Random random = new Random(1);
+        byte[] uniform = new byte[WIDTH * HEIGHT];
+        byte[] gaussian = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < uniform.length; i++) {
+            uniform[i] = (byte) random.nextInt(256);
+            int value = (int) (128 + random.nextGaussian() * 40);
+            gaussian[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(uniform, WIDTH, HEIGHT));
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(gaussian, WIDTH, HEIGHT));
+
+        //模糊后的噪点间隔不再零碎，但亮度仍然是连续的，和条码的两种颜色不一样
+        byte[] texture = new byte[WIDTH * HEIGHT];
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int sum = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        sum += uniform[(y + dy) * WIDTH + x + dx] & 0xFF;
+                    }
+                }
+                texture[y * WIDTH + x] = (byte) (sum / 9);
+            }
+        }
+        assertFalse(InvertRetryPolicy.isBarcodeLikely(texture, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void skipRate() {
+        InvertRetryPolicy policy = new InvertRetryPolicy();
+        policy.setInterval(BarcodeFormat.CODE_128, 0);
+        assertEquals(0, policy.getSkipRate(), 0);
+
+        policy.shouldRetry(CODE_128, createFlat(), WIDTH, HEIGHT);
+        policy.shouldRetry(CODE_128, createFlat(), WIDTH, HEIGHT);
+        policy.shouldRetry(CODE_128, createFlat(), WIDTH, HEIGHT);
+        policy.shouldRetry(CODE_128, createBars(), WIDTH, HEIGHT);
+        assertEquals(0.75f, policy.getSkipRate(), 0.001f);
+    }
+
+    private static byte[] createFlat() {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        Arrays.fill(data, (byte) 128);
+        return data;
+    }
+
+    /**
+     * 模块宽度为4像素的棋盘格，行列方向上都有规则的明暗跳变，和二维码的模块类似
+     */
+    private static byte[] createBars() {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean dark = ((x / 4) + (y / 4)) % 2 == 0;
+                data[y * WIDTH + x] = (byte) (dark ? 0 : 255);
+            }
+        }
+        return data;
+    }
+}
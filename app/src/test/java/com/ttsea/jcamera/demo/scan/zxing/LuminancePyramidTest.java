@@ -0,0 +1,101 @@
+package com.ttsea.jcamera.demo.scan.zxing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LuminancePyramid}的本地单元测试
+ */
+public class LuminancePyramidTest {
+
+    @Test
+    public void startLevel() {
+        int min = LuminancePyramid.MIN_LEVEL_SIZE;
+        //较短的一边缩小4倍后还不小于MIN_LEVEL_SIZE，从第2层开始
+        assertEquals(2, LuminancePyramid.getStartLevel(min * 8, min * 4));
+        assertEquals(1, LuminancePyramid.getStartLevel(min * 8, min * 4 - 1));
+        assertEquals(1, LuminancePyramid.getStartLevel(min * 2, min * 2));
+        assertEquals(0, LuminancePyramid.getStartLevel(min * 2 - 1, min * 8));
+        assertEquals(0, LuminancePyramid.getStartLevel(0, 0));
+    }
+
+    @Test
+    public void startLevel_neverExceedsMaxLevel() {
+        assertEquals(LuminancePyramid.MAX_LEVEL, LuminancePyramid.getStartLevel(100000, 100000));
+    }
+
+    @Test
+    public void halve_averagesWithRounding() {
+        byte[] src = {
+                0, 1, (byte) 255, (byte) 255,
+                2, 3, (byte) 255, (byte) 254,
+        };
+        byte[] dst = new byte[2];
+        LuminancePyramid.halve(src, 4, 2, dst);
+
+        //(0+1+2+3+2)/4=2，(255*3+254+2)/4=255
+        assertEquals(2, dst[0] & 0xFF);
+        assertEquals(255, dst[1] & 0xFF);
+    }
+
+    @Test
+    public void halve_oddSizeIgnoresLastRowAndColumn() {
+        int width = 5;
+        int height = 3;
+        byte[] src = new byte[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) 100;
+        }
+        //最后一列和最后一行不参与计算
+        for (int y = 0; y < height; y++) {
+            src[y * width + width - 1] = (byte) 255;
+        }
+        for (int x = 0; x < width; x++) {
+            src[(height - 1) * width + x] = (byte) 255;
+        }
+
+        byte[] dst = new byte[2];
+        LuminancePyramid.halve(src, width, height, dst);
+        assertEquals(100, dst[0] & 0xFF);
+        assertEquals(100, dst[1] & 0xFF);
+    }
+
+    @Test
+    public void halve_twiceMatchesFourByFourAverage() {
+        int width = 64;
+        int height = 48;
+        byte[] src = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src[y * width + x] = (byte) ((x * 4) ^ (y * 3));
+            }
+        }
+
+        byte[] level1 = new byte[(width / 2) * (height / 2)];
+        LuminancePyramid.halve(src, width, height, level1);
+        byte[] level2 = new byte[(width / 4) * (height / 4)];
+        LuminancePyramid.halve(level1, width / 2, height / 2, level2);
+
+        //两次四舍五入后和直接取4x4平均值的误差不超过1
+        for (int y = 0; y < height / 4; y++) {
+            for (int x = 0; x < width / 4; x++) {
+                int sum = 0;
+                for (int dy = 0; dy < 4; dy++) {
+                    for (int dx = 0; dx < 4; dx++) {
+                        sum += src[(y * 4 + dy) * width + x * 4 + dx] & 0xFF;
+                    }
+                }
+                int expected = sum / 16;
+                int actual = level2[y * (width / 4) + x] & 0xFF;
+                assertTrue("x:" + x + ", y:" + y + ", expected:" + expected + ", actual:" + actual,
+                        Math.abs(expected - actual) <= 1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void halve_smallDstIsRejected() {
+        LuminancePyramid.halve(new byte[16], 4, 4, new byte[3]);
+    }
+}
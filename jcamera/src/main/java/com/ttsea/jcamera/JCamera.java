@@ -1,10 +1,47 @@
 package com.ttsea.jcamera;
 
+import android.content.Context;
+
+import com.ttsea.jcamera.annotation.Facing;
 import com.ttsea.jcamera.core.CameraPreview;
 
+import java.io.File;
+
 public class JCamera {
 
     public static void debugMode(boolean debug) {
         CameraPreview.enableLog(debug);
     }
+
+    /**
+     * 开启日志文件，see {@link CameraPreview#enableFileLog(File)}
+     */
+    public static void enableFileLog(File directory) {
+        CameraPreview.enableFileLog(directory);
+    }
+
+    /**
+     * 设置写入日志文件的最低等级，see {@link CameraPreview#setFileLogLevel(int)}
+     */
+    public static void setFileLogLevel(int priority) {
+        CameraPreview.setFileLogLevel(priority);
+    }
+
+    /**
+     * 导出最近一段时间的日志，see {@link CameraPreview#dumpRecentLog(long, File)}
+     */
+    public static boolean dumpRecentLog(long durationMs, File outputFile) {
+        return CameraPreview.dumpRecentLog(durationMs, outputFile);
+    }
+
+    /**
+     * 预热摄像头，see {@link CameraPreview#prewarm(Context, int, boolean)}
+     */
+    public static void prewarm(Context context, @Facing int facing) {
+        CameraPreview.prewarm(context, facing, true);
+    }
+
+    public static void prewarm(Context context, @Facing int facing, boolean openDevice) {
+        CameraPreview.prewarm(context, facing, openDevice);
+    }
 }
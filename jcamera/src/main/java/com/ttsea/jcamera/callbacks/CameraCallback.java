@@ -1,7 +1,10 @@
 package com.ttsea.jcamera.callbacks;
 
+import com.ttsea.jcamera.core.FrameInfo;
+
 import java.io.File;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
@@ -52,6 +55,16 @@ public interface CameraCallback {
      */
     void onStopPreview();
 
+    /**
+     * 打开摄像头后第一帧预览到达的时候会回调这个方法，每次打开摄像头只回调一次<br>
+     * 两个时间都是{@link android.os.SystemClock#elapsedRealtime()}，相减即为打开到出图的耗时<br>
+     * 在主线程中回调
+     *
+     * @param startTime 开始打开摄像头的时间，预热过的话为开始预热的时间
+     * @param frameTime 第一帧到达的时间
+     */
+    void onFirstFrame(long startTime, long frameTime);
+
     /**
      * 拍照回调<br>
      * 在主线程中回调
@@ -61,6 +74,28 @@ public interface CameraCallback {
      */
     void onPictureTaken(@Nullable File picFile, String errorMsg);
 
+    /**
+     * 连拍时每一张照片的回调<br>
+     * 在主线程中回调
+     *
+     * @param index       第几张，从0开始
+     * @param picFile     返回照片的路径，为空的时候表示出错了
+     * @param shutterTime 快门时间，see {@link System#currentTimeMillis()}
+     * @param savedTime   照片写入文件(或者出错)的时间，see {@link System#currentTimeMillis()}
+     * @param errorMsg    出错的时候所带的错误信息
+     */
+    void onBurstPictureTaken(int index, @Nullable File picFile, long shutterTime, long savedTime,
+                             String errorMsg);
+
+    /**
+     * 连拍结束，所有照片都已经保存(或者出错)<br>
+     * 在主线程中回调
+     *
+     * @param count      连拍张数
+     * @param savedCount 成功保存的张数
+     */
+    void onBurstFinished(int count, int savedCount);
+
     /**
      * 录像异常<br>
      * 在主线程中回调
@@ -69,6 +104,15 @@ public interface CameraCallback {
      */
     void onRecordError(String errorMsg);
 
+    /**
+     * 分段录像时，一段录像已经写完，文件可以直接播放或者上传<br>
+     * 在主线程中回调
+     *
+     * @param index       第几段，从0开始
+     * @param segmentFile 这一段的文件
+     */
+    void onRecordSegmentFinished(int index, @NonNull File segmentFile);
+
     /**
      * 捕捉一帧数据，这里返回的数据是已经处理好旋转角度的byte[]数据<br>
      * 将会在子程中回调
@@ -82,7 +126,8 @@ public interface CameraCallback {
 
     /**
      * 捕捉每一帧数据，这里返回的数据是已经处理好旋转角度的byte[]数据<br>
-     * 将会在子程中回调
+     * 将会在子程中回调<br>
+     * 注：data是循环复用的缓冲区，回调结束后会被相机重新填充，如需异步处理请先拷贝
      *
      * @param data   返回的byte数据
      * @param format data数据类型
@@ -90,4 +135,25 @@ public interface CameraCallback {
      * @param height data高度
      */
     void everyFrameData(@Nullable byte[] data, int format, int width, int height);
+
+    /**
+     * 捕捉一帧原始数据，这里返回的数据是没有经过旋转的传感器方向的数据<br>
+     * 开启了原始帧模式后才会回调，此时不再回调{@link #oneShotFrameData(byte[], int, int, int)}<br>
+     * 将会在子程中回调
+     *
+     * @param data 返回的byte数据
+     * @param info 数据的格式、宽高以及旋转和镜像信息
+     */
+    void oneShotRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info);
+
+    /**
+     * 捕捉每一帧原始数据，这里返回的数据是没有经过旋转的传感器方向的数据<br>
+     * 开启了原始帧模式后才会回调，此时不再回调{@link #everyFrameData(byte[], int, int, int)}<br>
+     * 将会在子程中回调<br>
+     * 注：data是循环复用的缓冲区，回调结束后会被相机重新填充，如需异步处理请先拷贝
+     *
+     * @param data 返回的byte数据
+     * @param info 数据的格式、宽高以及旋转和镜像信息
+     */
+    void everyRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info);
 }
@@ -1,7 +1,10 @@
 package com.ttsea.jcamera.callbacks;
 
+import com.ttsea.jcamera.core.FrameInfo;
+
 import java.io.File;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public class SimpleCameraCallback implements CameraCallback {
@@ -31,16 +34,37 @@ public class SimpleCameraCallback implements CameraCallback {
 
     }
 
+    @Override
+    public void onFirstFrame(long startTime, long frameTime) {
+
+    }
+
     @Override
     public void onPictureTaken(@Nullable File file, String errorMsg) {
 
     }
 
+    @Override
+    public void onBurstPictureTaken(int index, @Nullable File picFile, long shutterTime, long savedTime,
+                                    String errorMsg) {
+
+    }
+
+    @Override
+    public void onBurstFinished(int count, int savedCount) {
+
+    }
+
     @Override
     public void onRecordError(String errorMsg) {
 
     }
 
+    @Override
+    public void onRecordSegmentFinished(int index, @NonNull File segmentFile) {
+
+    }
+
     @Override
     public void oneShotFrameData(@Nullable byte[] data, int format, int width, int height) {
 
@@ -50,4 +74,14 @@ public class SimpleCameraCallback implements CameraCallback {
     public void everyFrameData(@Nullable byte[] data, int format, int width, int height) {
 
     }
+
+    @Override
+    public void oneShotRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+
+    }
+
+    @Override
+    public void everyRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+
+    }
 }
@@ -0,0 +1,135 @@
+package com.ttsea.jcamera.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 原子写文件<br>
+ * 1.先通过FileChannel把数据写入同目录下的临时文件，支持堆内和直接内存的ByteBuffer<br>
+ * 2.按照{@link #FORCE_NONE}/{@link #FORCE_DATA}/{@link #FORCE_ALL}决定是否以及如何将数据同步到存储设备<br>
+ * 3.最后将临时文件重命名为目标文件，同一文件系统内的重命名是原子的，
+ * 写到一半崩溃只会留下临时文件，不会在目标文件名下留下不完整的数据<br>
+ * 每次写入都会返回耗时统计，see {@link Metrics}
+ */
+final class AtomicFileWriter {
+    /** 不主动同步，由系统决定何时写入存储设备，最快但断电可能丢数据 */
+    static final int FORCE_NONE = 0;
+    /** 只同步文件内容，see {@link FileChannel#force(boolean)}，参数为false */
+    static final int FORCE_DATA = 1;
+    /** 同步文件内容和元数据，see {@link FileChannel#force(boolean)}，参数为true */
+    static final int FORCE_ALL = 2;
+
+    //临时文件的后缀
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final int forcePolicy;
+
+    /**
+     * @param forcePolicy {@link #FORCE_NONE}, {@link #FORCE_DATA} or {@link #FORCE_ALL}
+     */
+    AtomicFileWriter(int forcePolicy) {
+        if (forcePolicy != FORCE_NONE && forcePolicy != FORCE_DATA && forcePolicy != FORCE_ALL) {
+            throw new IllegalArgumentException("Unknown forcePolicy:" + forcePolicy);
+        }
+        this.forcePolicy = forcePolicy;
+    }
+
+    /**
+     * 将data写入file
+     *
+     * @param data 数据
+     * @param file 目标文件，已经存在的时候会被替换
+     * @return 耗时统计
+     * @throws IOException 写入或者重命名失败，此时目标文件保持原样
+     */
+    Metrics write(byte[] data, File file) throws IOException {
+        return write(ByteBuffer.wrap(data), file);
+    }
+
+    /**
+     * 将buffer中position到limit之间的数据写入file，写完后buffer的position等于limit
+     *
+     * @param buffer 数据
+     * @param file   目标文件，已经存在的时候会被替换
+     * @return 耗时统计
+     * @throws IOException 写入或者重命名失败，此时目标文件保持原样
+     */
+    Metrics write(ByteBuffer buffer, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Create directory failed, dir:" + parent);
+        }
+
+        File tempFile = new File(parent, "." + file.getName() + TEMP_SUFFIX);
+        long bytes = 0;
+        long writeNanos;
+        long forceNanos = 0;
+        boolean success = false;
+
+        FileOutputStream os = null;
+        try {
+            long start = System.nanoTime();
+            os = new FileOutputStream(tempFile);
+            FileChannel channel = os.getChannel();
+            while (buffer.hasRemaining()) {
+                bytes += channel.write(buffer);
+            }
+            writeNanos = System.nanoTime() - start;
+
+            if (forcePolicy != FORCE_NONE) {
+                start = System.nanoTime();
+                channel.force(forcePolicy == FORCE_ALL);
+                forceNanos = System.nanoTime() - start;
+            }
+
+            os.close();
+            os = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Rename " + tempFile + " to " + file + " failed.");
+            }
+            success = true;
+
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (Exception e) {
+                    // Ignore
+                }
+            }
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+
+        return new Metrics(bytes, writeNanos, forceNanos);
+    }
+
+    /**
+     * 一次写入的耗时统计
+     */
+    static final class Metrics {
+        /** 写入的字节数 */
+        final long bytes;
+        /** 写入临时文件的耗时，单位纳秒 */
+        final long writeNanos;
+        /** 同步到存储设备的耗时，单位纳秒，没有同步的时候为0 */
+        final long forceNanos;
+
+        Metrics(long bytes, long writeNanos, long forceNanos) {
+            this.bytes = bytes;
+            this.writeNanos = writeNanos;
+            this.forceNanos = forceNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{bytes=" + bytes + ", write=" + writeNanos / 1000 + "us"
+                    + ", force=" + forceNanos / 1000 + "us}";
+        }
+    }
+}
@@ -5,11 +5,13 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 
 import com.ttsea.jcamera.annotation.Flash;
+import com.ttsea.jcamera.callbacks.CameraCallback;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.content.Context.SENSOR_SERVICE;
 
@@ -33,7 +35,13 @@ abstract class BaseCamera implements ICamera, SensorEventListener {
     private final float[] mLastGravity = new float[3];//用于记录上次的重力加速度
     private long lastSensorTimestamp = 0;//记录上次传感器执行的时间
 
-    private Handler mHandler;
+    //CameraCallback的主线程回调
+    private final CallbackDispatcher mDispatcher = new CallbackDispatcher();
+
+    //录像参数的上限，为空的时候使用默认的画质选择
+    private volatile RecordBudget mRecordBudget;
+    //开始打开摄像头(或者预热)的时间，用于计算到第一帧的耗时，0表示已经回调过了
+    private final AtomicLong mOpenStartTime = new AtomicLong(0);
 
     public BaseCamera(Context context) {
         mSensorManager = (SensorManager) context.getSystemService(SENSOR_SERVICE);
@@ -45,8 +53,6 @@ abstract class BaseCamera implements ICamera, SensorEventListener {
 
     private void init(Context context) {
         mContext = context;
-
-        mHandler = new Handler(Looper.getMainLooper());
     }
 
     /**
@@ -155,46 +161,10 @@ abstract class BaseCamera implements ICamera, SensorEventListener {
     protected abstract void startAutoFocus();
 
     /**
-     * 将runnable放置到主线程中执行
-     *
-     * @param action
+     * 获取主线程回调的分发器，{@link CameraCallback}中在主线程回调的方法都通过它回调
      */
-    protected void runOnUiThread(Runnable action) {
-        if (Thread.currentThread() == Looper.getMainLooper().getThread()) {
-            action.run();
-        } else {
-            mHandler.post(action);
-        }
-    }
-
-    /**
-     * 将YUV数据顺时针旋转90度
-     *
-     * @param data        待旋转的数据
-     * @param imageWidth  data宽度
-     * @param imageHeight data高度
-     * @return 旋转后的数据
-     */
-    protected byte[] rotateYUV420Degree90(byte[] data, int imageWidth, int imageHeight) {
-        byte[] yuv = new byte[imageWidth * imageHeight * 3 / 2];
-        int i = 0;
-        for (int x = 0; x < imageWidth; x++) {
-            for (int y = imageHeight - 1; y >= 0; y--) {
-                yuv[i] = data[y * imageWidth + x];
-                i++;
-            }
-        }
-        i = imageWidth * imageHeight * 3 / 2 - 1;
-        for (int x = imageWidth - 1; x > 0; x = x - 2) {
-            for (int y = 0; y < imageHeight / 2; y++) {
-                yuv[i] = data[(imageWidth * imageHeight) + (y * imageWidth) + x];
-                i--;
-                yuv[i] = data[(imageWidth * imageHeight) + (y * imageWidth)
-                        + (x - 1)];
-                i--;
-            }
-        }
-        return yuv;
+    protected CallbackDispatcher getDispatcher() {
+        return mDispatcher;
     }
 
     /**
@@ -232,6 +202,49 @@ abstract class BaseCamera implements ICamera, SensorEventListener {
         return des;
     }
 
+    @Override
+    public void setRecordBudget(RecordBudget budget) {
+        mRecordBudget = budget;
+        JCameraLog.d("setRecordBudget:" + budget);
+    }
+
+    /**
+     * 记录开始打开摄像头的时间，第一帧到达后通过{@link #consumeOpenStartTime()}取出
+     *
+     * @param startTime see {@link SystemClock#elapsedRealtime()}
+     */
+    protected void markOpenStartTime(long startTime) {
+        mOpenStartTime.set(startTime);
+    }
+
+    /**
+     * 是否还在等待打开摄像头后的第一帧
+     */
+    protected boolean isWaitingFirstFrame() {
+        return mOpenStartTime.get() != 0;
+    }
+
+    /**
+     * 取出开始打开摄像头的时间，只有第一帧会取到
+     *
+     * @return 开始时间，已经取过的时候返回0
+     */
+    protected long consumeOpenStartTime() {
+        if (mOpenStartTime.get() == 0) {
+            return 0;
+        }
+        return mOpenStartTime.getAndSet(0);
+    }
+
+    /**
+     * 获取录像参数的上限
+     *
+     * @return RecordBudget or null
+     */
+    protected RecordBudget getRecordBudget() {
+        return mRecordBudget;
+    }
+
     /**
      * 通过Activity的选择角度得到Camera preview需要选中的角度
      *
@@ -1,34 +1,16 @@
 package com.ttsea.jcamera.core;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
 
 final class ByteUtils {
 
+    /**
+     * 将数据保存到文件中，先写入临时文件再重命名，写到一半失败不会留下不完整的文件
+     *
+     * @param data data
+     * @param file 目标文件
+     */
     public static void saveData(byte[] data, File file) throws Exception {
-        if (file.exists()) {
-            file.delete();
-        }
-
-        if (!file.getParentFile().exists()) {
-            file.getParentFile().mkdirs();
-        }
-
-        OutputStream os = null;
-        try {
-            os = new FileOutputStream(file);
-            os.write(data);
-            os.close();
-
-        } finally {
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (Exception e) {
-                    // Ignore
-                }
-            }
-        }
+        new AtomicFileWriter(AtomicFileWriter.FORCE_NONE).write(data, file);
     }
 }
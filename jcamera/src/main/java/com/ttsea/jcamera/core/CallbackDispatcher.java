@@ -0,0 +1,241 @@
+package com.ttsea.jcamera.core;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.ttsea.jcamera.callbacks.CameraCallback;
+
+import java.io.File;
+
+/**
+ * 在主线程中回调{@link CameraCallback}<br>
+ * 1.每种回调对应一个Message.what，使用系统复用的Message，参数放不下的回调使用复用的{@link Args}，
+ * 不需要每次回调都创建一个Runnable<br>
+ * 2.{@link #dispatchStartPreview()}等只关心最后结果的回调，还没执行的同类回调会被丢弃，只回调最后一次<br>
+ * 3.在主线程中调用的时候直接回调，不经过消息队列
+ */
+final class CallbackDispatcher implements Handler.Callback {
+    private static final int MSG_CAMERA_OPENED = 1;
+    private static final int MSG_CAMERA_CLOSED = 2;
+    private static final int MSG_CAMERA_ERROR = 3;
+    private static final int MSG_START_PREVIEW = 4;
+    private static final int MSG_STOP_PREVIEW = 5;
+    private static final int MSG_FIRST_FRAME = 6;
+    private static final int MSG_PICTURE_TAKEN = 7;
+    private static final int MSG_BURST_PICTURE_TAKEN = 8;
+    private static final int MSG_BURST_FINISHED = 9;
+    private static final int MSG_RECORD_ERROR = 10;
+    private static final int MSG_RECORD_SEGMENT_FINISHED = 11;
+    private static final int MSG_CLEAR_ANIMATION = 12;
+
+    //复用的Args最多保存多少个，连拍时同时在队列中的回调一般不会超过这个数
+    private static final int MAX_ARGS_POOL_SIZE = 8;
+
+    /**
+     * Message中放不下的回调参数，用完后放回复用池
+     */
+    private static final class Args {
+        File file;
+        String msg;
+        long time1;
+        long time2;
+        Args next;
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper(), this);
+    private volatile CameraCallback mCallback;
+
+    private final Object mPoolLock = new Object();
+    private Args mPool;
+    private int mPoolSize;
+
+    void setCallback(CameraCallback callback) {
+        mCallback = callback;
+    }
+
+    void dispatchCameraOpened() {
+        send(MSG_CAMERA_OPENED, 0, 0, null);
+    }
+
+    void dispatchCameraClosed() {
+        send(MSG_CAMERA_CLOSED, 0, 0, null);
+    }
+
+    void dispatchCameraError(int errorCode, String errorMsg) {
+        send(MSG_CAMERA_ERROR, errorCode, 0, errorMsg);
+    }
+
+    void dispatchStartPreview() {
+        sendLatest(MSG_START_PREVIEW, 0, 0, null);
+    }
+
+    void dispatchStopPreview() {
+        sendLatest(MSG_STOP_PREVIEW, 0, 0, null);
+    }
+
+    void dispatchFirstFrame(long startTime, long frameTime) {
+        Args args = obtainArgs();
+        args.time1 = startTime;
+        args.time2 = frameTime;
+        send(MSG_FIRST_FRAME, 0, 0, args);
+    }
+
+    void dispatchPictureTaken(File picFile, String errorMsg) {
+        Args args = obtainArgs();
+        args.file = picFile;
+        args.msg = errorMsg;
+        send(MSG_PICTURE_TAKEN, 0, 0, args);
+    }
+
+    void dispatchBurstPictureTaken(int index, File picFile, long shutterTime, long savedTime,
+                                   String errorMsg) {
+        Args args = obtainArgs();
+        args.file = picFile;
+        args.msg = errorMsg;
+        args.time1 = shutterTime;
+        args.time2 = savedTime;
+        send(MSG_BURST_PICTURE_TAKEN, index, 0, args);
+    }
+
+    void dispatchBurstFinished(int count, int savedCount) {
+        send(MSG_BURST_FINISHED, count, savedCount, null);
+    }
+
+    void dispatchRecordError(String errorMsg) {
+        send(MSG_RECORD_ERROR, 0, 0, errorMsg);
+    }
+
+    void dispatchRecordSegmentFinished(int index, File segmentFile) {
+        send(MSG_RECORD_SEGMENT_FINISHED, index, 0, segmentFile);
+    }
+
+    /**
+     * 在主线程中停止聚焦动画，连续聚焦成功的时候只执行最后一次
+     */
+    void dispatchClearAnimation(IMaskView maskView) {
+        if (maskView != null) {
+            sendLatest(MSG_CLEAR_ANIMATION, 0, 0, maskView);
+        }
+    }
+
+    /**
+     * 丢弃还没执行的同类回调，只回调这一次
+     */
+    private void sendLatest(int what, int arg1, int arg2, Object obj) {
+        mHandler.removeMessages(what);
+        send(what, arg1, arg2, obj);
+    }
+
+    private void send(int what, int arg1, int arg2, Object obj) {
+        Message msg = mHandler.obtainMessage(what, arg1, arg2, obj);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            handleMessage(msg);
+            msg.recycle();
+        } else {
+            msg.sendToTarget();
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        CameraCallback callback = mCallback;
+        Args args = msg.obj instanceof Args ? (Args) msg.obj : null;
+
+        switch (msg.what) {
+            case MSG_CAMERA_OPENED:
+                if (callback != null) {
+                    callback.onCameraOpened();
+                }
+                break;
+            case MSG_CAMERA_CLOSED:
+                if (callback != null) {
+                    callback.onCameraClosed();
+                }
+                break;
+            case MSG_CAMERA_ERROR:
+                if (callback != null) {
+                    callback.onCameraError(msg.arg1, (String) msg.obj);
+                }
+                break;
+            case MSG_START_PREVIEW:
+                if (callback != null) {
+                    callback.onStartPreview();
+                }
+                break;
+            case MSG_STOP_PREVIEW:
+                if (callback != null) {
+                    callback.onStopPreview();
+                }
+                break;
+            case MSG_FIRST_FRAME:
+                if (callback != null) {
+                    callback.onFirstFrame(args.time1, args.time2);
+                }
+                break;
+            case MSG_PICTURE_TAKEN:
+                if (callback != null) {
+                    callback.onPictureTaken(args.file, args.msg);
+                }
+                break;
+            case MSG_BURST_PICTURE_TAKEN:
+                if (callback != null) {
+                    callback.onBurstPictureTaken(msg.arg1, args.file, args.time1, args.time2, args.msg);
+                }
+                break;
+            case MSG_BURST_FINISHED:
+                if (callback != null) {
+                    callback.onBurstFinished(msg.arg1, msg.arg2);
+                }
+                break;
+            case MSG_RECORD_ERROR:
+                if (callback != null) {
+                    callback.onRecordError((String) msg.obj);
+                }
+                break;
+            case MSG_RECORD_SEGMENT_FINISHED:
+                if (callback != null) {
+                    callback.onRecordSegmentFinished(msg.arg1, (File) msg.obj);
+                }
+                break;
+            case MSG_CLEAR_ANIMATION:
+                ((IMaskView) msg.obj).clearAnimation();
+                break;
+            default:
+                return false;
+        }
+
+        if (args != null) {
+            recycleArgs(args);
+        }
+        return true;
+    }
+
+    private Args obtainArgs() {
+        synchronized (mPoolLock) {
+            Args args = mPool;
+            if (args != null) {
+                mPool = args.next;
+                args.next = null;
+                mPoolSize--;
+                return args;
+            }
+        }
+        return new Args();
+    }
+
+    private void recycleArgs(Args args) {
+        args.file = null;
+        args.msg = null;
+        args.time1 = 0;
+        args.time2 = 0;
+
+        synchronized (mPoolLock) {
+            if (mPoolSize < MAX_ARGS_POOL_SIZE) {
+                args.next = mPool;
+                mPool = args;
+                mPoolSize++;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.ttsea.jcamera.core;
+
+import android.media.CamcorderProfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按照{@link RecordBudget}选择CamcorderProfile<br>
+ * 1.从高到低遍历摄像头支持的画质，跳过尺寸超过上限或者摄像头不能输出的画质<br>
+ * 2.码率和帧率只往下调：码率按上限和存储速度截断，帧率只取摄像头支持的帧率<br>
+ * 3.码率需要降到原来一半以下才能满足要求的时候，认为画质损失太大，换低一档的画质<br>
+ * 4.结果按相机api、摄像头id、budget以及摄像头的录像尺寸和帧率缓存，同一个摄像头不需要重复计算；
+ * Camera1和Camera2查询到的尺寸和帧率不一样，结果也可能不一样，不能共用
+ */
+final class CamcorderProfileResolver {
+    /** 使用Camera1 api */
+    static final int API_CAMERA1 = 1;
+    /** 使用Camera2 api */
+    static final int API_CAMERA2 = 2;
+
+    //从高到低的画质
+    private static final int[] QUALITIES = {
+            CamcorderProfile.QUALITY_1080P,
+            CamcorderProfile.QUALITY_720P,
+            CamcorderProfile.QUALITY_480P,
+            CamcorderProfile.QUALITY_CIF,
+            CamcorderProfile.QUALITY_QVGA,
+            CamcorderProfile.QUALITY_LOW
+    };
+    //录像码率最多占用存储写入速度的比例，剩下的留给文件系统和其他应用
+    private static final float STORAGE_USAGE = 0.5f;
+    //码率最低可以降到原来的比例
+    private static final float MIN_BIT_RATE_RATIO = 0.5f;
+
+    private static final Map<Key, Resolved> sCache = new HashMap<>();
+
+    private CamcorderProfileResolver() {
+    }
+
+    /**
+     * 选择满足budget的CamcorderProfile
+     *
+     * @param api        {@link #API_CAMERA1} or {@link #API_CAMERA2}
+     * @param cameraId   摄像头id
+     * @param budget     录像参数的上限
+     * @param sizes      摄像头可以输出的录像尺寸，为空的时候不检查
+     * @param frameRates 摄像头支持的帧率，为空的时候不调整帧率
+     * @return 满足budget的CamcorderProfile，都不满足的时候返回最低画质
+     */
+    static CamcorderProfile resolve(int api, int cameraId, RecordBudget budget,
+                                    List<Size> sizes, List<Integer> frameRates) {
+        Key key = new Key(api, cameraId, budget, sizes, frameRates);
+        Resolved resolved;
+        synchronized (sCache) {
+            resolved = sCache.get(key);
+        }
+
+        if (resolved == null) {
+            resolved = resolveInternal(cameraId, budget, sizes, frameRates);
+            synchronized (sCache) {
+                sCache.put(key, resolved);
+            }
+            JCameraLog.d("Resolved profile, api:" + api + ", cameraId:" + cameraId + ", " + budget
+                    + ", " + resolved);
+        }
+
+        //CamcorderProfile是可变的，每次都返回新的对象
+        CamcorderProfile profile = CamcorderProfile.get(cameraId, resolved.quality);
+        profile.videoBitRate = resolved.videoBitRate;
+        profile.videoFrameRate = resolved.videoFrameRate;
+        return profile;
+    }
+
+    /**
+     * 清空缓存，摄像头能力变化(比如系统升级)之后调用
+     */
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private static Resolved resolveInternal(int cameraId, RecordBudget budget,
+                                            List<Size> sizes, List<Integer> frameRates) {
+        Resolved lowest = null;
+        for (int quality : QUALITIES) {
+            if (!CamcorderProfile.hasProfile(cameraId, quality)) {
+                continue;
+            }
+
+            CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+            Resolved resolved = new Resolved(quality, profile.videoBitRate, profile.videoFrameRate);
+            lowest = resolved;
+
+            if (!fitsSize(profile, budget, sizes)) {
+                continue;
+            }
+
+            resolved.videoFrameRate = findFrameRate(profile.videoFrameRate, budget.getMaxFrameRate(), frameRates);
+
+            int maxBitRate = getMaxVideoBitRate(profile, budget);
+            if (maxBitRate > 0 && maxBitRate < profile.videoBitRate) {
+                if (maxBitRate < profile.videoBitRate * MIN_BIT_RATE_RATIO) {
+                    continue;
+                }
+                resolved.videoBitRate = maxBitRate;
+            }
+            return resolved;
+        }
+
+        //都不满足，用最低画质并尽量压低码率
+        if (lowest == null) {
+            CamcorderProfile profile = CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_LOW);
+            lowest = new Resolved(CamcorderProfile.QUALITY_LOW, profile.videoBitRate, profile.videoFrameRate);
+        }
+        int maxBitRate = getMaxVideoBitRate(CamcorderProfile.get(cameraId, lowest.quality), budget);
+        if (maxBitRate > 0) {
+            lowest.videoBitRate = Math.min(lowest.videoBitRate, maxBitRate);
+        }
+        return lowest;
+    }
+
+    /**
+     * 尺寸是否在上限之内，并且是摄像头可以输出的尺寸，长边和短边分别比较，不区分横竖
+     */
+    private static boolean fitsSize(CamcorderProfile profile, RecordBudget budget, List<Size> sizes) {
+        int longSide = Math.max(profile.videoFrameWidth, profile.videoFrameHeight);
+        int shortSide = Math.min(profile.videoFrameWidth, profile.videoFrameHeight);
+        if (budget.getMaxWidth() > 0 && longSide > budget.getMaxWidth()) {
+            return false;
+        }
+        if (budget.getMaxHeight() > 0 && shortSide > budget.getMaxHeight()) {
+            return false;
+        }
+
+        return sizes == null || sizes.isEmpty()
+                || sizes.contains(new Size(profile.videoFrameWidth, profile.videoFrameHeight));
+    }
+
+    /**
+     * 获取视频码率的上限，同时满足budget中的码率上限和存储速度
+     *
+     * @return 码率上限，<=0表示不限制
+     */
+    private static int getMaxVideoBitRate(CamcorderProfile profile, RecordBudget budget) {
+        long maxBitRate = budget.getMaxVideoBitRate() > 0 ? budget.getMaxVideoBitRate() : Long.MAX_VALUE;
+        if (budget.getStorageBytesPerSecond() > 0) {
+            //音频码率也要写入存储设备，从可用的速度中扣掉
+            long storageBitRate = (long) (budget.getStorageBytesPerSecond() * 8 * STORAGE_USAGE)
+                    - profile.audioBitRate;
+            maxBitRate = Math.min(maxBitRate, Math.max(1, storageBitRate));
+        }
+        return maxBitRate == Long.MAX_VALUE ? 0 : (int) Math.min(maxBitRate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 选择不超过上限的最大帧率，摄像头不支持的帧率不会被选中
+     */
+    private static int findFrameRate(int frameRate, int maxFrameRate, List<Integer> frameRates) {
+        if (maxFrameRate <= 0 || frameRate <= maxFrameRate || frameRates == null || frameRates.isEmpty()) {
+            return frameRate;
+        }
+
+        int result = 0;
+        for (int rate : frameRates) {
+            if (rate <= maxFrameRate && rate > result) {
+                result = rate;
+            }
+        }
+        //摄像头没有更低的帧率，保持原来的帧率
+        return result > 0 ? result : frameRate;
+    }
+
+    /**
+     * 缓存的key，尺寸和帧率会拷贝一份，调用者之后修改列表不影响缓存
+     */
+    private static final class Key {
+        private final int api;
+        private final int cameraId;
+        private final RecordBudget budget;
+        private final List<Size> sizes;
+        private final List<Integer> frameRates;
+
+        private Key(int api, int cameraId, RecordBudget budget, List<Size> sizes, List<Integer> frameRates) {
+            this.api = api;
+            this.cameraId = cameraId;
+            this.budget = budget;
+            this.sizes = sizes == null ? Collections.<Size>emptyList() : new ArrayList<>(sizes);
+            this.frameRates = frameRates == null ? Collections.<Integer>emptyList() : new ArrayList<>(frameRates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return api == key.api && cameraId == key.cameraId && budget.equals(key.budget)
+                    && sizes.equals(key.sizes) && frameRates.equals(key.frameRates);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = api;
+            result = 31 * result + cameraId;
+            result = 31 * result + budget.hashCode();
+            result = 31 * result + sizes.hashCode();
+            result = 31 * result + frameRates.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * 缓存的选择结果
+     */
+    private static final class Resolved {
+        private final int quality;
+        private int videoBitRate;
+        private int videoFrameRate;
+
+        private Resolved(int quality, int videoBitRate, int videoFrameRate) {
+            this.quality = quality;
+            this.videoBitRate = videoBitRate;
+            this.videoFrameRate = videoFrameRate;
+        }
+
+        @Override
+        public String toString() {
+            return "quality=" + quality + ", videoBitRate=" + videoBitRate
+                    + ", videoFrameRate=" + videoFrameRate;
+        }
+    }
+}
@@ -12,6 +12,8 @@ import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
@@ -20,41 +22,138 @@ import com.ttsea.jcamera.callbacks.CameraCallback;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.Nullable;
 import androidx.collection.SparseArrayCompat;
 
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_FLASH_MODE;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_FOCUS_AREAS;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_FOCUS_MODE;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_OTHER;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_PICTURE_SIZE;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_PREVIEW_SIZE;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_RECORDING_HINT;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_ROTATION;
+import static com.ttsea.jcamera.core.CameraParamsBatcher.KEY_ZOOM;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_APPLY_PARAMS;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_AUTO_FOCUS;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_ONE_SHOT_PREVIEW;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_OPEN;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_RELEASE;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_SET_ASPECT_RATIO;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_SET_FLASH;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_SET_ROTATION;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_START_PREVIEW;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_START_RECORD;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_STOP_PREVIEW;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_STOP_RECORD;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_SURFACE_CREATED;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_TAKE_BURST;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_TAKE_PHOTO;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_TAKE_PHOTO_FROM_PREVIEW;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_TAP_FOCUS;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_UPDATE_PREVIEW_CALLBACK;
+import static com.ttsea.jcamera.core.CameraStateMachine.CMD_ZOOM;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_CAPTURING;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_CLOSED;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_OPENED;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_OPENING;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_PREVIEWING;
+import static com.ttsea.jcamera.core.CameraStateMachine.STATE_RECORDING;
+
+/**
+ * Camera1实现<br>
+ * 所有{@link ICamera}的操作都以命令的形式发送到相机线程，由{@link CameraStateMachine}按照当前状态
+ * 决定执行还是拒绝，mCamera、mParams等字段只在相机线程中访问；需要马上返回结果的方法只读取相机线程更新的快照字段
+ */
 @SuppressWarnings("deprecation")
 class Camera1 extends BaseCamera {
-    private final int DEFAULT_CAMERA_ID = -1;
+    //打开默认的摄像头，see Camera#open()
+    static final int DEFAULT_CAMERA_ID = -1;
+    //预览回调缓冲区个数，这些缓冲区会循环交给相机使用
+    private final int PREVIEW_BUFFER_COUNT = 3;
+    //零延时拍照时保存的最近预览帧数，这些缓冲区不在PREVIEW_BUFFER_COUNT之内
+    private final int ZSL_FRAME_COUNT = 4;
+    //连拍时写入队列已满，等待多久后再拍下一张，单位:毫秒
+    private final int BURST_RETRY_DELAY = 50;
 
     private Context mContext;
 
     private Camera mCamera;//当前Camera
-    private int mCameraId;//当前Camera Id
+    private volatile int mCameraId;//当前Camera Id
     private Camera.Parameters mParams;
+    //当前摄像头的能力，优先从缓存中读取，避免每次打开都要解析Parameters
+    private volatile CameraCapabilityCache.Capabilities mCapabilities;
 
     private MediaRecorder mMediaRecorder;//用于录音
+    //分段录像的状态，为空表示不是分段录像
+    private RecordSegments mRecordSegments;
+    //照片写入队列，照片在单独的线程中写入文件，不占用相机线程
+    private final PhotoWriter mPhotoWriter = new PhotoWriter();
+    //零延时拍照，保存最近的预览帧，从中挑出最清晰的一帧编码成照片
+    private final ZslFrameRing mZslRing = new ZslFrameRing(ZSL_FRAME_COUNT);
+    private final ZslEncoder mZslEncoder = new ZslEncoder();
+    //正在编码的预览帧，编码完之前不能交给相机，只在相机线程中读写
+    private final List<byte[]> mZslEncodingFrames = new ArrayList<>();
+    //当前正在进行的连拍，只在相机线程中读写，为空表示没有在连拍
+    private BurstSession mBurstSession;
 
     private ISurface iSurface;//对应的SurfaceView
     private IMaskView iMaskView;//SurfaceViews上面的view
     private CameraCallback mCallback;
 
     private HandlerThread mHandlerThread;
-    private Handler mChildHandler;
+    private volatile Handler mChildHandler;
+    //保护相机线程的创建和退出，避免线程退出的同时又发送了打开命令
+    private final Object mThreadLock = new Object();
+    //摄像头状态，只在相机线程中切换
+    private final CameraStateMachine mStateMachine = new CameraStateMachine();
+    //修改过还没提交的参数，一帧内的多次修改合并成一次setParameters
+    private final CameraParamsBatcher mParamsBatcher = new CameraParamsBatcher();
 
     //记录摄像头所支持的预览size
     private final SizeMap mPicSizeMap = new SizeMap();
     //记录摄像头所支持的图片size
     private final SizeMap mPreSizeMap = new SizeMap();
-    //记录摄像头是否正在使用，正在拍照或者录像都代表真正使用
-    private final AtomicBoolean isCameraInUsing = new AtomicBoolean(false);
-    //记录是否正在预览，默认:false
-    private final AtomicBoolean isShowingPreview = new AtomicBoolean(false);
+    //以下字段在相机线程中更新，供其他线程直接读取，不需要访问mParams
+    private volatile Set<AspectRatio> mSupportedRatios = Collections.emptySet();
+    private volatile AspectRatio mAspectRatio;
+    private volatile int mFlashMode = Constants.FLASH_OFF;
+    //最大缩放值，0表示不支持缩放
+    private volatile int mMaxZoom;
+    //当前的缩放值，包括已经发送还没执行的缩放命令
+    private volatile int mZoom;
+    private volatile int mMaxNumFocusAreas;
+    //拍照或者录像的时候屏幕旋转了，等恢复预览后再设置，-1表示没有
+    private int mDeferredRotation = -1;
+    //记录是否需要回调每一帧数据，默认:false
+    private final AtomicBoolean isEveryFrameEnabled = new AtomicBoolean(false);
+    //记录是否回调未经旋转的原始数据，默认:false
+    private final AtomicBoolean isRawFrameEnabled = new AtomicBoolean(false);
+    //记录是否开启了零延时拍照，默认:false
+    private final AtomicBoolean isZslEnabled = new AtomicBoolean(false);
+
+    //预览回调缓冲区，通过addCallbackBuffer循环交给相机使用，避免每一帧都分配内存
+    private byte[][] mPreviewBuffers;
+    //用于旋转每一帧数据和单帧数据，旋转后的数据存放在各自复用的缓冲区中
+    private final YuvTransform mEveryFrameTransform = new YuvTransform();
+    private final YuvTransform mOneShotTransform = new YuvTransform();
+    //预览数据需要顺时针旋转的角度，以及旋转后是否需要水平镜像(前置摄像头)
+    private int mFrameRotation;
+    private boolean mFrameMirror;
+    //原始帧模式下回调的帧信息，参数不变的时候复用同一个对象
+    private FrameInfo mFrameInfo;
+    //缓存当前预览的宽高和格式，避免每一帧都去解析mParams
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mFrameFormat = ImageFormat.UNKNOWN;
 
     private static final SparseIntArray FACING_MAP = new SparseIntArray();
 
@@ -84,6 +183,7 @@ class Camera1 extends BaseCamera {
     @Override
     public void setCameraCallback(CameraCallback callback) {
         mCallback = callback;
+        getDispatcher().setCallback(callback);
     }
 
     @Override
@@ -91,55 +191,239 @@ class Camera1 extends BaseCamera {
         openCamera(Constants.FACING_BACK);
     }
 
+    /**
+     * 获取facing对应的摄像头id，预热和打开摄像头都使用这个对应关系
+     *
+     * @return 摄像头id，不认识的facing返回{@link #DEFAULT_CAMERA_ID}
+     */
+    static int getCameraId(@Facing int facing) {
+        return FACING_MAP.get(facing, DEFAULT_CAMERA_ID);
+    }
+
     @Override
     public void openCamera(@Facing final int facing) {
-        if (mHandlerThread == null) {
-            mHandlerThread = new HandlerThread("Camera1");
-            mHandlerThread.start();
-            mChildHandler = new Handler(mHandlerThread.getLooper());
-            JCameraLog.d("Start a new handler thread:(" + mHandlerThread.getName()
-                    + ":" + mHandlerThread.getId() + ")");
+        synchronized (mThreadLock) {
+            if (mHandlerThread == null) {
+                //预热过的话直接使用预热好的线程
+                CameraPrewarmer.Prewarmed prewarmed = CameraPrewarmer.adoptHandlerThread(true);
+                if (prewarmed != null) {
+                    mHandlerThread = prewarmed.thread;
+                    markOpenStartTime(prewarmed.startTime);
+                } else {
+                    mHandlerThread = new HandlerThread("Camera1");
+                    mHandlerThread.start();
+                    markOpenStartTime(SystemClock.elapsedRealtime());
+                }
+                mChildHandler = new Handler(mHandlerThread.getLooper(), mCommandCallback);
+                JCameraLog.d("Start a new handler thread:(" + mHandlerThread.getName()
+                        + ":" + mHandlerThread.getId() + "), prewarmed:" + (prewarmed != null));
+            } else {
+                markOpenStartTime(SystemClock.elapsedRealtime());
+            }
+
+            sendCommand(CMD_OPEN, facing, null);
         }
+    }
 
-        mChildHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                openCameraInThread(facing);
+    /**
+     * 发送命令到相机线程，可以合并的命令只保留最后一次
+     *
+     * @param command see {@link CameraStateMachine#CMD_OPEN}
+     * @return false:相机线程不存在，摄像头没有打开
+     */
+    private boolean sendCommand(int command, int arg, Object obj) {
+        Handler handler = mChildHandler;
+        if (handler == null) {
+            JCameraLog.d("Drop " + CameraStateMachine.getCommandStr(command) + ", camera is not opened.");
+            return false;
+        }
+
+        if (CameraStateMachine.isCoalescable(command)) {
+            handler.removeMessages(command);
+        }
+        handler.obtainMessage(command, arg, 0, obj).sendToTarget();
+        return true;
+    }
+
+    /**
+     * 在相机线程中执行命令，当前状态下不允许执行的命令直接拒绝
+     */
+    private final Handler.Callback mCommandCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (!mStateMachine.isAllowed(msg.what)) {
+                onCommandRejected(msg);
+                return true;
+            }
+
+            switch (msg.what) {
+                case CMD_OPEN:
+                    openCameraInThread(msg.arg1);
+                    break;
+                case CMD_RELEASE:
+                    releaseCameraInThread();
+                    break;
+                case CMD_SURFACE_CREATED:
+                    //打开完相机后，可以开始预览了
+                    if (setUpPreview()) {
+                        startPreviewInThread(true);
+                    }
+                    break;
+                case CMD_START_PREVIEW:
+                    startPreviewInThread(true);
+                    break;
+                case CMD_STOP_PREVIEW:
+                    stopPreviewInThread();
+                    break;
+                case CMD_SET_ASPECT_RATIO:
+                    setAspectRatioInThread((AspectRatio) msg.obj);
+                    break;
+                case CMD_SET_ROTATION:
+                    setRotationInThread(msg.arg1);
+                    break;
+                case CMD_SET_FLASH:
+                    setFlashModeInThread(msg.arg1);
+                    break;
+                case CMD_ZOOM:
+                    setZoomInThread(msg.arg1);
+                    break;
+                case CMD_AUTO_FOCUS:
+                    startAutoFocusInThread();
+                    break;
+                case CMD_TAP_FOCUS:
+                    startAreaFocusInThread((Rect) msg.obj);
+                    break;
+                case CMD_TAKE_PHOTO:
+                    takePhotoInThread((File) msg.obj);
+                    break;
+                case CMD_TAKE_PHOTO_FROM_PREVIEW:
+                    takePhotoFromPreviewInThread((File) msg.obj);
+                    break;
+                case CMD_TAKE_BURST:
+                    takeBurstInThread(msg.arg1, (File) msg.obj);
+                    break;
+                case CMD_START_RECORD:
+                    if (msg.obj instanceof RecordSegments) {
+                        mRecordSegments = (RecordSegments) msg.obj;
+                        startRecordInThread(mRecordSegments.newFile());
+                    } else {
+                        startRecordInThread((File) msg.obj);
+                    }
+                    break;
+                case CMD_STOP_RECORD:
+                    stopRecordInThread();
+                    break;
+                case CMD_ONE_SHOT_PREVIEW:
+                    setOneShotPreviewInThread();
+                    break;
+                case CMD_UPDATE_PREVIEW_CALLBACK:
+                    setUpPreviewCallback();
+                    break;
+                case CMD_APPLY_PARAMS:
+                    applyCameraParams();
+                    break;
+                default:
+                    return false;
             }
-        });
+            return true;
+        }
+    };
+
+    /**
+     * 当前状态下不能执行的命令，需要结果的命令回调失败，屏幕旋转等恢复预览后再设置
+     */
+    private void onCommandRejected(Message msg) {
+        final String errorMsg = "Can not " + CameraStateMachine.getCommandStr(msg.what) + " in state "
+                + CameraStateMachine.getStateStr(mStateMachine.getState());
+        JCameraLog.d(errorMsg);
+
+        switch (msg.what) {
+            case CMD_SET_ROTATION:
+                if (mStateMachine.isInUsing()) {
+                    mDeferredRotation = msg.arg1;
+                }
+                break;
+            case CMD_SET_ASPECT_RATIO:
+            case CMD_SET_FLASH:
+            case CMD_ZOOM:
+                restoreSnapshot(msg.what);
+                break;
+            case CMD_TAKE_PHOTO:
+            case CMD_TAKE_PHOTO_FROM_PREVIEW:
+                notifyPictureTaken(null, errorMsg);
+                break;
+            case CMD_TAKE_BURST:
+                notifyBurstFailed(msg.arg1, errorMsg);
+                break;
+            case CMD_START_RECORD:
+                notifyRecordError(errorMsg);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void releaseQuietly(Camera camera) {
+        if (camera != null) {
+            try {
+                camera.release();
+            } catch (Exception e) {
+                //ignore error
+            }
+        }
+    }
+
+    /**
+     * 发送命令前已经更新了快照字段，命令被拒绝后按照mParams恢复，保证快照和真正的参数一致
+     */
+    private void restoreSnapshot(int command) {
+        if (mCamera == null || mParams == null) {
+            //已经关闭，快照在resetStatus()中已经重置
+            mAspectRatio = null;
+            mFlashMode = Constants.FLASH_OFF;
+            mZoom = 0;
+            return;
+        }
+
+        switch (command) {
+            case CMD_SET_ASPECT_RATIO:
+                mAspectRatio = readAspectRatio();
+                break;
+            case CMD_SET_FLASH:
+                mFlashMode = readFlashMode();
+                break;
+            case CMD_ZOOM:
+                //平滑缩放不经过mParams，需要从相机中读取
+                mZoom = mParams.isSmoothZoomSupported() ? mCamera.getParameters().getZoom() : mParams.getZoom();
+                break;
+            default:
+                break;
+        }
     }
 
     /**
      * 在子线程中开启摄像头<br>
      */
     private void openCameraInThread(@Facing int facing) {
+        final int cameraId = getCameraId(facing);
+        //预热时打开的摄像头在这里接管，不是同一个摄像头的话会被释放，之后每个返回的地方都不能漏掉
+        Camera prewarmedCamera = CameraPrewarmer.adoptCamera1(cameraId);
+
         if (!Utils.checkCameraHardware(mContext)) {
+            releaseQuietly(prewarmedCamera);
             //设备不支持摄像头（或者没有摄像头）
             final String errorMsg = "Device has no camera.";
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_NO_CAMERA, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_NO_CAMERA, errorMsg);
 
             JCameraLog.e(errorMsg);
             resetStatus();
-            quitHandlerThread();
-            return;
-        }
-
-        if (isCameraInUsing.get()) {
-            JCameraLog.d(getCameraStr(mCameraId) + " is in using, can not open another camera.");
+            quitHandlerThreadIfIdle();
             return;
         }
 
-        final int cameraId = FACING_MAP.get(facing, DEFAULT_CAMERA_ID);
-
         //表示要打开的摄像头，已经打开
         if (mCamera != null && mCameraId == cameraId) {
+            releaseQuietly(prewarmedCamera);
             JCameraLog.d(getCameraStr(mCameraId) + " already opened...");
             return;
         }
@@ -149,8 +433,17 @@ class Camera1 extends BaseCamera {
             resetStatus();
         }
 
+        //缓存只依赖cameraId，在Camera.open()之前读取，命中的时候不用再从Parameters中解析尺寸列表
+        CameraCapabilityCache.Capabilities cachedCaps = CameraCapabilityCache.get(mContext, getCapabilitiesKey(cameraId));
+
+        mStateMachine.moveTo(STATE_OPENING);
         try {
-            if (cameraId == DEFAULT_CAMERA_ID) {
+            if (prewarmedCamera != null) {
+                //使用预热时已经打开的摄像头
+                mCamera = prewarmedCamera;
+                mCameraId = cameraId;
+                JCameraLog.d("Use prewarmed " + getCameraStr(cameraId));
+            } else if (cameraId == DEFAULT_CAMERA_ID) {
                 //打开默认的摄像头
                 mCamera = Camera.open();
                 mCameraId = cameraId;
@@ -166,16 +459,9 @@ class Camera1 extends BaseCamera {
             e.printStackTrace();
 
             resetStatus();
-            quitHandlerThread();
+            quitHandlerThreadIfIdle();
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
             return;
         }
 
@@ -184,94 +470,191 @@ class Camera1 extends BaseCamera {
             JCameraLog.e(errorMsg);
 
             resetStatus();
-            quitHandlerThread();
+            quitHandlerThreadIfIdle();
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
 
             return;
         }
 
+        //之后设置参数都要用到mParams，所以不管缓存有没有命中都要调用getParameters()
         mParams = mCamera.getParameters();
+        if (cachedCaps != null) {
+            JCameraLog.d("Use cached capabilities, " + getCapabilitiesKey(cameraId));
+            mCapabilities = cachedCaps;
+        } else {
+            mCapabilities = loadCapabilities(cameraId);
+        }
 
         //记录该摄像头所支持的预览尺寸
         mPreSizeMap.clear();
-        for (Camera.Size size : mParams.getSupportedPreviewSizes()) {
-            Size s = new Size(size.width, size.height);
-            mPreSizeMap.addSize(s);
+        for (Size size : mCapabilities.previewSizes) {
+            mPreSizeMap.addSize(size);
         }
 
         //记录该摄像头所支持的图片尺寸
         mPicSizeMap.clear();
-        for (Camera.Size size : mParams.getSupportedPictureSizes()) {
-            Size s = new Size(size.width, size.height);
-            mPicSizeMap.addSize(s);
+        for (Size size : mCapabilities.pictureSizes) {
+            mPicSizeMap.addSize(size);
         }
 
         JCameraLog.d("Opened camera, " + getCameraStr(cameraId) + "\n"
                 + "mPreSizeMap:" + mPreSizeMap + "\n"
                 + "mPicSizeMap:" + mPicSizeMap);
 
+        mSupportedRatios = Collections.unmodifiableSet(new LinkedHashSet<>(collectSupportedAspectRatios()));
+        mMaxZoom = mParams.isZoomSupported() ? mParams.getMaxZoom() : 0;
+        mMaxNumFocusAreas = mParams.getMaxNumFocusAreas();
+        mStateMachine.moveTo(STATE_OPENED);
+
         registerSensor();
         adjustCameraParams();
+        int[] fpsRange = new int[2];
+        mParams.getPreviewFpsRange(fpsRange);
+        mParamsBatcher.setMaxFps(fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        setUpPreviewCallback();
 
         if (setUpPreview()) {
-            startPreview();
+            startPreviewInThread(true);
         }
 
-        if (mCallback != null) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mCallback.onCameraOpened();
-                }
-            });
+        getDispatcher().dispatchCameraOpened();
+    }
+
+    /**
+     * 摄像头能力缓存的key
+     */
+    private static String getCapabilitiesKey(int cameraId) {
+        return "camera1:" + cameraId;
+    }
+
+    /**
+     * 从Parameters中解析摄像头能力并保存到缓存，缓存中没有的时候调用
+     *
+     * @param cameraId Camera Id
+     * @return Capabilities
+     */
+    private CameraCapabilityCache.Capabilities loadCapabilities(int cameraId) {
+        List<Size> videoSizes = null;
+        if (mParams.getSupportedVideoSizes() != null) {
+            videoSizes = toSizeList(mParams.getSupportedVideoSizes());
+        }
+
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        int orientation = 90;
+        try {
+            Camera.getCameraInfo(cameraId == DEFAULT_CAMERA_ID ? 0 : cameraId, info);
+            orientation = info.orientation;
+        } catch (Exception e) {
+            //ignore error
         }
+
+        CameraCapabilityCache.Capabilities caps = new CameraCapabilityCache.Capabilities(String.valueOf(cameraId), orientation,
+                toSizeList(mParams.getSupportedPreviewSizes()),
+                toSizeList(mParams.getSupportedPictureSizes()),
+                null, videoSizes,
+                mParams.getSupportedFlashModes(),
+                mParams.getSupportedFocusModes());
+        CameraCapabilityCache.put(mContext, getCapabilitiesKey(cameraId), caps);
+        return caps;
+    }
+
+    private static List<Size> toSizeList(List<Camera.Size> sizes) {
+        List<Size> list = new ArrayList<>();
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                list.add(new Size(size.width, size.height));
+            }
+        }
+        return list;
     }
 
     @Override
     public void releaseCamera() {
-        if (mCamera == null) {
+        Handler handler = mChildHandler;
+        if (handler == null) {
             return;
         }
 
-        unregisterSensor();
+        //还没执行的命令都不需要再执行了，尽快释放摄像头
+        //拍照、录像等需要回调结果的命令留在队列中，释放后被状态机拒绝并回调失败
+        for (int command = CMD_OPEN; command <= CameraStateMachine.MAX_CMD; command++) {
+            if (!CameraStateMachine.needsResult(command)) {
+                handler.removeMessages(command);
+            }
+        }
+        handler.removeCallbacks(autoFocusRunnable);
+        handler.sendMessageAtFrontOfQueue(handler.obtainMessage(CMD_RELEASE));
+    }
 
+    /** 在子线程中释放摄像头 */
+    private void releaseCameraInThread() {
+        boolean opened = mCamera != null;
+        if (mStateMachine.getState() == STATE_RECORDING) {
+            stopRecordInThread();
+        }
+        //正在拍的照片不会再回调了
+        if (mStateMachine.getState() == STATE_CAPTURING) {
+            abortCapture("Camera released.");
+        }
+
+        unregisterSensor();
         resetStatus();
-        quitHandlerThread();
+        if (hasPendingResultCommand() && !mChildHandler.hasMessages(CMD_OPEN)) {
+            //等排在后面的拍照、录像命令被拒绝并回调失败后再退出线程
+            mChildHandler.sendEmptyMessage(CMD_RELEASE);
+        } else {
+            quitHandlerThreadIfIdle();
+        }
 
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                iMaskView.clearAnimation();
-                if (mCallback != null) {
-                    mCallback.onCameraClosed();
-                }
+        if (!opened) {
+            return;
+        }
+        getDispatcher().dispatchClearAnimation(iMaskView);
+        getDispatcher().dispatchCameraClosed();
+    }
+
+    /**
+     * 摄像头释放时中断正在进行的拍照或者连拍，回调失败
+     */
+    private void abortCapture(String errorMsg) {
+        BurstSession session = mBurstSession;
+        if (session == null) {
+            notifyPictureTaken(null, errorMsg);
+            return;
+        }
+
+        mBurstSession = null;
+        if (session.isCapturing) {
+            //正在拍的这一张也交给abortBurst一起回调
+            session.isCapturing = false;
+            session.nextIndex--;
+        }
+        abortBurst(session, errorMsg);
+    }
+
+    /**
+     * 队列中是否还有需要回调结果的命令，see {@link CameraStateMachine#needsResult(int)}
+     */
+    private boolean hasPendingResultCommand() {
+        Handler handler = mChildHandler;
+        if (handler == null) {
+            return false;
+        }
+        for (int command = CMD_OPEN; command <= CameraStateMachine.MAX_CMD; command++) {
+            if (CameraStateMachine.needsResult(command) && handler.hasMessages(command)) {
+                return true;
             }
-        });
+        }
+        return false;
     }
 
     @Override
     protected void startAutoFocus() {
-        if (mChildHandler == null || !isShowingPreview.get()) {
+        if (!mStateMachine.isAllowed(CMD_AUTO_FOCUS)) {
             return;
         }
-        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
-            startAutoFocusInThread();
-        } else {
-            mChildHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    startAutoFocusInThread();
-                }
-            });
-        }
+        sendCommand(CMD_AUTO_FOCUS, 0, null);
     }
 
     /** 在子线程中启动自动聚焦 */
@@ -331,55 +714,65 @@ class Camera1 extends BaseCamera {
 
     @Override
     public void startPreview() {
-        startPreview(true);
+        sendCommand(CMD_START_PREVIEW, 0, null);
     }
 
     /**
-     * 开启预览
+     * 在子线程中开启预览<br>
+     * 拍照过程中恢复预览不切换状态，拍照完成后再切换到{@link CameraStateMachine#STATE_PREVIEWING}
      *
      * @param startAutoFocus 预览开启后是否执行自动聚焦
      */
-    protected void startPreview(boolean startAutoFocus) {
+    private void startPreviewInThread(boolean startAutoFocus) {
         if (mCamera == null || !iSurface.isReady()) {
             return;
         }
 
         JCameraLog.d("startPreview...");
         //开始预览，开始自动聚焦
-        isShowingPreview.set(true);
         mCamera.startPreview();
-
-        if (mCallback != null) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mCallback.onStartPreview();
-                }
-            });
+        if (mStateMachine.getState() != STATE_CAPTURING) {
+            moveToPreviewing();
         }
+        //没有每一帧回调的时候用一次性的回调来拿到第一帧的时间
+        if (mPreviewBuffers == null && isWaitingFirstFrame()) {
+            mCamera.setOneShotPreviewCallback(mFirstFrameCallback);
+        }
+
+        getDispatcher().dispatchStartPreview();
 
         if (startAutoFocus) {
             startAutoFocus();
         }
     }
 
+    /**
+     * 切换到预览状态，拍照或者录像期间屏幕旋转了的话现在设置
+     */
+    private void moveToPreviewing() {
+        mStateMachine.moveTo(STATE_PREVIEWING);
+        if (mDeferredRotation >= 0) {
+            int rotation = mDeferredRotation;
+            mDeferredRotation = -1;
+            setRotationInThread(rotation);
+        }
+        //拍照期间没有提交的参数
+        if (mParamsBatcher.isDirty()) {
+            scheduleApplyParams(0);
+        }
+    }
+
     @Override
     public void stopPreview() {
-        if (mCamera == null) {
-            return;
-        }
+        sendCommand(CMD_STOP_PREVIEW, 0, null);
+    }
 
+    /** 在子线程中停止预览 */
+    private void stopPreviewInThread() {
         JCameraLog.d("stopPreview...");
-        isShowingPreview.set(false);
         mCamera.stopPreview();
-        if (mCallback != null) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mCallback.onStopPreview();
-                }
-            });
-        }
+        mStateMachine.moveTo(STATE_OPENED);
+        getDispatcher().dispatchStopPreview();
     }
 
     @Override
@@ -393,11 +786,18 @@ class Camera1 extends BaseCamera {
 
     @Override
     public boolean isShowingPreview() {
-        return isShowingPreview.get();
+        return mStateMachine.isPreviewing();
     }
 
     @Override
     public Set<AspectRatio> getSupportedAspectRatios() {
+        return new LinkedHashSet<>(mSupportedRatios);
+    }
+
+    /**
+     * 计算预览和图片都支持的比例，需要在相机线程中调用
+     */
+    private Set<AspectRatio> collectSupportedAspectRatios() {
         SizeMap idea = new SizeMap();
         idea.addAll(mPreSizeMap);
 
@@ -413,7 +813,7 @@ class Camera1 extends BaseCamera {
 
     @Override
     public boolean setAspectRatio(AspectRatio ratio) {
-        if (isCameraInUsing.get()) {
+        if (!mStateMachine.isAllowed(CMD_SET_ASPECT_RATIO)) {
             JCameraLog.d(getCameraStr(mCameraId) + " is in using, can not set ratio.");
             return false;
         }
@@ -422,12 +822,17 @@ class Camera1 extends BaseCamera {
             return true;
         }
 
-        Set<AspectRatio> ratios = getSupportedAspectRatios();
-        if (!ratios.contains(ratio)) {
+        if (!mSupportedRatios.contains(ratio)) {
             JCameraLog.w(getCameraStr(mCameraId) + " unsupport ratio:" + ratio);
             return false;
         }
 
+        mAspectRatio = ratio;
+        return sendCommand(CMD_SET_ASPECT_RATIO, 0, ratio);
+    }
+
+    /** 在子线程中设置比例 */
+    private void setAspectRatioInThread(AspectRatio ratio) {
         SortedSet<Size> preSizes = mPreSizeMap.get(ratio);
         Size preSize = findPreviewSize(preSizes);
 
@@ -438,31 +843,30 @@ class Camera1 extends BaseCamera {
         mParams.setPictureSize(picSize.width, picSize.height);
         JCameraLog.d("setAspectRatio:" + ratio + ", setPreviewSize:" + preSize + ", setPictureSize:" + picSize);
 
-        updateCameraParams(true);
+        mAspectRatio = ratio;
+        mParamsBatcher.mark(KEY_PREVIEW_SIZE | KEY_PICTURE_SIZE);
+        applyCameraParams();
+        //预览尺寸变化了，需要重新分配预览回调缓冲区
+        setUpPreviewCallback();
         startAutoFocus();
-        return true;
     }
 
     @Override
     public AspectRatio getAspectRatio() {
-        if (mParams == null) {
-            return Utils.getScreenRatio(mContext);
-        }
-
-        Camera.Size size = mParams.getPreviewSize();
-        if (size == null || size.width <= 0 || size.height <= 0) {
+        AspectRatio ratio = mAspectRatio;
+        if (ratio == null) {
             return Utils.getScreenRatio(mContext);
         }
-
-        return AspectRatio.of(size.width, size.height);
+        return ratio;
     }
 
     @Override
     public void onActivityRotation(int rotation) {
-        if (mCamera == null) {
-            return;
-        }
+        sendCommand(CMD_SET_ROTATION, rotation, null);
+    }
 
+    /** 在子线程中设置旋转角度 */
+    private void setRotationInThread(int rotation) {
         int degrees = getCameraRotationDegrees(rotation);
         JCameraLog.d("onRotation, rotation:" + rotation + ", degrees:" + degrees);
         mCamera.setDisplayOrientation(degrees);
@@ -470,23 +874,27 @@ class Camera1 extends BaseCamera {
         //前置摄像头和后置摄像头的旋转角度相对屏幕来说是不一样的
         if (getFacing() == Constants.FACING_FRONT) {
             mParams.setRotation((degrees + 180) % 360);
+            //前置摄像头的预览是镜像的，预览数据也镜像一下保持和屏幕上看到的一致
+            mFrameRotation = (degrees + 180) % 360;
+            mFrameMirror = true;
         } else {
             mParams.setRotation(degrees);
+            mFrameRotation = degrees;
+            mFrameMirror = false;
         }
-        updateCameraParams(false);
+        //只影响拍出来的照片，拍照前会先提交
+        scheduleApplyParams(KEY_ROTATION);
     }
 
     @Override
     public List<Integer> getSupportedFlashModes() {
-        if (mCamera == null) {
+        CameraCapabilityCache.Capabilities caps = mCapabilities;
+        if (caps == null) {
             return new ArrayList<>();
         }
         List<Integer> supportList = new ArrayList<>();
 
-        List<String> list = mParams.getSupportedFlashModes();
-        if (list == null) {
-            list = new ArrayList<>();
-        }
+        List<String> list = caps.flashModes;
 
         for (int i = 0; i < list.size(); i++) {
             String value = list.get(i);
@@ -504,11 +912,28 @@ class Camera1 extends BaseCamera {
 
     @Override
     public int getFlashMode() {
-        int flash = Constants.FLASH_OFF;
+        return mFlashMode;
+    }
 
-        if (mParams == null) {
-            return flash;
+    /**
+     * 从mParams的预览尺寸得到当前的比例，需要在相机线程中调用
+     */
+    private AspectRatio readAspectRatio() {
+        Camera.Size size = mParams.getPreviewSize();
+        Size preSize = new Size(size.width, size.height);
+        for (AspectRatio ratio : mSupportedRatios) {
+            if (ratio.matches(preSize)) {
+                return ratio;
+            }
         }
+        return null;
+    }
+
+    /**
+     * 从mParams中读取闪光灯模式，需要在相机线程中调用
+     */
+    private int readFlashMode() {
+        int flash = Constants.FLASH_OFF;
 
         String mode = mParams.getFlashMode();
         int index = FLASH_MODES.indexOfValue(mode);
@@ -521,26 +946,20 @@ class Camera1 extends BaseCamera {
 
     @Override
     public boolean setFlashMode(int flash) {
-        if (mCamera == null) {
-            return false;
-        }
-
-        if (isCameraInUsing.get()) {
+        if (!mStateMachine.isAllowed(CMD_SET_FLASH)) {
             JCameraLog.d(getCameraStr(mCameraId) + " is in using, can not set flash.");
             return false;
         }
 
-        if (getFlashMode() == flash) {
+        if (mFlashMode == flash) {
             return true;
         }
 
         List<Integer> list = getSupportedFlashModes();
 
         if (list.contains(flash)) {
-            JCameraLog.d("setFlashMode:" + FLASH_MODES.get(flash));
-            mParams.setFlashMode(FLASH_MODES.get(flash));
-            updateCameraParams(false);
-            return true;
+            mFlashMode = flash;
+            return sendCommand(CMD_SET_FLASH, flash, null);
 
         } else {
             JCameraLog.w(getCameraStr(mCameraId) + " unsupport the flash mode:" + FLASH_MODES.get(flash));
@@ -548,6 +967,14 @@ class Camera1 extends BaseCamera {
         }
     }
 
+    /** 在子线程中设置闪光灯模式 */
+    private void setFlashModeInThread(int flash) {
+        JCameraLog.d("setFlashMode:" + FLASH_MODES.get(flash));
+        mParams.setFlashMode(FLASH_MODES.get(flash));
+        mFlashMode = flash;
+        scheduleApplyParams(KEY_FLASH_MODE);
+    }
+
     @Override
     public int getNumberOfCameras() {
         return Camera.getNumberOfCameras();
@@ -555,30 +982,17 @@ class Camera1 extends BaseCamera {
 
     @Override
     public void takePhoto(final File outputFile) {
-        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
-            takePhotoInThread(outputFile);
-
-        } else {
-            mChildHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    takePhotoInThread(outputFile);
-                }
-            });
+        if (!sendCommand(CMD_TAKE_PHOTO, 0, outputFile)) {
+            notifyPictureTaken(null, "mCamera is null.");
         }
     }
 
     /** 在子线程中拍照 */
     private void takePhotoInThread(final File outputFile) {
-        if (mCamera == null || !isShowingPreview.get()) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (mCallback != null) {
-                        mCallback.onPictureTaken(null, "mCamera is null.");
-                    }
-                }
-            });
+        //写入队列已满，这时拍照也无法保存，直接通知调用者稍后再拍
+        if (mPhotoWriter.isFull()) {
+            JCameraLog.w("takePhoto, photo writer is full.");
+            notifyPictureTaken(null, "Photo writer is busy, try again later.");
             return;
         }
 
@@ -598,7 +1012,6 @@ class Camera1 extends BaseCamera {
         Camera.ShutterCallback shutter = new Camera.ShutterCallback() {
             @Override
             public void onShutter() {
-                isCameraInUsing.set(true);
                 //这里可以响应快门声
             }
         };
@@ -607,64 +1020,285 @@ class Camera1 extends BaseCamera {
             @Override
             public void onPictureTaken(byte[] data, Camera camera) {
                 //拍完照，会自动停止预览
-                isShowingPreview.set(false);
-                isCameraInUsing.set(false);
-                startPreview(false);
-
-                try {
-                    //将data保存到文件中
-                    ByteUtils.saveData(data, picFile);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (mCallback != null) {
-                                mCallback.onPictureTaken(picFile, null);
-                            }
-                        }
-                    });
-
-                } catch (final Exception e) {
-                    JCameraLog.e("Exception e:" + e.getMessage());
-                    e.printStackTrace();
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (mCallback != null) {
-                                mCallback.onPictureTaken(null, e.getMessage());
-                            }
-                        }
-                    });
+                startPreviewInThread(false);
+                moveToPreviewing();
+
+                //将data放入写入队列，写入完成后再回调
+                boolean queued = mPhotoWriter.write(data, picFile, mPhotoWriterCallback);
+                if (!queued) {
+                    notifyPictureTaken(null, "Photo writer is busy, picture dropped.");
                 }
             }
         };
 
         try {
+            //拍照前提交还没生效的旋转角度、闪光灯等参数
+            applyCameraParams();
+            mStateMachine.moveTo(STATE_CAPTURING);
             mCamera.takePicture(shutter, null, picCallback);
 
         } catch (final Exception e) {
             JCameraLog.e("Exception e:" + e.getMessage());
             e.printStackTrace();
 
-            isShowingPreview.set(false);
-            isCameraInUsing.set(false);
+            //takePicture失败的时候预览还在进行
+            moveToPreviewing();
+            notifyPictureTaken(null, e.getMessage());
+        }
+    }
+
+    /**
+     * 在主线程中回调拍照结果
+     */
+    private void notifyPictureTaken(File picFile, String errorMsg) {
+        getDispatcher().dispatchPictureTaken(picFile, errorMsg);
+    }
+
+    @Override
+    public void setZslEnabled(boolean enable) {
+        isZslEnabled.set(enable);
+        JCameraLog.d("setZslEnabled, enable:" + enable);
+        sendCommand(CMD_UPDATE_PREVIEW_CALLBACK, 0, null);
+    }
+
+    @Override
+    public void takePhotoFromPreview(final File outputFile) {
+        if (!sendCommand(CMD_TAKE_PHOTO_FROM_PREVIEW, 0, outputFile)) {
+            notifyPictureTaken(null, "mCamera is null.");
+        }
+    }
+
+    /**
+     * 在子线程中从最近的预览帧中取出最清晰的一帧，交给编码线程生成照片<br>
+     * 不会调用{@link Camera#takePicture}，也不会停止预览
+     */
+    private void takePhotoFromPreviewInThread(File outputFile) {
+        String errorMsg = null;
+        if (!isZslEnabled.get()) {
+            errorMsg = "ZSL is not enabled.";
+        } else if (mFrameFormat != ImageFormat.NV21) {
+            errorMsg = "Unsupported preview format:" + mFrameFormat;
+        } else if (mZslRing.size() == 0) {
+            errorMsg = "No preview frame available.";
+        }
+
+        if (errorMsg != null) {
+            JCameraLog.w("takePhotoFromPreview, " + errorMsg);
+            notifyPictureTaken(null, errorMsg);
+            return;
+        }
+
+        File tmpFile = outputFile;
+        if (tmpFile == null) {
+            tmpFile = new File(mContext.getExternalFilesDir(Environment.DIRECTORY_PICTURES),
+                    "IMG_" + Utils.getCurrentTime("yyyyMMddHHmmss") + ".jpg");
+        }
+        final File picFile = tmpFile;
+        if (!picFile.getParentFile().exists()) {
+            picFile.getParentFile().mkdirs();
+        }
+
+        byte[] frame = mZslRing.takeSharpest(mFrameWidth, mFrameHeight);
+        mZslEncodingFrames.add(frame);
+        JCameraLog.d("takePhotoFromPreview...");
+
+        //和takePicture()保持一致，只旋转不镜像
+        boolean queued = mZslEncoder.encode(frame, mFrameWidth, mFrameHeight, mFrameRotation,
+                picFile, mZslEncoderCallback);
+        if (!queued) {
+            releaseZslFrame(frame);
+            notifyPictureTaken(null, "ZSL encoder is busy, try again later.");
+        }
+    }
 
-            runOnUiThread(new Runnable() {
+    /**
+     * 编码完的预览帧归还给相机，需要在相机线程中调用<br>
+     * 编码期间预览尺寸变了的话，旧的缓冲区直接丢弃
+     */
+    private void releaseZslFrame(byte[] frame) {
+        if (!mZslEncodingFrames.remove(frame)) {
+            return;
+        }
+
+        if (mCamera == null || mPreviewBuffers == null) {
+            return;
+        }
+        for (byte[] buffer : mPreviewBuffers) {
+            if (buffer == frame) {
+                mCamera.addCallbackBuffer(frame);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void takeBurst(final int count, final File directory) {
+        if (count < 1) {
+            JCameraLog.w("takeBurst, invalid burst count:" + count);
+            notifyBurstFailed(count, "Invalid burst count:" + count);
+            return;
+        }
+
+        if (!sendCommand(CMD_TAKE_BURST, count, directory)) {
+            notifyBurstFailed(count, "mCamera is null.");
+        }
+    }
+
+    /**
+     * 连拍没有开始，在主线程中回调失败
+     */
+    private void notifyBurstFailed(int count, String errorMsg) {
+        getDispatcher().dispatchBurstPictureTaken(0, null, 0, System.currentTimeMillis(), errorMsg);
+        getDispatcher().dispatchBurstFinished(count, 0);
+    }
+
+    /** 在子线程中开始连拍 */
+    private void takeBurstInThread(final int count, File directory) {
+
+        File dir = directory;
+        if (dir == null) {
+            dir = mContext.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        }
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        JCameraLog.d("takeBurst, count:" + count);
+        applyCameraParams();
+        mStateMachine.moveTo(STATE_CAPTURING);
+        mBurstSession = new BurstSession(count, dir, "IMG_" + Utils.getCurrentTime("yyyyMMddHHmmss"));
+        captureBurstFrame(mBurstSession);
+    }
+
+    /**
+     * 拍连拍中的下一张<br>
+     * 写入队列已满的时候不丢弃照片，而是稍后再拍，让连拍的速度跟上写入的速度
+     */
+    private void captureBurstFrame(final BurstSession session) {
+        //已经被releaseCamera()等操作中断
+        if (session != mBurstSession) {
+            return;
+        }
+
+        if (mCamera == null) {
+            abortBurst(session, "mCamera is null.");
+            return;
+        }
+
+        if (mPhotoWriter.isFull()) {
+            mChildHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    if (mCallback != null) {
-                        mCallback.onPictureTaken(null, e.getMessage());
+                    captureBurstFrame(session);
+                }
+            }, BURST_RETRY_DELAY);
+            return;
+        }
+
+        final int index = session.nextIndex++;
+        final File picFile = new File(session.directory, session.namePrefix + "_" + index + ".jpg");
+        final long[] shutterTime = new long[1];
+
+        Camera.ShutterCallback shutter = new Camera.ShutterCallback() {
+            @Override
+            public void onShutter() {
+                shutterTime[0] = System.currentTimeMillis();
+            }
+        };
+
+        Camera.PictureCallback picCallback = new Camera.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data, Camera camera) {
+                session.isCapturing = false;
+                if (shutterTime[0] == 0) {
+                    //部分机型不回调onShutter()
+                    shutterTime[0] = System.currentTimeMillis();
+                }
+
+                //拍完照会自动停止预览，马上恢复预览，为下一张做准备
+                startPreviewInThread(false);
+
+                //写入在写入线程中进行，不阻塞下一张的拍摄
+                boolean queued = mPhotoWriter.write(data, picFile, new PhotoWriter.Callback() {
+                    @Override
+                    public void onSaved(File file, AtomicFileWriter.Metrics metrics) {
+                        finishBurstFrame(session, index, file, shutterTime[0], null);
+                    }
+
+                    @Override
+                    public void onFailed(File file, Exception e) {
+                        finishBurstFrame(session, index, null, shutterTime[0], e.getMessage());
                     }
+                });
+                if (!queued) {
+                    finishBurstFrame(session, index, null, shutterTime[0], "Photo writer is busy, picture dropped.");
                 }
-            });
+
+                if (session.nextIndex < session.count) {
+                    captureBurstFrame(session);
+                } else if (session == mBurstSession) {
+                    mBurstSession = null;
+                    moveToPreviewing();
+                    JCameraLog.d("takeBurst, all pictures captured, count:" + session.count);
+                }
+            }
+        };
+
+        try {
+            session.isCapturing = true;
+            mCamera.takePicture(shutter, null, picCallback);
+
+        } catch (Exception e) {
+            JCameraLog.e("Exception e:" + e.getMessage());
+            e.printStackTrace();
+
+            //当前这张也没有拍成功，交给abortBurst一起回调
+            session.isCapturing = false;
+            session.nextIndex--;
+            abortBurst(session, e.getMessage());
+        }
+    }
+
+    /**
+     * 中断连拍，剩下还没拍的照片全部回调失败
+     */
+    private void abortBurst(BurstSession session, String errorMsg) {
+        JCameraLog.w("takeBurst aborted, captured:" + session.nextIndex + ", errorMsg:" + errorMsg);
+
+        if (session == mBurstSession) {
+            mBurstSession = null;
+            if (mCamera != null) {
+                moveToPreviewing();
+            }
+        }
+
+        while (session.nextIndex < session.count) {
+            finishBurstFrame(session, session.nextIndex++, null, 0, errorMsg);
+        }
+    }
+
+    /**
+     * 连拍中的一张已经保存(或者失败)，可能在写入线程或者相机线程中调用
+     */
+    private void finishBurstFrame(BurstSession session, int index, File file,
+                                  long shutterTime, String errorMsg) {
+        long savedTime = System.currentTimeMillis();
+        int savedCount = file != null ? session.saved.incrementAndGet() : session.saved.get();
+        boolean finished = session.finished.incrementAndGet() == session.count;
+
+        getDispatcher().dispatchBurstPictureTaken(index, file, shutterTime, savedTime, errorMsg);
+        if (finished) {
+            getDispatcher().dispatchBurstFinished(session.count, savedCount);
         }
     }
 
     @Override
     public void startRecord(File outputFile) {
-        if (mCamera == null || isCameraInUsing.get()) {
-            return;
-        }
+        sendCommand(CMD_START_RECORD, 0, outputFile);
+    }
+
+    /** 在子线程中开始录像 */
+    private void startRecordInThread(File outputFile) {
         JCameraLog.d("startRecord...");
 
         if (!outputFile.getParentFile().exists()) {
@@ -676,7 +1310,9 @@ class Camera1 extends BaseCamera {
             mMediaRecorder = new MediaRecorder();
 
             mParams.setRecordingHint(true);
-            updateCameraParams(false);
+            mParamsBatcher.mark(KEY_RECORDING_HINT);
+            //unlock之后就不能再设置参数了
+            applyCameraParams();
             mCamera.unlock();
             mMediaRecorder.setCamera(mCamera);
 
@@ -696,6 +1332,10 @@ class Camera1 extends BaseCamera {
 
             //设置输出文件
             mMediaRecorder.setOutputFile(outputFile.getAbsolutePath());
+            //分段录像，设置每段的上限
+            if (mRecordSegments != null) {
+                setUpRecordSegments(mMediaRecorder, profile, outputFile);
+            }
 
             //设置旋转角度
             int rotation = DisplayUtils.getRotation(mContext);
@@ -709,86 +1349,152 @@ class Camera1 extends BaseCamera {
 
             mMediaRecorder.prepare();
             mMediaRecorder.start();
-            isCameraInUsing.set(true);
+            mStateMachine.moveTo(STATE_RECORDING);
 
         } catch (Exception e) {
             final String errorMsg = e.getMessage();
             JCameraLog.e("Exception e:" + errorMsg);
             e.printStackTrace();
 
-            stopRecord();
-
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onRecordError(errorMsg);
-                    }
-                });
-            }
+            //没有录成功的这一段不回调
+            mRecordSegments = null;
+            stopRecordInThread();
+            notifyRecordError(errorMsg);
         }
     }
 
+    /**
+     * 在主线程中回调录像出错
+     */
+    private void notifyRecordError(String errorMsg) {
+        getDispatcher().dispatchRecordError(errorMsg);
+    }
+
     @Override
     public void stopRecord() {
-        if (mCamera == null) {
-            return;
+        sendCommand(CMD_STOP_RECORD, 0, null);
+    }
+
+    /** 在子线程中停止录像 */
+    private void stopRecordInThread() {
+        releaseMediaRecorder();
+
+        //最后一段也已经写完
+        RecordSegments segments = mRecordSegments;
+        mRecordSegments = null;
+        if (segments != null && segments.current != null) {
+            notifyRecordSegmentFinished(segments.index, segments.current);
         }
 
+        JCameraLog.d("stopRecord...");
+    }
+
+    /**
+     * 停止并释放MediaRecorder，重新锁定摄像头
+     */
+    private void releaseMediaRecorder() {
         try {
             if (mMediaRecorder != null) {
                 mMediaRecorder.stop();
-                mMediaRecorder.release();
             }
         } catch (Exception e) {
             //ignore error
         }
+        if (mMediaRecorder != null) {
+            mMediaRecorder.setOnInfoListener(null);
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
 
-        isCameraInUsing.set(false);
         mCamera.lock();
-
-        JCameraLog.d("stopRecord...");
+        if (mStateMachine.getState() == STATE_RECORDING) {
+            moveToPreviewing();
+        }
     }
 
     @Override
-    public void onSurfaceCreated() {
-        if (mCamera == null) {
+    public void startSegmentedRecord(File directory, long maxDurationMs, long maxFileBytes) {
+        if (maxDurationMs <= 0 && maxFileBytes <= 0) {
+            String errorMsg = "maxDurationMs or maxFileBytes must be greater than 0.";
+            JCameraLog.e(errorMsg);
+            notifyRecordError(errorMsg);
             return;
         }
 
-        //打开完相机后，可以开始预览了
-        if (setUpPreview()) {
-            startPreview();
+        JCameraLog.d("startSegmentedRecord, maxDurationMs:" + maxDurationMs + ", maxFileBytes:" + maxFileBytes);
+        sendCommand(CMD_START_RECORD, 0, new RecordSegments(directory,
+                "VID_" + Utils.getCurrentTime("yyyyMMddHHmmss"), maxDurationMs, maxFileBytes));
+    }
+
+    /**
+     * 设置分段录像的上限和切换文件的监听<br>
+     * 1.API 26以上通过{@link MediaRecorder#setNextOutputFile(File)}无缝切换，只能按大小切换，
+     * 时长按照码率换算成大小<br>
+     * 2.API 26以下达到上限后MediaRecorder会自动停止，马上用新文件重新开始录像
+     */
+    private void setUpRecordSegments(MediaRecorder recorder, CamcorderProfile profile, File outputFile) {
+        RecordSegments segments = mRecordSegments;
+        segments.current = outputFile;
+
+        if (Build.VERSION.SDK_INT >= 26) {
+            long maxFileBytes = segments.maxFileBytes;
+            if (segments.maxDurationMs > 0) {
+                long bytesPerSecond = (profile.videoBitRate + profile.audioBitRate) / 8;
+                long durationBytes = bytesPerSecond * segments.maxDurationMs / 1000;
+                maxFileBytes = maxFileBytes > 0 ? Math.min(maxFileBytes, durationBytes) : durationBytes;
+            }
+            recorder.setMaxFileSize(maxFileBytes);
+        } else {
+            if (segments.maxDurationMs > 0) {
+                recorder.setMaxDuration((int) Math.min(Integer.MAX_VALUE, segments.maxDurationMs));
+            }
+            if (segments.maxFileBytes > 0) {
+                recorder.setMaxFileSize(segments.maxFileBytes);
+            }
         }
+        recorder.setOnInfoListener(mRecordInfoListener);
+    }
+
+    /**
+     * 打开摄像头后的第一帧到达，在主线程中回调{@link CameraCallback#onFirstFrame(long, long)}，只回调一次
+     */
+    private void notifyFirstFrame() {
+        long startTime = consumeOpenStartTime();
+        if (startTime == 0) {
+            return;
+        }
+
+        long frameTime = SystemClock.elapsedRealtime();
+        JCameraLog.d("First frame arrived, cost:" + (frameTime - startTime) + "ms");
+        getDispatcher().dispatchFirstFrame(startTime, frameTime);
+    }
+
+    /**
+     * 在主线程中回调写完的一段录像
+     */
+    private void notifyRecordSegmentFinished(int index, File file) {
+        JCameraLog.d("Record segment finished, index:" + index + ", file:" + file);
+        getDispatcher().dispatchRecordSegmentFinished(index, file);
+    }
+
+    @Override
+    public void onSurfaceCreated() {
+        sendCommand(CMD_SURFACE_CREATED, 0, null);
     }
 
     @Override
     public boolean onSurfaceTapped(float x, float y) {
-        if (mCamera == null || !isShowingPreview.get()) {
+        if (!mStateMachine.isAllowed(CMD_TAP_FOCUS)) {
             return false;
         }
 
         //不支持区域聚焦
-        if (mParams.getMaxNumFocusAreas() <= 0) {
+        if (mMaxNumFocusAreas <= 0) {
             JCameraLog.w(getCameraStr(mCameraId) + " not support Area focus.");
             return false;
         }
 
-        List<String> modesList = mParams.getSupportedFocusModes();
-        if (modesList == null || modesList.isEmpty()) {
-            JCameraLog.w(getCameraStr(mCameraId) + " has no focus mode.");
-            return false;
-        }
-
-        String focusMode = "";
-        if (modesList.contains(Camera.Parameters.FOCUS_MODE_MACRO)) {
-            focusMode = Camera.Parameters.FOCUS_MODE_MACRO;
-
-        } else if (modesList.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
-            focusMode = Camera.Parameters.FOCUS_MODE_AUTO;
-        }
-
-        if (Utils.isEmpty(focusMode)) {
+        if (Utils.isEmpty(getAreaFocusMode())) {
             JCameraLog.w(getCameraStr(mCameraId) + " not support MACRO/AUTO focus mode.");
             return false;
         }
@@ -798,6 +1504,33 @@ class Camera1 extends BaseCamera {
             return false;
         }
 
+        return sendCommand(CMD_TAP_FOCUS, 0, rect);
+    }
+
+    /**
+     * 获取区域聚焦使用的聚焦模式，优先使用MACRO
+     *
+     * @return 不支持区域聚焦的时候返回""
+     */
+    private String getAreaFocusMode() {
+        CameraCapabilityCache.Capabilities caps = mCapabilities;
+        List<String> modesList = caps != null ? caps.focusModes : null;
+        if (modesList == null || modesList.isEmpty()) {
+            return "";
+        }
+
+        if (modesList.contains(Camera.Parameters.FOCUS_MODE_MACRO)) {
+            return Camera.Parameters.FOCUS_MODE_MACRO;
+        }
+        if (modesList.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+            return Camera.Parameters.FOCUS_MODE_AUTO;
+        }
+        return "";
+    }
+
+    /** 在子线程中聚焦到指定区域 */
+    private void startAreaFocusInThread(Rect rect) {
+        String focusMode = getAreaFocusMode();
         cancelAutoFocus();
 
         Camera.Area area = new Camera.Area(rect, 900);
@@ -805,40 +1538,35 @@ class Camera1 extends BaseCamera {
         list.add(area);
         mParams.setFocusAreas(list);
 
-        boolean flag = false;
+        int keys = KEY_FOCUS_AREAS;
         if (!focusMode.equals(mParams.getFocusMode())) {
             mParams.setFocusMode(focusMode);
-            flag = true;
+            keys |= KEY_FOCUS_MODE;
         }
-        updateCameraParams(flag);
+        //聚焦区域要在autoFocus之前生效，顺便提交还没生效的其他参数
+        mParamsBatcher.mark(keys);
+        applyCameraParams();
 
         JCameraLog.d("start focus areas:" + area.rect);
 
         //开始聚焦
         try {
-            mChildHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mCamera.autoFocus(autoFocusCallback);
-                }
-            });
-
+            mCamera.autoFocus(autoFocusCallback);
         } catch (Exception e) {
             //ignore error
+            JCameraLog.w("Exception e:" + e.getMessage());
         }
-
-        return true;
     }
 
     @Override
     public boolean zoomIn(float value) {
+        int maxZoom = mMaxZoom;
         //不支持缩放，或者摄像头正在使用
-        if (!mParams.isZoomSupported() || isCameraInUsing.get()) {
+        if (maxZoom <= 0 || !mStateMachine.isAllowed(CMD_ZOOM)) {
             return false;
         }
 
-        int maxZoom = mParams.getMaxZoom();
-        int currentZoom = mParams.getZoom();
+        int currentZoom = mZoom;
 
         //已经达到了最大值
         if (currentZoom >= maxZoom) {
@@ -872,28 +1600,33 @@ class Camera1 extends BaseCamera {
             return false;
         }
 
+        //连续缩放的时候只执行最后一次
+        mZoom = (int) value;
+        return sendCommand(CMD_ZOOM, (int) value, null);
+    }
+
+    /** 在子线程中设置缩放值 */
+    private void setZoomInThread(int zoom) {
         if (mParams.isSmoothZoomSupported()) {
-            mCamera.startSmoothZoom((int) value);
+            mCamera.startSmoothZoom(zoom);
+            startAutoFocus();
         } else {
-            mParams.setZoom((int) value);
-            updateCameraParams(false);
+            //双指缩放时一帧内的多次缩放只提交最后一次，提交后再聚焦
+            mParams.setZoom(zoom);
+            scheduleApplyParams(KEY_ZOOM);
         }
-
-        startAutoFocus();
-
-        return true;
     }
 
     @Override
     public boolean zoomOut(float value) {
+        int maxZoom = mMaxZoom;
         //不支持缩放，或者摄像头正在使用
-        if (!mParams.isZoomSupported() || isCameraInUsing.get()) {
+        if (maxZoom <= 0 || !mStateMachine.isAllowed(CMD_ZOOM)) {
             return false;
         }
 
         int minZoom = 0;
-        int maxZoom = mParams.getMaxZoom();
-        int currentZoom = mParams.getZoom();
+        int currentZoom = mZoom;
 
         //已经达到了最小值
         if (currentZoom <= minZoom) {
@@ -927,20 +1660,18 @@ class Camera1 extends BaseCamera {
             return false;
         }
 
-        if (mParams.isSmoothZoomSupported()) {
-            mCamera.startSmoothZoom((int) value);
-        } else {
-            mParams.setZoom((int) value);
-            updateCameraParams(false);
-        }
-
-        startAutoFocus();
-
-        return true;
+        //连续缩放的时候只执行最后一次
+        mZoom = (int) value;
+        return sendCommand(CMD_ZOOM, (int) value, null);
     }
 
     @Override
     public void setOneShotPreview() {
+        sendCommand(CMD_ONE_SHOT_PREVIEW, 0, null);
+    }
+
+    /** 在子线程中设置单帧预览回调 */
+    private void setOneShotPreviewInThread() {
         if (mCamera == null || mParams == null) {
             return;
         }
@@ -949,6 +1680,7 @@ class Camera1 extends BaseCamera {
             mCamera.setOneShotPreviewCallback(new Camera.PreviewCallback() {
                 @Override
                 public void onPreviewFrame(byte[] data, Camera camera) {
+                    notifyFirstFrame();
                     if (mCallback != null && mCamera != null) {
                         if (data == null) {
                             mCallback.oneShotFrameData(null, ImageFormat.UNKNOWN, 0, 0);
@@ -958,17 +1690,15 @@ class Camera1 extends BaseCamera {
                         int format = mParams.getPreviewFormat();
                         Camera.Size size = mParams.getPreviewSize();
 
-                        if (DisplayUtils.isLandscape(mContext)) {
-                            mCallback.oneShotFrameData(data, format, size.width, size.height);
-                            JCameraLog.d("onPreviewFrame, format:" + format
-                                    + ", size:" + size.width + ":" + size.height);
+                        dispatchFrameData(data, format, size.width, size.height, true);
+                        //扫码的时候每一帧都会走到这里，不输出日志的时候不格式化字符串
+                        JCameraLog.df("onPreviewFrame, format:%d, size:%d:%d, rotation:%d",
+                                format, size.width, size.height, mFrameRotation);
+                    }
 
-                        } else {
-                            data = rotateYUV420Degree90(data, size.width, size.height);
-                            mCallback.oneShotFrameData(data, format, size.height, size.width);
-                            JCameraLog.d("onPreviewFrame, format:" + format
-                                    + ", size:" + size.height + ":" + size.width);
-                        }
+                    //setOneShotPreviewCallback会覆盖掉每一帧的回调，所以这里需要重新设置回去
+                    if (isEveryFrameEnabled.get() || isZslEnabled.get()) {
+                        setUpPreviewCallback();
                     }
                 }
             });
@@ -977,6 +1707,127 @@ class Camera1 extends BaseCamera {
         }
     }
 
+    /**
+     * 按照当前屏幕方向旋转预览数据，然后回调给mCallback<br>
+     * 旋转后的数据存放在复用的缓冲区中，不需要旋转或者开启了原始帧模式的时候直接回调原始数据
+     *
+     * @param data    预览数据
+     * @param format  数据格式
+     * @param width   数据宽度
+     * @param height  数据高度
+     * @param oneShot true:回调给oneShotFrameData，false:回调给everyFrameData
+     */
+    private void dispatchFrameData(byte[] data, int format, int width, int height, boolean oneShot) {
+        int degrees = mFrameRotation;
+        boolean mirror = mFrameMirror;
+
+        //原始帧模式，不旋转数据，只带上旋转信息
+        if (isRawFrameEnabled.get()) {
+            FrameInfo info = mFrameInfo;
+            if (info == null || !info.matches(format, width, height, degrees, mirror)) {
+                info = new FrameInfo(format, width, height, degrees, mirror);
+                mFrameInfo = info;
+            }
+
+            if (oneShot) {
+                mCallback.oneShotRawFrameData(data, info);
+            } else {
+                mCallback.everyRawFrameData(data, info);
+            }
+            return;
+        }
+
+        if ((degrees != 0 || mirror) && format == ImageFormat.NV21) {
+            YuvTransform transform = oneShot ? mOneShotTransform : mEveryFrameTransform;
+            data = transform.transform(data, width, height, YuvTransform.FORMAT_NV21, degrees, mirror);
+
+            int rotatedWidth = YuvTransform.getRotatedWidth(width, height, degrees);
+            height = YuvTransform.getRotatedHeight(width, height, degrees);
+            width = rotatedWidth;
+        }
+
+        if (oneShot) {
+            mCallback.oneShotFrameData(data, format, width, height);
+        } else {
+            mCallback.everyFrameData(data, format, width, height);
+        }
+    }
+
+    @Override
+    public void setRawFrameEnabled(boolean enable) {
+        isRawFrameEnabled.set(enable);
+        JCameraLog.d("setRawFrameEnabled, enable:" + enable);
+    }
+
+    @Override
+    public void setEveryFramePreview(boolean enable) {
+        isEveryFrameEnabled.set(enable);
+        JCameraLog.d("setEveryFramePreview, enable:" + enable);
+
+        //预览回调会在打开相机的线程中执行，缓冲区也统一在这个线程中管理
+        sendCommand(CMD_UPDATE_PREVIEW_CALLBACK, 0, null);
+    }
+
+    /**
+     * 设置每一帧的预览回调<br>
+     * 开启时按照当前预览尺寸和格式分配{@link #PREVIEW_BUFFER_COUNT}个缓冲区，并交给相机循环使用，
+     * 开启了零延时拍照的时候再多分配{@link #ZSL_FRAME_COUNT}个用于保存最近的预览帧；
+     * 关闭时移除回调并释放缓冲区<br>
+     * 注：需要在相机线程中调用，预览尺寸变化后需要重新调用
+     */
+    private void setUpPreviewCallback() {
+        if (mCamera == null || mParams == null) {
+            return;
+        }
+
+        //缓冲区都会重新交给相机，环形缓冲区中的帧不再有效
+        mZslRing.clear();
+
+        if (!isEveryFrameEnabled.get() && !isZslEnabled.get()) {
+            if (mPreviewBuffers != null) {
+                mCamera.setPreviewCallbackWithBuffer(null);
+                mPreviewBuffers = null;
+            }
+            return;
+        }
+
+        Camera.Size size = mParams.getPreviewSize();
+        int format = mParams.getPreviewFormat();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+        if (size == null || bitsPerPixel <= 0) {
+            JCameraLog.w("setUpPreviewCallback failed, size:" + size + ", format:" + format);
+            return;
+        }
+
+        mFrameWidth = size.width;
+        mFrameHeight = size.height;
+        mFrameFormat = format;
+
+        int bufferSize = size.width * size.height * bitsPerPixel / 8;
+        int bufferCount = PREVIEW_BUFFER_COUNT + (isZslEnabled.get() ? ZSL_FRAME_COUNT : 0);
+        if (mPreviewBuffers == null || mPreviewBuffers.length != bufferCount
+                || mPreviewBuffers[0].length != bufferSize) {
+            mPreviewBuffers = new byte[bufferCount][bufferSize];
+            mZslEncodingFrames.clear();
+            JCameraLog.d("allocate preview buffers, count:" + bufferCount
+                    + ", bufferSize:" + bufferSize + ", size:" + mFrameWidth + "x" + mFrameHeight);
+        }
+
+        try {
+            //setPreviewCallbackWithBuffer会清空缓冲队列，所以每次都要重新加入所有缓冲区
+            mCamera.setPreviewCallbackWithBuffer(mEveryFrameCallback);
+            for (byte[] buffer : mPreviewBuffers) {
+                //正在编码的帧等编码完后再归还
+                if (!mZslEncodingFrames.contains(buffer)) {
+                    mCamera.addCallbackBuffer(buffer);
+                }
+            }
+        } catch (Exception e) {
+            JCameraLog.e("Exception e:" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 适配相机参数
      */
@@ -992,12 +1843,12 @@ class Camera1 extends BaseCamera {
                 && activity.getWindowManager().getDefaultDisplay() != null) {
             rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
         }
-        onActivityRotation(rotation);
+        setRotationInThread(rotation);
 
         //设置比例，先去屏幕比例
         //如果不支持，则依次取 16:9 和 4:3
         //如果以上都不支持，则取ratioSet最后一个
-        Set<AspectRatio> ratioSet = getSupportedAspectRatios();
+        Set<AspectRatio> ratioSet = collectSupportedAspectRatios();
         AspectRatio ratio = Utils.getScreenRatio(mContext);
         if (!ratioSet.contains(ratio)) {
             ratio = AspectRatio.parse("16:9");
@@ -1026,7 +1877,7 @@ class Camera1 extends BaseCamera {
         }
 
         //设置聚焦模式
-        List<String> supportList = mParams.getSupportedFocusModes();
+        List<String> supportList = mCapabilities != null ? mCapabilities.focusModes : mParams.getSupportedFocusModes();
         if (supportList == null) {
             supportList = new ArrayList<>();
         }
@@ -1042,7 +1893,13 @@ class Camera1 extends BaseCamera {
             mParams.setVideoStabilization(true);
         }
 
-        updateCameraParams(false);
+        mParamsBatcher.mark(KEY_PREVIEW_SIZE | KEY_PICTURE_SIZE | KEY_ROTATION | KEY_FLASH_MODE
+                | KEY_FOCUS_MODE | KEY_OTHER);
+        applyCameraParams();
+
+        mAspectRatio = ratio;
+        mFlashMode = readFlashMode();
+        mZoom = mParams.getZoom();
 
         JCameraLog.d("adjustCameraParams, ratio:" + ratio
                 + ", preSize:" + preSize
@@ -1052,13 +1909,28 @@ class Camera1 extends BaseCamera {
     }
 
     /**
-     * 更新参数到相机
+     * 标记参数已经修改，一帧之后再提交到相机，这期间的其他修改会合并到同一次提交
      *
-     * @param rePreview 如果这样预览，在设置完参数后是否重新启动预览<br>
-     *                  true:重新启动预览，false:不重新启动预览
+     * @param keys 修改了的参数，see {@link CameraParamsBatcher#KEY_ZOOM}
      */
-    private void updateCameraParams(boolean rePreview) {
-        if (mCamera == null) {
+    private void scheduleApplyParams(int keys) {
+        mParamsBatcher.mark(keys);
+        Handler handler = mChildHandler;
+        if (handler != null && !handler.hasMessages(CMD_APPLY_PARAMS)) {
+            handler.sendEmptyMessageDelayed(CMD_APPLY_PARAMS, mParamsBatcher.getBatchInterval());
+        }
+    }
+
+    /**
+     * 马上把修改过的参数提交到相机，只调用一次setParameters<br>
+     * 只有预览尺寸真正变化的时候才重新启动预览
+     */
+    private void applyCameraParams() {
+        if (mChildHandler != null) {
+            mChildHandler.removeMessages(CMD_APPLY_PARAMS);
+        }
+        int keys = mParamsBatcher.takeDirtyKeys();
+        if (mCamera == null || keys == 0) {
             return;
         }
 
@@ -1069,12 +1941,22 @@ class Camera1 extends BaseCamera {
             //e.printStackTrace();
         }
 
-        if (rePreview && isShowingPreview.get()) {
+        boolean rePreview = false;
+        if ((keys & KEY_PREVIEW_SIZE) != 0) {
+            Camera.Size size = mParams.getPreviewSize();
+            rePreview = mParamsBatcher.updatePreviewSize(size.width, size.height)
+                    && mStateMachine.isPreviewing();
+        }
+
+        if (rePreview) {
             mCamera.stopPreview();
             mCamera.startPreview();
-            JCameraLog.d("updateCameraParams, rePreview:" + true);
-        } else {
-            JCameraLog.d("updateCameraParams, rePreview:" + false);
+        }
+        JCameraLog.df("applyCameraParams, keys:0x%x, rePreview:%b", keys, rePreview);
+
+        //缩放后重新聚焦
+        if ((keys & KEY_ZOOM) != 0) {
+            startAutoFocus();
         }
     }
 
@@ -1126,17 +2008,13 @@ class Camera1 extends BaseCamera {
         } catch (Exception e) {
             JCameraLog.e("IOException e:" + e.getMessage());
             e.printStackTrace();
-            if (mCallback != null) {
-                mCallback.onCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, e.getMessage());
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, e.getMessage());
             return false;
         }
 
-        if (mCallback != null) {
-            String errorMsg = "iSurface must instanceof SurfaceViewPreview or " +
-                    "SurfaceTexturePreview, iSurface:" + iSurface;
-            mCallback.onCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
-        }
+        String errorMsg = "iSurface must instanceof SurfaceViewPreview or " +
+                "SurfaceTexturePreview, iSurface:" + iSurface;
+        getDispatcher().dispatchCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
         return false;
     }
 
@@ -1144,15 +2022,29 @@ class Camera1 extends BaseCamera {
      * 重设一些常量的状态
      */
     private void resetStatus() {
+        //只移除内部的任务，还没执行的命令由状态机决定是否执行
         if (mChildHandler != null) {
-            mChildHandler.removeCallbacksAndMessages(null);
+            mChildHandler.removeCallbacks(autoFocusRunnable);
+            mChildHandler.removeMessages(CMD_APPLY_PARAMS);
         }
 
         mPreSizeMap.clear();
         mPicSizeMap.clear();
 
-        isCameraInUsing.set(false);
-        isShowingPreview.set(false);
+        mStateMachine.moveTo(STATE_CLOSED);
+        mParamsBatcher.reset();
+        mBurstSession = null;
+        mDeferredRotation = -1;
+        mSupportedRatios = Collections.emptySet();
+        mAspectRatio = null;
+        mFlashMode = Constants.FLASH_OFF;
+        mMaxZoom = 0;
+        mZoom = 0;
+        mMaxNumFocusAreas = 0;
+
+        mPreviewBuffers = null;
+        mZslRing.clear();
+        mZslEncodingFrames.clear();
 
         if (mCamera != null) {
             mCamera.release();
@@ -1161,6 +2053,20 @@ class Camera1 extends BaseCamera {
         }
         mCameraId = DEFAULT_CAMERA_ID;
         mParams = null;
+        mCapabilities = null;
+    }
+
+    /**
+     * 没有等待执行的打开命令的时候退出HandlerThread，否则继续使用这个线程打开摄像头
+     */
+    private void quitHandlerThreadIfIdle() {
+        synchronized (mThreadLock) {
+            if (mChildHandler != null && mChildHandler.hasMessages(CMD_OPEN)) {
+                JCameraLog.d("Open command is pending, keep handler thread.");
+                return;
+            }
+            quitHandlerThread();
+        }
     }
 
     /**
@@ -1196,6 +2102,12 @@ class Camera1 extends BaseCamera {
             cameraId = mCameraId;
         }
 
+        RecordBudget budget = getRecordBudget();
+        if (budget != null) {
+            return CamcorderProfileResolver.resolve(CamcorderProfileResolver.API_CAMERA1, cameraId, budget,
+                    getSupportedVideoSizes(), getSupportedFrameRates());
+        }
+
         List<Integer> list = new ArrayList<>();
         if (Build.VERSION.SDK_INT >= 21) {
             // list.add(CamcorderProfile.QUALITY_2160P);
@@ -1216,6 +2128,34 @@ class Camera1 extends BaseCamera {
         return CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH);
     }
 
+    /**
+     * 获取摄像头支持的录像尺寸，不支持单独设置录像尺寸的摄像头使用预览尺寸
+     */
+    private List<Size> getSupportedVideoSizes() {
+        if (mCapabilities == null) {
+            return new ArrayList<>();
+        }
+        if (mCapabilities.videoSizes.isEmpty()) {
+            return mCapabilities.previewSizes;
+        }
+        return mCapabilities.videoSizes;
+    }
+
+    /**
+     * 获取摄像头支持的帧率，取每个帧率范围的最大值
+     */
+    private List<Integer> getSupportedFrameRates() {
+        List<Integer> list = new ArrayList<>();
+        List<int[]> ranges = mParams.getSupportedPreviewFpsRange();
+        if (ranges != null) {
+            for (int[] range : ranges) {
+                //帧率范围的单位是fps*1000
+                list.add(range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000);
+            }
+        }
+        return list;
+    }
+
     /**
      * 将CamcorderProfile里面的常量拼接成String
      *
@@ -1331,6 +2271,194 @@ class Camera1 extends BaseCamera {
         return x;
     }
 
+    /**
+     * 一次连拍的状态<br>
+     * nextIndex只在相机线程中读写，finished和saved会在写入线程中更新
+     */
+    private static final class BurstSession {
+        private final int count;
+        private final File directory;
+        private final String namePrefix;
+        private int nextIndex;
+        //是否已经调用了takePicture，还在等待照片数据
+        private boolean isCapturing;
+        private final AtomicInteger finished = new AtomicInteger(0);
+        private final AtomicInteger saved = new AtomicInteger(0);
+
+        private BurstSession(int count, File directory, String namePrefix) {
+            this.count = count;
+            this.directory = directory;
+            this.namePrefix = namePrefix;
+        }
+    }
+
+    /**
+     * 分段录像的状态
+     */
+    private static final class RecordSegments {
+        private final File directory;
+        private final String namePrefix;
+        private final long maxDurationMs;
+        private final long maxFileBytes;
+        //正在录的这一段的序号和文件
+        private int index;
+        private File current;
+        //通过setNextOutputFile设置的下一段文件，还没有开始写入
+        private File next;
+        //已经生成的文件数
+        private int fileCount;
+
+        private RecordSegments(File directory, String namePrefix, long maxDurationMs, long maxFileBytes) {
+            this.directory = directory;
+            this.namePrefix = namePrefix;
+            this.maxDurationMs = maxDurationMs;
+            this.maxFileBytes = maxFileBytes;
+        }
+
+        /**
+         * 生成下一段的文件
+         */
+        private File newFile() {
+            return new File(directory, namePrefix + "_" + (fileCount++) + ".mp4");
+        }
+    }
+
+    /**
+     * 分段录像时MediaRecorder的回调
+     */
+    private final MediaRecorder.OnInfoListener mRecordInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mr, int what, int extra) {
+            RecordSegments segments = mRecordSegments;
+            if (segments == null || mr != mMediaRecorder) {
+                return;
+            }
+
+            switch (what) {
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    //快要达到上限了，提前设置好下一段的文件
+                    if (Build.VERSION.SDK_INT >= 26 && segments.next == null) {
+                        try {
+                            File next = segments.newFile();
+                            mr.setNextOutputFile(next);
+                            segments.next = next;
+                        } catch (Exception e) {
+                            JCameraLog.e("setNextOutputFile failed, e:" + e.getMessage());
+                        }
+                    }
+                    break;
+
+                case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    //已经开始写下一段，上一段已经写完
+                    notifyRecordSegmentFinished(segments.index, segments.current);
+                    segments.index++;
+                    segments.current = segments.next;
+                    segments.next = null;
+                    break;
+
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED:
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    //MediaRecorder已经停止，用新文件重新开始录像
+                    File finished = segments.current;
+                    int index = segments.index;
+                    releaseMediaRecorder();
+                    notifyRecordSegmentFinished(index, finished);
+
+                    segments.index++;
+                    segments.next = null;
+                    startRecordInThread(segments.newFile());
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    };
+
+    /**
+     * 照片写入结果回调，在写入线程中执行
+     */
+    private final PhotoWriter.Callback mPhotoWriterCallback = new PhotoWriter.Callback() {
+        @Override
+        public void onSaved(final File file, AtomicFileWriter.Metrics metrics) {
+            notifyPictureTaken(file, null);
+        }
+
+        @Override
+        public void onFailed(File file, final Exception e) {
+            notifyPictureTaken(null, e.getMessage());
+        }
+    };
+
+    /**
+     * 零延时拍照的编码结果回调，在编码线程中执行
+     */
+    private final ZslEncoder.Callback mZslEncoderCallback = new ZslEncoder.Callback() {
+        @Override
+        public void onFrameReleased(final byte[] frame) {
+            //缓冲区只在相机线程中管理
+            Handler handler = mChildHandler;
+            if (handler == null) {
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseZslFrame(frame);
+                }
+            });
+        }
+
+        @Override
+        public void onSaved(File file, AtomicFileWriter.Metrics metrics) {
+            mPhotoWriterCallback.onSaved(file, metrics);
+        }
+
+        @Override
+        public void onFailed(File file, Exception e) {
+            mPhotoWriterCallback.onFailed(file, e);
+        }
+    };
+
+    /**
+     * 打开摄像头后的第一帧，只用来统计打开到出图的耗时
+     */
+    private final Camera.PreviewCallback mFirstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            notifyFirstFrame();
+        }
+    };
+
+    /**
+     * 每一帧的预览回调，data来自{@link #mPreviewBuffers}，使用完后要归还给相机
+     */
+    private final Camera.PreviewCallback mEveryFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            notifyFirstFrame();
+            //缓冲区大小和预览尺寸不匹配的时候data为null，重新分配缓冲区
+            if (data == null) {
+                setUpPreviewCallback();
+                return;
+            }
+
+            if (mCallback != null && isEveryFrameEnabled.get()) {
+                dispatchFrameData(data, mFrameFormat, mFrameWidth, mFrameHeight, false);
+            }
+
+            //开启了零延时拍照的时候先放进环形缓冲区，归还被挤出的最旧一帧
+            if (isZslEnabled.get()) {
+                data = mZslRing.push(data);
+            }
+
+            //归还缓冲区，相机会继续使用它来填充后面的帧
+            if (data != null) {
+                camera.addCallbackBuffer(data);
+            }
+        }
+    };
+
     /**
      * 聚焦回调
      */
@@ -1341,12 +2469,7 @@ class Camera1 extends BaseCamera {
             if (success) {
                 mChildHandler.removeCallbacks(autoFocusRunnable);
 
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        iMaskView.clearAnimation();
-                    }
-                });
+                getDispatcher().dispatchClearAnimation(iMaskView);
 
             } else {
                 mChildHandler.postDelayed(autoFocusRunnable, 1000);
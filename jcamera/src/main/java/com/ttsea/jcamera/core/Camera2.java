@@ -11,14 +11,22 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.CamcorderProfile;
+import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Range;
 import android.util.SparseIntArray;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -28,9 +36,11 @@ import com.ttsea.jcamera.annotation.Flash;
 import com.ttsea.jcamera.callbacks.CameraCallback;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -42,6 +52,21 @@ import androidx.annotation.Nullable;
 class Camera2 extends BaseCamera {
     private final int DEFAULT_FACING = -1;
     private final AspectRatio DEFAULT_RATIO = AspectRatio.parse("16:9");
+    //预览帧ImageReader最多同时持有的Image个数，Image在回调中拷贝完后马上关闭
+    private final int FRAME_READER_MAX_IMAGES = 3;
+    //等待聚焦或者曝光锁定的最长时间，超时后直接拍照，单位:毫秒
+    private final long CAPTURE_LOCK_TIMEOUT = 1000;
+
+    //拍照状态：正在预览，没有拍照
+    private static final int STATE_PREVIEW = 0;
+    //拍照状态：已经触发聚焦，等待聚焦锁定
+    private static final int STATE_WAITING_LOCK = 1;
+    //拍照状态：已经触发预曝光，等待预曝光开始
+    private static final int STATE_WAITING_PRECAPTURE = 2;
+    //拍照状态：预曝光已经开始，等待预曝光结束
+    private static final int STATE_WAITING_NON_PRECAPTURE = 3;
+    //拍照状态：已经发出拍照请求，等待拍照完成
+    private static final int STATE_CAPTURING = 4;
 
     private Context mContext;
     private final CameraManager mManager;
@@ -50,6 +75,30 @@ class Camera2 extends BaseCamera {
     private CameraCaptureSession mSession;
     private CaptureRequest.Builder mPreviewRequest;
     private ImageReader mImageReader;
+    //用于获取预览帧数据的ImageReader，格式为YUV_420_888
+    private ImageReader mFrameReader;
+    //照片写入队列，照片在单独的线程中写入文件，不占用相机线程
+    private final PhotoWriter mPhotoWriter = new PhotoWriter();
+
+    private MediaRecorder mMediaRecorder;//用于录像
+    //录像用的surface，只在相机线程中读写
+    private Surface mRecordSurface;
+    //mRecordSurface是否是可以一直留在session中的persistent surface，第一次录像时才创建
+    private boolean isRecordSurfacePersistent;
+    //当前session中是否有mRecordSurface，有的时候session中没有预览帧的YUV输出，see {@link #createSession()}
+    private boolean isRecordTargetInSession;
+    //session重建完成后需要马上开始录像
+    private boolean isRecordStartPending;
+    //带上persistent surface创建session失败过，之后都不再使用persistent surface
+    private boolean isPersistentSurfaceFailed;
+    //记录摄像头所支持的录像尺寸
+    private final List<Size> mRecordSizes = new ArrayList<>();
+
+    //当前拍照状态，只在相机线程中读写，see {@link #STATE_PREVIEW}
+    private int mCaptureState = STATE_PREVIEW;
+    //当前拍照的输出文件和各阶段耗时，照片数据到达之前都不为空，这期间不能开始下一次拍照
+    private File mCaptureFile;
+    private CaptureTimer mCaptureTimer;
 
     private ISurface iSurface;//对应的SurfaceView
     private IMaskView iMaskView;//SurfaceViews上面的view
@@ -66,6 +115,26 @@ class Camera2 extends BaseCamera {
     private final AtomicBoolean isCameraInUsing = new AtomicBoolean(false);
     //记录是否正在预览，默认:false
     private final AtomicBoolean isShowingPreview = new AtomicBoolean(false);
+    //记录是否需要回调每一帧数据，默认:false
+    private final AtomicBoolean isEveryFrameEnabled = new AtomicBoolean(false);
+    //记录是否回调未经旋转的原始数据，默认:false
+    private final AtomicBoolean isRawFrameEnabled = new AtomicBoolean(false);
+    //记录是否有等待回调的单帧数据请求
+    private final AtomicBoolean isOneShotPending = new AtomicBoolean(false);
+
+    //记录摄像头所支持的YUV_420_888尺寸，用于选择预览帧的尺寸
+    private final SizeMap mFrameSizeMap = new SizeMap();
+    //mFrameReader的surface是否已经加入到预览请求中，只在相机线程中访问
+    private boolean isFrameTargetAdded;
+    //预览帧打包成NV21后存放的缓冲区，每一帧都复用
+    private byte[] mFrameBuffer;
+    //将预览帧的三个plane打包成NV21，旋转在打包的同时完成
+    private final YuvPacker mYuvPacker = new YuvPacker();
+    //预览数据需要顺时针旋转的角度，以及旋转后是否需要水平镜像(前置摄像头)
+    private int mFrameRotation;
+    private boolean mFrameMirror;
+    //原始帧模式下回调的帧信息，参数不变的时候复用同一个对象
+    private FrameInfo mFrameInfo;
 
     private static final SparseIntArray FACING_MAP = new SparseIntArray();
 
@@ -98,6 +167,7 @@ class Camera2 extends BaseCamera {
     @Override
     public void setCameraCallback(CameraCallback callback) {
         mCallback = callback;
+        getDispatcher().setCallback(callback);
     }
 
     @Override
@@ -117,11 +187,21 @@ class Camera2 extends BaseCamera {
     @Override
     public void openCamera(@Facing final int facing) {
         if (mHandlerThread == null) {
-            mHandlerThread = new HandlerThread("Camera2");
-            mHandlerThread.start();
+            //预热过的话直接使用预热好的线程，能力缓存也已经加载好了
+            CameraPrewarmer.Prewarmed prewarmed = CameraPrewarmer.adoptHandlerThread(false);
+            if (prewarmed != null) {
+                mHandlerThread = prewarmed.thread;
+                markOpenStartTime(prewarmed.startTime);
+            } else {
+                mHandlerThread = new HandlerThread("Camera2");
+                mHandlerThread.start();
+                markOpenStartTime(SystemClock.elapsedRealtime());
+            }
             mChildHandler = new Handler(mHandlerThread.getLooper());
             JCameraLog.d("Start a new handler thread:(" + mHandlerThread.getName()
-                    + ":" + mHandlerThread.getId() + ")");
+                    + ":" + mHandlerThread.getId() + "), prewarmed:" + (prewarmed != null));
+        } else {
+            markOpenStartTime(SystemClock.elapsedRealtime());
         }
 
         mChildHandler.post(new Runnable() {
@@ -140,14 +220,7 @@ class Camera2 extends BaseCamera {
         if (!Utils.checkCameraHardware(mContext)) {
             //设备不支持摄像头（或者没有摄像头）
             final String errorMsg = "Device has no camera.";
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_NO_CAMERA, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_NO_CAMERA, errorMsg);
             JCameraLog.e(errorMsg);
             resetStatus();
             quitHandlerThread();
@@ -159,10 +232,22 @@ class Camera2 extends BaseCamera {
             return;
         }
 
+        //有缓存的时候直接使用缓存中的cameraId，不需要遍历所有摄像头的CameraCharacteristics
+        CameraCapabilityCache.Capabilities caps = CameraCapabilityCache.get(mContext, getCapabilitiesKey(facing));
+
         //通过facing找到对应的cameraId
         String cameraId = null;
         try {
             String[] ids = mManager.getCameraIdList();
+            //缓存中的cameraId可能已经不存在了(例如外接摄像头被拔掉)，这时重新查找
+            if (caps != null && Arrays.asList(ids).contains(caps.cameraId)) {
+                cameraId = caps.cameraId;
+                ids = new String[0];
+            } else if (caps != null) {
+                JCameraLog.w("Cached cameraId:" + caps.cameraId + " is not available.");
+                caps = null;
+            }
+
             for (String id : ids) {
                 CameraCharacteristics characteristics = mManager.getCameraCharacteristics(id);
                 Integer internalFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
@@ -186,14 +271,7 @@ class Camera2 extends BaseCamera {
             resetStatus();
             quitHandlerThread();
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
 
             return;
         }
@@ -212,14 +290,7 @@ class Camera2 extends BaseCamera {
             resetStatus();
             quitHandlerThread();
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
 
             return;
         }
@@ -230,67 +301,51 @@ class Camera2 extends BaseCamera {
         }
 
         try {
+            Class<?> outputClass = getPreviewOutputClass();
+            if (outputClass == null) {
+                String errorMsg = "iSurface must instanceof SurfaceViewPreview or " +
+                        "SurfaceTexturePreview, iSurface:" + iSurface;
+                resetStatus();
+                quitHandlerThread();
+                getDispatcher().dispatchCameraError(CameraCallback.CODE_CONFIG_SIZE_FAILED, errorMsg);
+                return;
+            }
+
+            //查询失败的时候还没有调用openCamera，不会留下打开了一半的摄像头
             mCharacter = mManager.getCameraCharacteristics(cameraId);
 
-            StreamConfigurationMap map = mCharacter.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            boolean fromCache = caps != null;
+            StreamConfigurationMap map = fromCache
+                    ? null : mCharacter.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             if (map != null) {
-                //记录该摄像头所支持的预览尺寸
-                mPreSizeMap.clear();
-
-                Class<?> outputClass = iSurface.getClass();
-                if (iSurface instanceof SurfaceViewPreview) {
-                    outputClass = SurfaceHolder.class;
-                }
-
-                if (iSurface instanceof SurfaceTexturePreview) {
-                    outputClass = SurfaceTexture.class;
-                }
-
-                if (outputClass != SurfaceHolder.class && outputClass != SurfaceTexture.class) {
-                    if (mCallback != null) {
-                        final String errorMsg = "iSurface must instanceof SurfaceViewPreview or " +
-                                "SurfaceTexturePreview, iSurface:" + iSurface;
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                mCallback.onCameraError(CameraCallback.CODE_CONFIG_SIZE_FAILED, errorMsg);
-                            }
-                        });
-                    }
-                    return;
-                }
-
-                android.util.Size[] sizes = map.getOutputSizes(outputClass);
-                if (sizes != null) {
-                    for (android.util.Size size : sizes) {
-                        mPreSizeMap.addSize(new Size(size.getWidth(), size.getHeight()));
-                    }
-                }
-
-                //记录该摄像头所支持的图片尺寸
-                mPicSizeMap.clear();
-                sizes = map.getOutputSizes(ImageFormat.JPEG);
-                if (sizes != null) {
-                    for (android.util.Size size : sizes) {
-                        mPicSizeMap.addSize(new Size(size.getWidth(), size.getHeight()));
-                    }
-                }
+                //记录该摄像头所支持的预览尺寸、图片尺寸、录像尺寸和预览帧尺寸
+                Integer sensorOrientation = mCharacter.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                caps = new CameraCapabilityCache.Capabilities(cameraId,
+                        sensorOrientation == null ? 90 : sensorOrientation,
+                        toSizeList(map.getOutputSizes(outputClass)),
+                        toSizeList(map.getOutputSizes(ImageFormat.JPEG)),
+                        toSizeList(map.getOutputSizes(ImageFormat.YUV_420_888)),
+                        toSizeList(map.getOutputSizes(MediaRecorder.class)),
+                        null, null);
+            }
+            if (caps != null) {
+                applyCapabilities(caps);
             }
 
             if (mPreSizeMap.isEmpty() || mPicSizeMap.isEmpty()) {
-                if (mCallback != null) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mCallback.onCameraError(CameraCallback.CODE_CONFIG_SIZE_FAILED,
-                                    "mPreSizeMap or mPicSizeMap is null");
-                        }
-                    });
-                }
+                resetStatus();
+                quitHandlerThread();
+                getDispatcher().dispatchCameraError(CameraCallback.CODE_CONFIG_SIZE_FAILED,
+                        "mPreSizeMap or mPicSizeMap is null");
                 return;
             }
 
             mManager.openCamera(cameraId, mDeviceStateCallback, mChildHandler);
+            if (fromCache) {
+                JCameraLog.d("Use cached capabilities, " + getCapabilitiesKey(facing));
+            } else {
+                CameraCapabilityCache.put(mContext, getCapabilitiesKey(facing), caps);
+            }
 
             registerSensor();
 
@@ -302,19 +357,69 @@ class Camera2 extends BaseCamera {
             resetStatus();
             quitHandlerThread();
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
-                    }
-                });
-            }
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, errorMsg);
 
             return;
         }
     }
 
+    /**
+     * 获取预览surface对应的输出类型，用于查询预览尺寸
+     *
+     * @return SurfaceHolder.class or SurfaceTexture.class，不支持的iSurface返回null
+     */
+    @Nullable
+    private Class<?> getPreviewOutputClass() {
+        if (iSurface instanceof SurfaceViewPreview) {
+            return SurfaceHolder.class;
+        }
+        if (iSurface instanceof SurfaceTexturePreview) {
+            return SurfaceTexture.class;
+        }
+        return null;
+    }
+
+    /**
+     * 摄像头能力缓存的key，不同的预览surface类型支持的尺寸可能不一样
+     */
+    private String getCapabilitiesKey(@Facing int facing) {
+        Class<?> outputClass = getPreviewOutputClass();
+        return "camera2:" + facing + ":" + (outputClass == null ? "" : outputClass.getSimpleName());
+    }
+
+    /**
+     * 将摄像头能力恢复到各个尺寸表中
+     */
+    private void applyCapabilities(CameraCapabilityCache.Capabilities caps) {
+        mPreSizeMap.clear();
+        for (Size size : caps.previewSizes) {
+            mPreSizeMap.addSize(size);
+        }
+
+        mPicSizeMap.clear();
+        for (Size size : caps.pictureSizes) {
+            mPicSizeMap.addSize(size);
+        }
+
+        mFrameSizeMap.clear();
+        for (Size size : caps.frameSizes) {
+            mFrameSizeMap.addSize(size);
+        }
+
+        mRecordSizes.clear();
+        mRecordSizes.addAll(caps.videoSizes);
+    }
+
+    private static List<Size> toSizeList(android.util.Size[] sizes) {
+        List<Size> list = new ArrayList<>();
+        if (sizes != null) {
+            for (android.util.Size size : sizes) {
+                list.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+        return list;
+    }
+
     @Override
     public void releaseCamera() {
         if (mCamera == null) {
@@ -347,14 +452,7 @@ class Camera2 extends BaseCamera {
             //开始预览，开始自动聚焦
             isShowingPreview.set(true);
 
-            if (mCallback != null) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onStartPreview();
-                    }
-                });
-            }
+            getDispatcher().dispatchStartPreview();
 
             if (startAutoFocus) {
                 startAutoFocus();
@@ -366,14 +464,7 @@ class Camera2 extends BaseCamera {
             final String errorMsg = e.getMessage();
             JCameraLog.e("startPreview error, " + e.getClass() + ":" + errorMsg);
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (mCallback != null) {
-                        mCallback.onCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
-                    }
-                }
-            });
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
         }
     }
 
@@ -405,8 +496,27 @@ class Camera2 extends BaseCamera {
 
                 adjustCameraParams();
 
-                mCamera.createCaptureSession(Arrays.asList(iSurface.getSurface(),
-                        mImageReader.getSurface()), mSessionCallback, mChildHandler);
+                List<Surface> outputs = new ArrayList<>();
+                outputs.add(iSurface.getSurface());
+                outputs.add(mImageReader.getSurface());
+
+                //预览、最大尺寸的JPEG、YUV预览帧、录像4路输出只有LEVEL_3才能保证支持，
+                //所以录像的surface和预览帧的YUV输出不同时加入session
+                //录像过之后persistent surface一直留在session中，再次录像的时候不需要重建session，
+                //直到需要预览帧的时候再去掉
+                isRecordTargetInSession = mRecordSurface != null
+                        && (isRecordStartPending || mMediaRecorder != null || !isFrameNeeded());
+                if (isRecordTargetInSession) {
+                    closeFrameReader();
+                    outputs.add(mRecordSurface);
+                } else {
+                    setUpFrameReader();
+                    if (mFrameReader != null) {
+                        outputs.add(mFrameReader.getSurface());
+                    }
+                }
+
+                mCamera.createCaptureSession(outputs, mSessionCallback, mChildHandler);
             } else {
                 startPreview();
             }
@@ -418,16 +528,122 @@ class Camera2 extends BaseCamera {
 
             releaseCamera();
 
-            runOnUiThread(new Runnable() {
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
+
+            return;
+        }
+    }
+
+    /**
+     * 创建获取预览帧数据的ImageReader<br>
+     * 它的surface在session中没有录像surface的时候加入到session中，但只有需要预览帧的时候才会加入到预览请求中，
+     * see {@link #updateFrameTarget()}
+     */
+    private void setUpFrameReader() {
+        closeFrameReader();
+
+        SortedSet<Size> sizes = mFrameSizeMap.get(getAspectRatio());
+        if (sizes == null || sizes.isEmpty()) {
+            JCameraLog.w("No YUV_420_888 size for ratio:" + getAspectRatio());
+            return;
+        }
+
+        Size size = findPreviewSize(sizes);
+        mFrameReader = ImageReader.newInstance(size.width, size.height,
+                ImageFormat.YUV_420_888, FRAME_READER_MAX_IMAGES);
+        mYuvPacker.reset();
+        mFrameReader.setOnImageAvailableListener(mOnFrameAvailableListener, mChildHandler);
+        JCameraLog.d("setUpFrameReader, size:" + size);
+
+        if (isFrameNeeded()) {
+            mPreviewRequest.addTarget(mFrameReader.getSurface());
+            isFrameTargetAdded = true;
+        }
+    }
+
+    /**
+     * 关闭获取预览帧数据的ImageReader
+     */
+    private void closeFrameReader() {
+        if (mFrameReader != null) {
+            //mPreviewRequest是复用的，旧的surface不移除的话新session的预览请求会带着一个不在session中的目标
+            if (isFrameTargetAdded && mPreviewRequest != null) {
+                mPreviewRequest.removeTarget(mFrameReader.getSurface());
+            }
+            mFrameReader.close();
+            mFrameReader = null;
+        }
+        isFrameTargetAdded = false;
+    }
+
+    /**
+     * 是否需要预览帧
+     */
+    private boolean isFrameNeeded() {
+        return isEveryFrameEnabled.get() || isOneShotPending.get();
+    }
+
+    /**
+     * 根据是否需要预览帧，将mFrameReader的surface加入或者移出预览请求，并更新正在进行的预览<br>
+     * 不需要预览帧的时候不让相机输出YUV数据，节省带宽和功耗<br>
+     * 注：需要在相机线程中调用
+     */
+    private void updateFrameTarget() {
+        //没有在录像、拍照的时候，去掉session中留着的录像surface，重建session恢复预览帧的输出
+        if (mFrameReader == null && isRecordTargetInSession && isFrameNeeded()
+                && !isCameraInUsing.get() && mSession != null) {
+            JCameraLog.d("Recreate session for preview frame.");
+            mSession.close();
+            mSession = null;
+            createSession();
+            return;
+        }
+
+        if (mFrameReader == null || mPreviewRequest == null) {
+            return;
+        }
+
+        boolean needFrame = isFrameNeeded();
+        if (needFrame == isFrameTargetAdded) {
+            return;
+        }
+
+        if (needFrame) {
+            mPreviewRequest.addTarget(mFrameReader.getSurface());
+        } else {
+            mPreviewRequest.removeTarget(mFrameReader.getSurface());
+        }
+        isFrameTargetAdded = needFrame;
+
+        if (mSession == null || !isShowingPreview.get()) {
+            return;
+        }
+
+        try {
+            mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+        } catch (Exception e) {
+            JCameraLog.e("updateFrameTarget failed, e:" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 在相机线程中更新预览请求
+     */
+    private void postUpdateFrameTarget() {
+        if (mChildHandler == null) {
+            return;
+        }
+
+        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
+            updateFrameTarget();
+        } else {
+            mChildHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (mCallback != null) {
-                        mCallback.onCameraError(CameraCallback.CODE_START_PREVIEW_FAILED, errorMsg);
-                    }
+                    updateFrameTarget();
                 }
             });
-
-            return;
         }
     }
 
@@ -510,7 +726,42 @@ class Camera2 extends BaseCamera {
 
     @Override
     public void onActivityRotation(int rotation) {
+        if (mCharacter == null) {
+            return;
+        }
+
+        Integer sensorOrientation = mCharacter.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int sensor = sensorOrientation == null ? 90 : sensorOrientation;
+        int display = getDisplayRotationDegrees(rotation);
+
+        //前置摄像头的预览是镜像的，预览数据也镜像一下保持和屏幕上看到的一致
+        if (getFacing() == Constants.FACING_FRONT) {
+            mFrameRotation = (sensor + display) % 360;
+            mFrameMirror = true;
+        } else {
+            mFrameRotation = (sensor - display + 360) % 360;
+            mFrameMirror = false;
+        }
+        JCameraLog.d("onRotation, rotation:" + rotation + ", frameRotation:" + mFrameRotation);
+    }
 
+    /**
+     * 获取屏幕的旋转角度
+     *
+     * @param rotation see {@link Surface#ROTATION_0}
+     * @return 0/90/180/270
+     */
+    private int getDisplayRotationDegrees(int rotation) {
+        switch (rotation) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
     }
 
     @Override
@@ -577,7 +828,8 @@ class Camera2 extends BaseCamera {
         if (list.contains(flash)) {
             try {
                 mPreviewRequest.set(CaptureRequest.CONTROL_AE_MODE, FLASH_MODES.get(flash));
-                mSession.setRepeatingRequest(mPreviewRequest.build(), null, mChildHandler);
+                //拍照状态由预览请求的结果推进，这里也要带上mCaptureCallback
+                mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
 
                 JCameraLog.d("setFlashMode:" + getFlashStr(flash));
 
@@ -609,87 +861,808 @@ class Camera2 extends BaseCamera {
     }
 
     @Override
-    public void takePhoto(File outputFile) {
-
-    }
+    public void takePhoto(final File outputFile) {
+        if (mChildHandler == null) {
+            return;
+        }
 
-    @Override
-    public void startRecord(File outputFile) {
+        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
+            takePhotoInThread(outputFile);
 
+        } else {
+            mChildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    takePhotoInThread(outputFile);
+                }
+            });
+        }
     }
 
-    @Override
-    public void stopRecord() {
+    /**
+     * 在子线程中拍照<br>
+     * 1.触发自动聚焦，等待聚焦锁定<br>
+     * 2.曝光没有收敛的时候触发预曝光，等待预曝光结束<br>
+     * 3.向mImageReader发出拍照请求，拍完后解除锁定，恢复预览<br>
+     * 每一步都由{@link #mCaptureCallback}中的结果驱动，see {@link #processCaptureResult(CaptureResult)}
+     */
+    private void takePhotoInThread(File outputFile) {
+        String errorMsg = null;
+        if (mCamera == null || mSession == null || mImageReader == null || !isShowingPreview.get()) {
+            errorMsg = "mCamera is null.";
+        } else if (mCaptureState != STATE_PREVIEW || isCameraInUsing.get()) {
+            errorMsg = "Camera is in using.";
+        } else if (mCaptureFile != null) {
+            //拍照完成后马上恢复了预览，但照片数据还没到，这时再拍会覆盖上一张照片的输出文件
+            errorMsg = "Last picture is not received yet.";
+        } else if (mPhotoWriter.isFull()) {
+            //写入队列已满，这时拍照也无法保存，直接通知调用者稍后再拍
+            errorMsg = "Photo writer is busy, try again later.";
+        }
 
-    }
+        if (errorMsg != null) {
+            JCameraLog.w("takePhoto, " + errorMsg);
+            notifyPictureTaken(null, errorMsg);
+            return;
+        }
 
-    @Override
-    public boolean onSurfaceTapped(float x, float y) {
-        return false;
-    }
+        JCameraLog.d("takePhoto...");
 
-    @Override
-    public boolean zoomIn(float value) {
-        return false;
-    }
+        //如果outputFile为空，则取默认文件
+        File tmpFile = outputFile;
+        if (tmpFile == null) {
+            tmpFile = new File(mContext.getExternalFilesDir(Environment.DIRECTORY_PICTURES),
+                    "IMG_" + Utils.getCurrentTime("yyyyMMddHHmmss") + ".jpg");
+        }
+        if (!tmpFile.getParentFile().exists()) {
+            tmpFile.getParentFile().mkdirs();
+        }
 
-    @Override
-    public boolean zoomOut(float value) {
-        return false;
+        isCameraInUsing.set(true);
+        mCaptureFile = tmpFile;
+        mCaptureTimer = new CaptureTimer();
+        //预览请求的结果不再回调(比如请求被替换)的时候也要能超时拍照
+        mChildHandler.removeCallbacks(mCaptureTimeoutRunnable);
+        mChildHandler.postDelayed(mCaptureTimeoutRunnable, CAPTURE_LOCK_TIMEOUT);
+
+        try {
+            if (isAutoFocusSupported()) {
+                mPreviewRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+                mCaptureState = STATE_WAITING_LOCK;
+                mSession.capture(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+                //触发只需要发送一次，后面的预览请求不能再带上触发
+                mPreviewRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+            } else {
+                //定焦镜头，不需要等待聚焦
+                mCaptureTimer.focused = SystemClock.elapsedRealtimeNanos();
+                runPrecapture();
+            }
+        } catch (Exception e) {
+            onCaptureError("Lock focus failed, e:" + e.getMessage());
+        }
     }
 
-    @Override
-    public void setOneShotPreview() {
+    /**
+     * 当前摄像头是否支持自动聚焦
+     */
+    private boolean isAutoFocusSupported() {
+        Float minFocusDistance = mCharacter == null ? null
+                : mCharacter.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        //最近对焦距离为0表示定焦镜头
+        if (minFocusDistance == null || minFocusDistance == 0) {
+            return false;
+        }
 
+        Integer afMode = mPreviewRequest.build().get(CaptureRequest.CONTROL_AF_MODE);
+        return afMode != null && afMode != CameraMetadata.CONTROL_AF_MODE_OFF
+                && afMode != CameraMetadata.CONTROL_AF_MODE_EDOF;
     }
 
     /**
-     * 适配相机参数
+     * 根据预览请求的结果推进拍照状态，在相机线程中执行
+     *
+     * @param result 预览请求或者触发请求的结果
      */
-    private void adjustCameraParams() {
-        if (mCamera == null) {
+    private void processCaptureResult(CaptureResult result) {
+        if (mCaptureState == STATE_PREVIEW || mCaptureState == STATE_CAPTURING) {
             return;
         }
+
+        //部分机型聚焦或者曝光一直不收敛，超时后直接拍照
+        boolean timeout = mCaptureTimer != null && mCaptureTimer.getWaitingMillis() > CAPTURE_LOCK_TIMEOUT;
+        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+
+        switch (mCaptureState) {
+            case STATE_WAITING_LOCK:
+                if (afState == null || timeout
+                        || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                        || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                    mCaptureTimer.focused = SystemClock.elapsedRealtimeNanos();
+                    if (timeout) {
+                        JCameraLog.w("Wait for focus lock timeout, afState:" + afState);
+                    }
+
+                    if (aeState == null || timeout || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
+                        mCaptureTimer.exposed = mCaptureTimer.focused;
+                        captureStillPicture();
+                    } else {
+                        runPrecapture();
+                    }
+                }
+                break;
+
+            case STATE_WAITING_PRECAPTURE:
+                //触发之前的预览结果可能还是CONVERGED，这时预曝光还没开始，不能当成已经结束
+                if (aeState == null || timeout
+                        || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE
+                        || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                    mCaptureState = STATE_WAITING_NON_PRECAPTURE;
+                }
+                //预曝光可能在一帧之内就已经结束，继续往下判断
+                if (mCaptureState != STATE_WAITING_NON_PRECAPTURE) {
+                    break;
+                }
+
+            case STATE_WAITING_NON_PRECAPTURE:
+                if (aeState == null || timeout || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                    mCaptureTimer.exposed = SystemClock.elapsedRealtimeNanos();
+                    if (timeout) {
+                        JCameraLog.w("Wait for precapture timeout, aeState:" + aeState);
+                    }
+                    captureStillPicture();
+                }
+                break;
+
+            default:
+                break;
+        }
     }
 
     /**
-     * 查找最合适的预览尺寸，总是找最接近手机屏幕的尺寸
+     * 等待聚焦或者曝光锁定超时，不再等待预览请求的结果，直接拍照
      */
-    private Size findPreviewSize(SortedSet<Size> sizes) {
-        if (mCamera == null) {
-            return sizes.first();
-        }
-
-        int width = iMaskView.getViewWidth();
-        int height = iMaskView.getViewHeight();
+    private final Runnable mCaptureTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCaptureState != STATE_WAITING_LOCK && mCaptureState != STATE_WAITING_PRECAPTURE
+                    && mCaptureState != STATE_WAITING_NON_PRECAPTURE) {
+                return;
+            }
 
-        Size result = null;
-        for (Size size : sizes) {
-            if (width != 0 && height != 0) {
-                if (width <= size.width && height <= size.height) {
-                    return size;
+            JCameraLog.w("Wait for lock timeout, captureState:" + mCaptureState);
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (mCaptureTimer != null) {
+                if (mCaptureTimer.focused == 0) {
+                    mCaptureTimer.focused = now;
                 }
+                mCaptureTimer.exposed = now;
             }
-            result = size;
+            captureStillPicture();
         }
+    };
 
-        return result;
+    /**
+     * 触发预曝光，开了闪光灯的时候会在这一步预闪
+     */
+    private void runPrecapture() {
+        try {
+            mPreviewRequest.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+            mCaptureState = STATE_WAITING_PRECAPTURE;
+            mSession.capture(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+            mPreviewRequest.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+        } catch (Exception e) {
+            onCaptureError("Precapture failed, e:" + e.getMessage());
+        }
     }
 
     /**
-     * 重设一些常量的状态
+     * 聚焦和曝光都已经锁定，发出拍照请求<br>
+     * 不停止预览，拍照请求插在预览请求之间执行
      */
-    private void resetStatus() {
-        if (mChildHandler != null) {
-            mChildHandler.removeCallbacksAndMessages(null);
-        }
+    private void captureStillPicture() {
+        try {
+            CaptureRequest.Builder builder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(mImageReader.getSurface());
+            //和预览保持一样的聚焦和闪光模式
+            CaptureRequest preview = mPreviewRequest.build();
+            Integer afMode = preview.get(CaptureRequest.CONTROL_AF_MODE);
+            if (afMode != null) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+            }
+            Integer aeMode = preview.get(CaptureRequest.CONTROL_AE_MODE);
+            if (aeMode != null) {
+                builder.set(CaptureRequest.CONTROL_AE_MODE, aeMode);
+            }
+            //照片方向和Camera1中的setRotation()保持一致，前置摄像头不镜像
+            builder.set(CaptureRequest.JPEG_ORIENTATION, mFrameRotation);
 
-        mPreSizeMap.clear();
-        mPicSizeMap.clear();
+            mCaptureState = STATE_CAPTURING;
+            mChildHandler.removeCallbacks(mCaptureTimeoutRunnable);
+            mSession.capture(builder.build(), mStillCaptureCallback, mChildHandler);
+        } catch (Exception e) {
+            onCaptureError("Capture still picture failed, e:" + e.getMessage());
+        }
+    }
 
+    /**
+     * 拍照完成或者失败后解除聚焦锁定，恢复正常预览
+     */
+    private void unlockFocus() {
+        mCaptureState = STATE_PREVIEW;
         isCameraInUsing.set(false);
-        isShowingPreview.set(false);
-
+        if (mChildHandler != null) {
+            mChildHandler.removeCallbacks(mCaptureTimeoutRunnable);
+        }
+
+        if (mSession == null || mPreviewRequest == null) {
+            return;
+        }
+
+        try {
+            mPreviewRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+            mSession.capture(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+            mPreviewRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+            mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+        } catch (Exception e) {
+            JCameraLog.e("Unlock focus failed, e:" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 拍照过程中出错，回调错误并恢复预览
+     */
+    private void onCaptureError(String errorMsg) {
+        JCameraLog.e(errorMsg);
+        mCaptureFile = null;
+        mCaptureTimer = null;
+        unlockFocus();
+        notifyPictureTaken(null, errorMsg);
+    }
+
+    /**
+     * 打开摄像头后的第一帧到达，在主线程中回调{@link CameraCallback#onFirstFrame(long, long)}，只回调一次
+     */
+    private void notifyFirstFrame() {
+        final long startTime = consumeOpenStartTime();
+        if (startTime == 0) {
+            return;
+        }
+
+        final long frameTime = SystemClock.elapsedRealtime();
+        JCameraLog.d("First frame arrived, cost:" + (frameTime - startTime) + "ms");
+        getDispatcher().dispatchFirstFrame(startTime, frameTime);
+    }
+
+    /**
+     * 在主线程中回调拍照结果
+     */
+    private void notifyPictureTaken(File picFile, String errorMsg) {
+        getDispatcher().dispatchPictureTaken(picFile, errorMsg);
+    }
+
+    @Override
+    public void setZslEnabled(boolean enable) {
+        //暂不支持，see Camera1
+        JCameraLog.w("setZslEnabled is not supported by Camera2, enable:" + enable);
+    }
+
+    @Override
+    public void takePhotoFromPreview(File outputFile) {
+        JCameraLog.w("takePhotoFromPreview is not supported by Camera2.");
+        getDispatcher().dispatchPictureTaken(null, "ZSL is not supported.");
+    }
+
+    @Override
+    public void takeBurst(int count, File directory) {
+        //暂不支持，see Camera1
+        JCameraLog.w("takeBurst is not supported by Camera2.");
+        String errorMsg = "Burst is not supported.";
+        getDispatcher().dispatchBurstPictureTaken(0, null, 0, System.currentTimeMillis(), errorMsg);
+        getDispatcher().dispatchBurstFinished(count, 0);
+    }
+
+    @Override
+    public void startRecord(final File outputFile) {
+        if (mChildHandler == null) {
+            return;
+        }
+
+        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
+            startRecordInThread(outputFile);
+
+        } else {
+            mChildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startRecordInThread(outputFile);
+                }
+            });
+        }
+    }
+
+    /**
+     * 在子线程中开始录像<br>
+     * 1.session中已经有persistent surface的时候，只需要把它加入到预览请求中，预览不会中断<br>
+     * 2.第一次录像的时候才创建persistent surface，需要重建一次session，只拍照或者扫码的时候不会创建<br>
+     * 3.不支持persistent surface的时候用MediaRecorder的surface重建session，重建完成后再开始录像<br>
+     * 4.录像的时候session中没有预览帧的YUV输出，see {@link #createSession()}
+     */
+    private void startRecordInThread(File outputFile) {
+        if (mCamera == null || mSession == null || isCameraInUsing.get()) {
+            //这里不能调用onRecordError，否则会停掉正在进行的录像
+            final String errorMsg = "Can not start record, camera opened:" + (mCamera != null)
+                    + ", session ready:" + (mSession != null) + ", in using:" + isCameraInUsing.get();
+            JCameraLog.w(errorMsg);
+            getDispatcher().dispatchRecordError(errorMsg);
+            return;
+        }
+        JCameraLog.d("startRecord...");
+
+        if (!outputFile.getParentFile().exists()) {
+            outputFile.getParentFile().mkdirs();
+        }
+
+        try {
+            CamcorderProfile profile = getCamcorderProfile();
+            JCameraLog.d("CamcorderProfile:" + getCamcorderProfileStr(profile));
+            isCameraInUsing.set(true);
+
+            if (mRecordSurface != null && isRecordSurfacePersistent) {
+                mMediaRecorder = createMediaRecorder(profile, outputFile, mRecordSurface);
+                if (isRecordTargetInSession) {
+                    mMediaRecorder.start();
+                    mPreviewRequest.addTarget(mRecordSurface);
+                    mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+                    return;
+                }
+
+                //persistent surface因为需要预览帧被移出了session，重建session后再开始录像
+                isRecordStartPending = true;
+                mSession.close();
+                mSession = null;
+                createSession();
+                return;
+            }
+
+            //API 23以上第一次录像时创建persistent surface，prepare之后再加入session
+            if (mRecordSurface == null && !isPersistentSurfaceFailed) {
+                Surface surface = obtainPersistentRecordSurface();
+                if (surface == null) {
+                    isPersistentSurfaceFailed = true;
+                } else {
+                    //MediaRecorder准备好之后surface才有录像的尺寸，失败的时候下次录像再试
+                    mMediaRecorder = createMediaRecorder(profile, outputFile, surface);
+                    mRecordSurface = surface;
+                    isRecordSurfacePersistent = true;
+                    isRecordStartPending = true;
+
+                    mSession.close();
+                    mSession = null;
+                    createSession();
+                    return;
+                }
+            }
+
+            //不支持persistent surface，只能重建session
+            mMediaRecorder = createMediaRecorder(profile, outputFile, null);
+            mRecordSurface = mMediaRecorder.getSurface();
+            isRecordSurfacePersistent = false;
+            isRecordStartPending = true;
+
+            mSession.close();
+            mSession = null;
+            createSession();
+
+        } catch (Exception e) {
+            onRecordError(e.getMessage());
+        }
+    }
+
+    @Override
+    public void startSegmentedRecord(File directory, long maxDurationMs, long maxFileBytes) {
+        //暂不支持，see Camera1
+        JCameraLog.w("startSegmentedRecord is not supported by Camera2.");
+        getDispatcher().dispatchRecordError("Segmented record is not supported.");
+    }
+
+    /**
+     * session重建完成后开始录像
+     */
+    private void startPendingRecord() {
+        isRecordStartPending = false;
+        if (mMediaRecorder == null || mRecordSurface == null) {
+            return;
+        }
+
+        try {
+            mPreviewRequest.addTarget(mRecordSurface);
+            mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+            mMediaRecorder.start();
+        } catch (Exception e) {
+            onRecordError(e.getMessage());
+        }
+    }
+
+    /**
+     * 创建并准备好MediaRecorder，参数和Camera1保持一致
+     *
+     * @param profile      录像参数
+     * @param outputFile   输出文件
+     * @param inputSurface persistent surface，为空的时候使用MediaRecorder自己的surface
+     * @return 已经prepare的MediaRecorder
+     */
+    MediaRecorder createMediaRecorder(CamcorderProfile profile, File outputFile,
+                                      @Nullable Surface inputSurface) throws Exception {
+        MediaRecorder recorder = new MediaRecorder();
+        try {
+            //设置音源
+            recorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+            //设置视频源，Camera2通过surface输入
+            recorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+            recorder.setProfile(profile);
+            //设置输出文件
+            recorder.setOutputFile(outputFile.getAbsolutePath());
+            //设置旋转角度，和拍照保持一致
+            recorder.setOrientationHint(mFrameRotation);
+            if (inputSurface != null) {
+                setRecorderInputSurface(recorder, inputSurface);
+            }
+            recorder.prepare();
+            return recorder;
+
+        } catch (Exception e) {
+            recorder.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 创建可以一直留在session中的录像surface，第一次录像时调用，API 23以下不支持
+     *
+     * @return persistent surface，不支持或者创建失败的时候返回null
+     */
+    @Nullable
+    protected Surface obtainPersistentRecordSurface() {
+        return null;
+    }
+
+    /**
+     * 让MediaRecorder使用persistent surface作为输入，只有{@link #obtainPersistentRecordSurface()}
+     * 返回了surface的时候才会调用，API 23以下什么都不做
+     */
+    protected void setRecorderInputSurface(MediaRecorder recorder, Surface surface) {
+
+    }
+
+    /**
+     * 释放persistent surface
+     */
+    protected void releasePersistentRecordSurface() {
+
+    }
+
+    /**
+     * 录像出错，释放MediaRecorder并回调错误
+     */
+    private void onRecordError(final String errorMsg) {
+        JCameraLog.e("Record error, e:" + errorMsg);
+        stopRecordInThread();
+
+        getDispatcher().dispatchRecordError(errorMsg);
+    }
+
+    @Override
+    public void stopRecord() {
+        if (mChildHandler == null) {
+            return;
+        }
+
+        if (mChildHandler.getLooper().getThread() == Thread.currentThread()) {
+            stopRecordInThread();
+
+        } else {
+            mChildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    stopRecordInThread();
+                }
+            });
+        }
+    }
+
+    /**
+     * 在子线程中停止录像<br>
+     * 先把录像surface移出预览请求再停止MediaRecorder，预览不会中断
+     */
+    private void stopRecordInThread() {
+        isRecordStartPending = false;
+
+        if (mRecordSurface != null && mPreviewRequest != null) {
+            mPreviewRequest.removeTarget(mRecordSurface);
+            if (mSession != null && isShowingPreview.get()) {
+                try {
+                    mSession.setRepeatingRequest(mPreviewRequest.build(), mCaptureCallback, mChildHandler);
+                } catch (Exception e) {
+                    JCameraLog.e("Exception e:" + e.getMessage());
+                }
+            }
+        }
+
+        try {
+            if (mMediaRecorder != null) {
+                mMediaRecorder.stop();
+            }
+        } catch (Exception e) {
+            //ignore error
+        }
+        if (mMediaRecorder != null) {
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
+
+        //MediaRecorder自己的surface已经失效，下次创建session时不再使用
+        if (!isRecordSurfacePersistent) {
+            mRecordSurface = null;
+        }
+
+        isCameraInUsing.set(false);
+        JCameraLog.d("stopRecord...");
+
+        //录像期间需要的预览帧，在录像结束后恢复
+        updateFrameTarget();
+    }
+
+    /**
+     * 录像时，从高到低，获取摄像头所支持的最好的设置文件，和Camera1保持一致<br>
+     * 同时要求录像尺寸是当前摄像头能够输出给MediaRecorder的
+     *
+     * @return CamcorderProfile
+     */
+    CamcorderProfile getCamcorderProfile() {
+        int cameraId = 0;
+        try {
+            cameraId = Integer.parseInt(mCamera.getId());
+        } catch (Exception e) {
+            //外接摄像头等id不是数字的情况，使用后置摄像头的设置文件
+        }
+
+        RecordBudget budget = getRecordBudget();
+        if (budget != null) {
+            List<Integer> frameRates = new ArrayList<>();
+            Range<Integer>[] ranges = mCharacter.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            if (ranges != null) {
+                for (Range<Integer> range : ranges) {
+                    frameRates.add(range.getUpper());
+                }
+            }
+            return CamcorderProfileResolver.resolve(CamcorderProfileResolver.API_CAMERA2, cameraId, budget,
+                    mRecordSizes, frameRates);
+        }
+
+        List<Integer> list = new ArrayList<>();
+        list.add(CamcorderProfile.QUALITY_1080P);
+        list.add(CamcorderProfile.QUALITY_720P);
+        list.add(CamcorderProfile.QUALITY_480P);
+        list.add(CamcorderProfile.QUALITY_HIGH);
+        list.add(CamcorderProfile.QUALITY_LOW);
+
+        for (int i = 0; i < list.size(); i++) {
+            int quality = list.get(i);
+            if (!CamcorderProfile.hasProfile(cameraId, quality)) {
+                continue;
+            }
+
+            CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+            Size size = new Size(profile.videoFrameWidth, profile.videoFrameHeight);
+            if (mRecordSizes.isEmpty() || mRecordSizes.contains(size)) {
+                return profile;
+            }
+        }
+
+        return CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH);
+    }
+
+    /**
+     * 将CamcorderProfile里面的常量拼接成String
+     *
+     * @param profile CamcorderProfile
+     * @return String
+     */
+    private String getCamcorderProfileStr(CamcorderProfile profile) {
+        if (profile == null) {
+            return "";
+        }
+        String msg = "duration=" + profile.duration +
+                ", quality=" + profile.quality +
+                ", fileFormat=" + profile.fileFormat +
+                ", videoCodec=" + profile.videoCodec +
+                ", videoBitRate=" + profile.videoBitRate +
+                ", videoFrameRate=" + profile.videoFrameRate +
+                ", videoWidth=" + profile.videoFrameWidth +
+                ", videoHeight=" + profile.videoFrameHeight +
+                ", audioCodec=" + profile.audioCodec +
+                ", audioBitRate=" + profile.audioBitRate +
+                ", audioSampleRate=" + profile.audioSampleRate +
+                ", audioChannels=" + profile.audioChannels;
+
+        return "profile{" + msg + "}";
+    }
+
+    @Override
+    public boolean onSurfaceTapped(float x, float y) {
+        return false;
+    }
+
+    @Override
+    public boolean zoomIn(float value) {
+        return false;
+    }
+
+    @Override
+    public boolean zoomOut(float value) {
+        return false;
+    }
+
+    @Override
+    public void setOneShotPreview() {
+        if (mCamera == null) {
+            return;
+        }
+
+        isOneShotPending.set(true);
+        postUpdateFrameTarget();
+    }
+
+    @Override
+    public void setEveryFramePreview(boolean enable) {
+        isEveryFrameEnabled.set(enable);
+        JCameraLog.d("setEveryFramePreview, enable:" + enable);
+
+        postUpdateFrameTarget();
+    }
+
+    @Override
+    public void setRawFrameEnabled(boolean enable) {
+        isRawFrameEnabled.set(enable);
+        JCameraLog.d("setRawFrameEnabled, enable:" + enable);
+    }
+
+    /**
+     * 将预览数据回调给mCallback
+     *
+     * @param data    预览数据，NV21格式，非原始帧模式下已经按照屏幕方向旋转过
+     * @param width   数据宽度
+     * @param height  数据高度
+     * @param oneShot true:回调给oneShotFrameData，false:回调给everyFrameData
+     */
+    private void dispatchFrameData(byte[] data, int width, int height, boolean oneShot) {
+        int format = ImageFormat.NV21;
+
+        //原始帧模式，数据没有旋转，只带上旋转信息
+        if (isRawFrameEnabled.get()) {
+            int degrees = mFrameRotation;
+            boolean mirror = mFrameMirror;
+            FrameInfo info = mFrameInfo;
+            if (info == null || !info.matches(format, width, height, degrees, mirror)) {
+                info = new FrameInfo(format, width, height, degrees, mirror);
+                mFrameInfo = info;
+            }
+
+            if (oneShot) {
+                mCallback.oneShotRawFrameData(data, info);
+            } else {
+                mCallback.everyRawFrameData(data, info);
+            }
+            return;
+        }
+
+        if (oneShot) {
+            mCallback.oneShotFrameData(data, format, width, height);
+        } else {
+            mCallback.everyFrameData(data, format, width, height);
+        }
+    }
+
+    /**
+     * 将YUV_420_888的Image打包成NV21格式，存放在{@link #mFrameBuffer}中
+     *
+     * @param image   预览帧
+     * @param degrees 顺时针旋转角度
+     * @param mirror  旋转后是否水平镜像
+     */
+    private void packFrame(Image image, int degrees, boolean mirror) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int size = YuvTransform.getBufferSize(width, height);
+        if (mFrameBuffer == null || mFrameBuffer.length != size) {
+            mFrameBuffer = new byte[size];
+        }
+
+        Image.Plane[] planes = image.getPlanes();
+        mYuvPacker.pack(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[1].getRowStride(), planes[1].getPixelStride(),
+                width, height, YuvTransform.FORMAT_NV21, degrees, mirror, mFrameBuffer);
+    }
+
+    /**
+     * 适配相机参数
+     */
+    private void adjustCameraParams() {
+        if (mCamera == null) {
+            return;
+        }
+    }
+
+    /**
+     * 查找最合适的预览尺寸，总是找最接近手机屏幕的尺寸
+     */
+    private Size findPreviewSize(SortedSet<Size> sizes) {
+        if (mCamera == null) {
+            return sizes.first();
+        }
+
+        int width = iMaskView.getViewWidth();
+        int height = iMaskView.getViewHeight();
+
+        Size result = null;
+        for (Size size : sizes) {
+            if (width != 0 && height != 0) {
+                if (width <= size.width && height <= size.height) {
+                    return size;
+                }
+            }
+            result = size;
+        }
+
+        return result;
+    }
+
+    /**
+     * 重设一些常量的状态
+     */
+    private void resetStatus() {
+        if (mChildHandler != null) {
+            mChildHandler.removeCallbacksAndMessages(null);
+        }
+
+        mPreSizeMap.clear();
+        mPicSizeMap.clear();
+        mFrameSizeMap.clear();
+
+        isCameraInUsing.set(false);
+        isShowingPreview.set(false);
+        isOneShotPending.set(false);
+
+        //正在拍的照片不会再回调了，先通知失败再清理
+        if (mCaptureFile != null) {
+            JCameraLog.w("Capture aborted by reset, file:" + mCaptureFile);
+            notifyPictureTaken(null, "Camera released.");
+        }
+        mCaptureState = STATE_PREVIEW;
+        mCaptureFile = null;
+        mCaptureTimer = null;
+
+        if (mMediaRecorder != null) {
+            try {
+                mMediaRecorder.stop();
+            } catch (Exception e) {
+                //ignore error
+            }
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
+        mRecordSurface = null;
+        isRecordSurfacePersistent = false;
+        isRecordTargetInSession = false;
+        isRecordStartPending = false;
+        releasePersistentRecordSurface();
+        mRecordSizes.clear();
+
         if (mSession != null) {
             mSession.close();
             mSession = null;
@@ -698,6 +1671,14 @@ class Camera2 extends BaseCamera {
             mImageReader.close();
             mImageReader = null;
         }
+        if (mFrameReader != null) {
+            mFrameReader.close();
+            mFrameReader = null;
+        }
+        isFrameTargetAdded = false;
+        mFrameBuffer = null;
+        mFrameInfo = null;
+
         if (mCamera != null) {
             JCameraLog.d("release " + getCameraStr(mCamera));
             mCamera.close();
@@ -765,6 +1746,51 @@ class Camera2 extends BaseCamera {
         return null;
     }
 
+    /**
+     * 记录拍照各个阶段的时间点，用于按机型调整拍照延时<br>
+     * 时间点都来自{@link SystemClock#elapsedRealtimeNanos()}，为0表示没有经过该阶段
+     */
+    private static final class CaptureTimer {
+        private final long start = SystemClock.elapsedRealtimeNanos();
+        //聚焦锁定
+        private long focused;
+        //曝光收敛(包括预曝光)
+        private long exposed;
+        //开始曝光，即快门时间
+        private long shutter;
+        //拍照请求完成
+        private long completed;
+        //拿到JPEG数据
+        private long imageAvailable;
+        //写入文件
+        private long saved;
+
+        /**
+         * 从开始拍照到现在经过的时间
+         */
+        private long getWaitingMillis() {
+            return (SystemClock.elapsedRealtimeNanos() - start) / 1000000;
+        }
+
+        private static String stage(long from, long to) {
+            if (from == 0 || to == 0) {
+                return "-";
+            }
+            return String.format(Locale.US, "%.1fms", (to - from) / 1000000f);
+        }
+
+        @Override
+        public String toString() {
+            return "focus:" + stage(start, focused)
+                    + ", exposure:" + stage(focused, exposed)
+                    + ", shutter:" + stage(exposed, shutter)
+                    + ", capture:" + stage(shutter, completed)
+                    + ", image:" + stage(shutter, imageAvailable)
+                    + ", save:" + stage(imageAvailable, saved)
+                    + ", total:" + stage(start, saved);
+        }
+    }
+
     //////////////////////////////////////////////////////////////////////////////////////////////
     // ---------------------------- 以下是Camera2对应的一些回调 ----------------------------
     //////////////////////////////////////////////////////////////////////////////////////////////
@@ -781,14 +1807,7 @@ class Camera2 extends BaseCamera {
 
             createSession();
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (mCallback != null) {
-                        mCallback.onCameraOpened();
-                    }
-                }
-            });
+            getDispatcher().dispatchCameraOpened();
         }
 
         @Override
@@ -802,15 +1821,8 @@ class Camera2 extends BaseCamera {
         public void onClosed(@NonNull CameraDevice camera) {
             JCameraLog.d(getCameraStr(camera) + " closed.");
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    iMaskView.clearAnimation();
-                    if (mCallback != null) {
-                        mCallback.onCameraClosed();
-                    }
-                }
-            });
+            getDispatcher().dispatchClearAnimation(iMaskView);
+            getDispatcher().dispatchCameraClosed();
         }
 
         @Override
@@ -820,14 +1832,7 @@ class Camera2 extends BaseCamera {
             resetStatus();
             quitHandlerThread();
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (mCallback != null) {
-                        mCallback.onCameraError(CameraCallback.CODE_OPEN_FAILED, "errorCode:" + error);
-                    }
-                }
-            });
+            getDispatcher().dispatchCameraError(CameraCallback.CODE_OPEN_FAILED, "errorCode:" + error);
         }
     };
 
@@ -839,11 +1844,35 @@ class Camera2 extends BaseCamera {
             JCameraLog.d("on session configured...");
             mSession = session;
             startPreview();
+
+            if (isRecordStartPending) {
+                startPendingRecord();
+            }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
             JCameraLog.w("on session configure failed...");
+
+            //部分机型不支持这么多路输出，去掉persistent surface后重新创建session，下次录像重建session
+            if (mRecordSurface != null && isRecordSurfacePersistent) {
+                JCameraLog.w("Disable persistent record surface.");
+                if (isRecordStartPending) {
+                    onRecordError("Configure record session failed.");
+                }
+                isPersistentSurfaceFailed = true;
+                mRecordSurface = null;
+                isRecordSurfacePersistent = false;
+                releasePersistentRecordSurface();
+                createSession();
+                return;
+            }
+
+            if (isRecordStartPending) {
+                onRecordError("Configure record session failed.");
+                //去掉录像surface后重建session，恢复预览
+                createSession();
+            }
         }
 
         @Override
@@ -870,6 +1899,8 @@ class Camera2 extends BaseCamera {
         @Override
         public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
             super.onCaptureCompleted(session, request, result);
+            notifyFirstFrame();
+            processCaptureResult(result);
         }
 
         @Override
@@ -893,10 +1924,137 @@ class Camera2 extends BaseCamera {
         }
     };
 
-    private ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+    /** 拍照请求的回调，在相机线程中执行 */
+    private final CameraCaptureSession.CaptureCallback mStillCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            if (mCaptureTimer != null) {
+                mCaptureTimer.shutter = SystemClock.elapsedRealtimeNanos();
+            }
+            //这里可以响应快门声
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            if (mCaptureTimer != null) {
+                mCaptureTimer.completed = SystemClock.elapsedRealtimeNanos();
+            }
+            unlockFocus();
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            onCaptureError("Capture failed, reason:" + failure.getReason());
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull Surface target, long frameNumber) {
+            //照片的buffer丢失后不会再回调onImageAvailable，需要清空mCaptureFile，否则之后的拍照都会被拒绝
+            if (mCaptureFile != null && mImageReader != null && target == mImageReader.getSurface()) {
+                onCaptureError("Capture buffer lost, frameNumber:" + frameNumber);
+            }
+        }
+    };
+
+    /** 拍照数据回调，在相机线程中执行 */
+    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+
+            File picFile = mCaptureFile;
+            final CaptureTimer timer = mCaptureTimer;
+            mCaptureFile = null;
+            mCaptureTimer = null;
 
+            byte[] data;
+            try {
+                //JPEG只有一个plane，拷贝出来后马上归还Image
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                data = new byte[buffer.remaining()];
+                buffer.get(data);
+            } finally {
+                image.close();
+            }
+
+            if (picFile == null) {
+                JCameraLog.w("Drop picture, no pending capture.");
+                return;
+            }
+            if (timer != null) {
+                timer.imageAvailable = SystemClock.elapsedRealtimeNanos();
+            }
+
+            //将data放入写入队列，写入完成后再回调
+            boolean queued = mPhotoWriter.write(data, picFile, new PhotoWriter.Callback() {
+                @Override
+                public void onSaved(File file, AtomicFileWriter.Metrics metrics) {
+                    if (timer != null) {
+                        timer.saved = SystemClock.elapsedRealtimeNanos();
+                        JCameraLog.d("takePhoto timing, model:" + Build.MODEL + ", " + timer);
+                    }
+                    notifyPictureTaken(file, null);
+                }
+
+                @Override
+                public void onFailed(File file, Exception e) {
+                    notifyPictureTaken(null, e.getMessage());
+                }
+            });
+            if (!queued) {
+                notifyPictureTaken(null, "Photo writer is busy, picture dropped.");
+            }
+        }
+    };
+
+    /** 预览帧回调，在相机线程中执行 */
+    private final ImageReader.OnImageAvailableListener mOnFrameAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            //只取最新的一帧，来不及处理的旧帧直接丢弃
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+
+            //非原始帧模式下，打包的同时按照屏幕方向旋转
+            boolean raw = isRawFrameEnabled.get();
+            int degrees = raw ? 0 : mFrameRotation;
+            boolean mirror = !raw && mFrameMirror;
+            int width = YuvTransform.getRotatedWidth(image.getWidth(), image.getHeight(), degrees);
+            int height = YuvTransform.getRotatedHeight(image.getWidth(), image.getHeight(), degrees);
+            try {
+                packFrame(image, degrees, mirror);
+            } catch (Exception e) {
+                JCameraLog.e("Copy frame failed, e:" + e.getMessage());
+                return;
+            } finally {
+                //尽快归还Image，否则相机没有可用的缓冲区会丢帧
+                image.close();
+            }
+
+            boolean oneShot = isOneShotPending.getAndSet(false);
+            boolean everyFrame = isEveryFrameEnabled.get();
+
+            if (mCallback != null) {
+                if (oneShot) {
+                    dispatchFrameData(mFrameBuffer, width, height, true);
+                    //扫码的时候每一帧都会走到这里，不输出日志的时候不格式化字符串
+                    JCameraLog.df("onImageAvailable, size:%d:%d, rotation:%d, raw:%b",
+                            width, height, degrees, raw);
+                }
+                if (everyFrame) {
+                    dispatchFrameData(mFrameBuffer, width, height, false);
+                }
+            }
+
+            //单帧请求已经完成，不需要预览帧的时候移出预览请求
+            if (oneShot && !everyFrame) {
+                updateFrameTarget();
+            }
         }
     };
 }
\ No newline at end of file
@@ -4,10 +4,16 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.view.Surface;
 
 @TargetApi(23)
 class Camera2Api23 extends Camera2 {
 
+    //录像用的persistent surface，第一次录像时创建，之后开始和停止录像都不需要重建session
+    private Surface mPersistentSurface;
+
     public Camera2Api23(Context context, ISurface iSurface, IMaskView iMaskView) {
         super(context, iSurface, iMaskView);
     }
@@ -24,4 +30,37 @@ class Camera2Api23 extends Camera2 {
             // super.collectPictureSizes(sizes, map);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 创建persistent surface，第一次录像时调用，由录像的MediaRecorder prepare之后再加入session
+     */
+    @Override
+    protected Surface obtainPersistentRecordSurface() {
+        if (mPersistentSurface != null) {
+            return mPersistentSurface;
+        }
+
+        try {
+            mPersistentSurface = MediaCodec.createPersistentInputSurface();
+            JCameraLog.d("Persistent record surface created.");
+
+        } catch (Exception e) {
+            JCameraLog.w("Create persistent record surface failed, e:" + e.getMessage());
+        }
+
+        return mPersistentSurface;
+    }
+
+    @Override
+    protected void setRecorderInputSurface(MediaRecorder recorder, Surface surface) {
+        recorder.setInputSurface(surface);
+    }
+
+    @Override
+    protected void releasePersistentRecordSurface() {
+        if (mPersistentSurface != null) {
+            mPersistentSurface.release();
+            mPersistentSurface = null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.ttsea.jcamera.core;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 摄像头能力缓存<br>
+ * 1.缓存每个摄像头支持的尺寸、闪光和聚焦模式等，打开摄像头时不需要再向系统查询和解析<br>
+ * 2.以紧凑的二进制格式保存在应用的cache目录下，第一次使用时才加载，也可以通过{@link #preload(Context)}提前加载<br>
+ * 3.整个文件和{@link Build#FINGERPRINT}绑定，系统升级后自动失效
+ */
+final class CameraCapabilityCache {
+    private static final String FILE_NAME = "jcamera_capabilities.bin";
+    private static final int MAGIC = 0x4A43414D;//"JCAM"
+    private static final int VERSION = 1;
+
+    //key:see Camera1和Camera2中的key
+    private static final Map<String, Capabilities> sCache = new HashMap<>();
+    private static boolean sLoaded;
+    private static File sFile;
+
+    private CameraCapabilityCache() {
+    }
+
+    /**
+     * 提前加载缓存文件，可以在任意线程调用
+     */
+    static void preload(Context context) {
+        synchronized (sCache) {
+            ensureLoaded(context);
+        }
+    }
+
+    /**
+     * 获取缓存的摄像头能力
+     *
+     * @param key 摄像头的key
+     * @return Capabilities，没有缓存的时候返回null
+     */
+    static Capabilities get(Context context, String key) {
+        synchronized (sCache) {
+            ensureLoaded(context);
+            return sCache.get(key);
+        }
+    }
+
+    /**
+     * 保存摄像头能力，内容有变化的时候才会写入文件
+     *
+     * @param key          摄像头的key
+     * @param capabilities 摄像头能力
+     */
+    static void put(Context context, String key, Capabilities capabilities) {
+        byte[] data;
+        synchronized (sCache) {
+            ensureLoaded(context);
+            if (capabilities.equals(sCache.get(key))) {
+                return;
+            }
+            sCache.put(key, capabilities);
+
+            try {
+                data = encode();
+            } catch (IOException e) {
+                JCameraLog.e("Encode capabilities failed, e:" + e.getMessage());
+                return;
+            }
+        }
+
+        //缓存文件丢了也可以重新查询，不需要同步到存储设备
+        try {
+            new AtomicFileWriter(AtomicFileWriter.FORCE_NONE).write(data, sFile);
+            JCameraLog.d("Saved capabilities, key:" + key + ", bytes:" + data.length);
+        } catch (IOException e) {
+            JCameraLog.e("Save capabilities failed, e:" + e.getMessage());
+        }
+    }
+
+    private static void ensureLoaded(Context context) {
+        if (sLoaded) {
+            return;
+        }
+        sLoaded = true;
+        sFile = new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+        if (!sFile.exists()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(sFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !Build.FINGERPRINT.equals(in.readUTF())) {
+                JCameraLog.d("Capabilities cache is outdated.");
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                sCache.put(key, Capabilities.read(in));
+            }
+            JCameraLog.d("Loaded capabilities, count:" + count
+                    + ", time:" + (System.nanoTime() - start) / 1000 + "us");
+
+        } catch (IOException e) {
+            //文件损坏，丢弃后重新查询
+            JCameraLog.w("Load capabilities failed, e:" + e.getMessage());
+            sCache.clear();
+
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //ignore error
+                }
+            }
+        }
+    }
+
+    private static byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(Build.FINGERPRINT);
+        out.writeInt(sCache.size());
+        for (Map.Entry<String, Capabilities> entry : sCache.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 一个摄像头的能力，创建后不可修改
+     */
+    static final class Capabilities {
+        final String cameraId;
+        final int sensorOrientation;
+        final List<Size> previewSizes;
+        final List<Size> pictureSizes;
+        //预览帧(YUV_420_888)尺寸，Camera1中为空
+        final List<Size> frameSizes;
+        final List<Size> videoSizes;
+        final List<String> flashModes;
+        final List<String> focusModes;
+
+        Capabilities(String cameraId, int sensorOrientation, List<Size> previewSizes,
+                     List<Size> pictureSizes, List<Size> frameSizes, List<Size> videoSizes,
+                     List<String> flashModes, List<String> focusModes) {
+            this.cameraId = cameraId;
+            this.sensorOrientation = sensorOrientation;
+            this.previewSizes = unmodifiable(previewSizes);
+            this.pictureSizes = unmodifiable(pictureSizes);
+            this.frameSizes = unmodifiable(frameSizes);
+            this.videoSizes = unmodifiable(videoSizes);
+            this.flashModes = unmodifiable(flashModes);
+            this.focusModes = unmodifiable(focusModes);
+        }
+
+        private static <T> List<T> unmodifiable(List<T> list) {
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(new ArrayList<>(list));
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(cameraId);
+            out.writeShort(sensorOrientation);
+            writeSizes(out, previewSizes);
+            writeSizes(out, pictureSizes);
+            writeSizes(out, frameSizes);
+            writeSizes(out, videoSizes);
+            writeStrings(out, flashModes);
+            writeStrings(out, focusModes);
+        }
+
+        private static Capabilities read(DataInputStream in) throws IOException {
+            return new Capabilities(in.readUTF(), in.readShort(), readSizes(in), readSizes(in),
+                    readSizes(in), readSizes(in), readStrings(in), readStrings(in));
+        }
+
+        //尺寸不会超过65535，每个尺寸只占4个字节
+        private static void writeSizes(DataOutputStream out, List<Size> sizes) throws IOException {
+            out.writeShort(sizes.size());
+            for (Size size : sizes) {
+                out.writeShort(size.width);
+                out.writeShort(size.height);
+            }
+        }
+
+        private static List<Size> readSizes(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            List<Size> sizes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sizes.add(new Size(in.readUnsignedShort(), in.readUnsignedShort()));
+            }
+            return sizes;
+        }
+
+        private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+            out.writeShort(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+        }
+
+        private static List<String> readStrings(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            List<String> strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strings.add(in.readUTF());
+            }
+            return strings;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Capabilities)) {
+                return false;
+            }
+
+            Capabilities c = (Capabilities) o;
+            return cameraId.equals(c.cameraId)
+                    && sensorOrientation == c.sensorOrientation
+                    && previewSizes.equals(c.previewSizes)
+                    && pictureSizes.equals(c.pictureSizes)
+                    && frameSizes.equals(c.frameSizes)
+                    && videoSizes.equals(c.videoSizes)
+                    && flashModes.equals(c.flashModes)
+                    && focusModes.equals(c.focusModes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cameraId.hashCode();
+            result = 31 * result + sensorOrientation;
+            result = 31 * result + previewSizes.hashCode();
+            result = 31 * result + pictureSizes.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ttsea.jcamera.core;
+
+/**
+ * Camera.Parameters的批量提交记录，只在相机线程中使用<br>
+ * 1.修改mParams后只标记修改了哪些参数，在一帧的时间内的多次修改合并成一次setParameters，
+ * 例如双指缩放时连续的缩放值<br>
+ * 2.只有预览尺寸真正变化的时候才需要重新启动预览
+ */
+final class CameraParamsBatcher {
+    static final int KEY_PREVIEW_SIZE = 1;
+    static final int KEY_PICTURE_SIZE = 1 << 1;
+    static final int KEY_ROTATION = 1 << 2;
+    static final int KEY_FLASH_MODE = 1 << 3;
+    static final int KEY_FOCUS_MODE = 1 << 4;
+    static final int KEY_FOCUS_AREAS = 1 << 5;
+    static final int KEY_ZOOM = 1 << 6;
+    static final int KEY_RECORDING_HINT = 1 << 7;
+    static final int KEY_OTHER = 1 << 8;
+
+    /** 默认的合并间隔，按30fps的一帧计算，单位:毫秒 */
+    static final long DEFAULT_BATCH_INTERVAL = 33;
+    private static final long MIN_BATCH_INTERVAL = 16;
+    private static final long MAX_BATCH_INTERVAL = 100;
+
+    //还没有提交到相机的参数
+    private int mDirtyKeys;
+    private long mBatchInterval = DEFAULT_BATCH_INTERVAL;
+    //最近一次提交到相机的预览尺寸
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+
+    /**
+     * 标记参数已经修改，还没提交
+     *
+     * @param keys 参数，例如{@link #KEY_ZOOM}，可以用|组合
+     */
+    void mark(int keys) {
+        mDirtyKeys |= keys;
+    }
+
+    boolean isDirty() {
+        return mDirtyKeys != 0;
+    }
+
+    /**
+     * 取出所有还没提交的参数并清空，调用者负责提交
+     */
+    int takeDirtyKeys() {
+        int keys = mDirtyKeys;
+        mDirtyKeys = 0;
+        return keys;
+    }
+
+    long getBatchInterval() {
+        return mBatchInterval;
+    }
+
+    /**
+     * 根据预览帧率设置合并间隔
+     *
+     * @param maxFps 预览帧率的上限，和{@link android.hardware.Camera.Parameters#getPreviewFpsRange(int[])}
+     *               一样放大了1000倍
+     */
+    void setMaxFps(int maxFps) {
+        if (maxFps <= 0) {
+            mBatchInterval = DEFAULT_BATCH_INTERVAL;
+            return;
+        }
+
+        long interval = 1000L * 1000 / maxFps;
+        mBatchInterval = Math.max(MIN_BATCH_INTERVAL, Math.min(MAX_BATCH_INTERVAL, interval));
+    }
+
+    /**
+     * 记录提交后的预览尺寸
+     *
+     * @return true:和上一次提交的预览尺寸不一样
+     */
+    boolean updatePreviewSize(int width, int height) {
+        if (mPreviewWidth == width && mPreviewHeight == height) {
+            return false;
+        }
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+        return true;
+    }
+
+    void reset() {
+        mDirtyKeys = 0;
+        mBatchInterval = DEFAULT_BATCH_INTERVAL;
+        mPreviewWidth = 0;
+        mPreviewHeight = 0;
+    }
+}
@@ -9,6 +9,7 @@ import android.view.View;
 import android.widget.FrameLayout;
 
 import com.ttsea.jcamera.R;
+import com.ttsea.jcamera.annotation.Facing;
 import com.ttsea.jcamera.annotation.Flash;
 import com.ttsea.jcamera.callbacks.CameraCallback;
 
@@ -16,6 +17,7 @@ import java.io.File;
 import java.util.List;
 import java.util.Set;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public class CameraPreview extends FrameLayout implements CameraCallback {
@@ -36,6 +38,48 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         JCameraLog.enableLog(enable);
     }
 
+    /**
+     * 开启日志文件，日志在后台线程中批量写入directory，不受{@link #enableLog(boolean)}的影响
+     *
+     * @param directory 日志文件保存的目录，为空的时候关闭日志文件
+     */
+    public static void enableFileLog(@Nullable File directory) {
+        JCameraLog.enableFileLog(directory);
+    }
+
+    /**
+     * 设置写入日志文件的最低等级，默认为{@link android.util.Log#INFO}，和logcat的等级互不影响
+     *
+     * @param priority see {@link android.util.Log#DEBUG}
+     */
+    public static void setFileLogLevel(int priority) {
+        JCameraLog.setFileLogLevel(priority);
+    }
+
+    /**
+     * 导出最近一段时间的日志，例如在{@link CameraCallback#onCameraError(int, String)}中导出出错前的日志
+     *
+     * @param durationMs 导出多长时间内的日志，单位:毫秒
+     * @param outputFile 导出的文件
+     * @return true:已经开始导出，false:没有开启日志文件
+     */
+    public static boolean dumpRecentLog(long durationMs, @NonNull File outputFile) {
+        return JCameraLog.dumpRecent(durationMs, outputFile);
+    }
+
+    /**
+     * 预热摄像头，在界面还没显示的时候提前创建相机线程、加载摄像头能力缓存，
+     * openDevice为true且使用Camera1的时候还会提前打开摄像头<br>
+     * 之后的CameraPreview打开摄像头时会直接使用预热好的线程和摄像头，预热结果5秒内没有被使用会自动释放
+     *
+     * @param context    context
+     * @param facing     要预热的摄像头
+     * @param openDevice 是否提前打开摄像头
+     */
+    public static void prewarm(Context context, @Facing int facing, boolean openDevice) {
+        CameraPrewarmer.prewarm(context, facing, openDevice);
+    }
+
     public CameraPreview(Context context) {
         this(context, null);
     }
@@ -248,6 +292,13 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onFirstFrame(long startTime, long frameTime) {
+        if (mCallback != null) {
+            mCallback.onFirstFrame(startTime, frameTime);
+        }
+    }
+
     @Override
     public void onPictureTaken(@Nullable File picFile, String errorMsg) {
         if (mCallback != null) {
@@ -255,6 +306,21 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onBurstPictureTaken(int index, @Nullable File picFile, long shutterTime, long savedTime,
+                                    String errorMsg) {
+        if (mCallback != null) {
+            mCallback.onBurstPictureTaken(index, picFile, shutterTime, savedTime, errorMsg);
+        }
+    }
+
+    @Override
+    public void onBurstFinished(int count, int savedCount) {
+        if (mCallback != null) {
+            mCallback.onBurstFinished(count, savedCount);
+        }
+    }
+
     @Override
     public void onRecordError(String errorMsg) {
         if (mCallback != null) {
@@ -262,6 +328,13 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onRecordSegmentFinished(int index, @NonNull File segmentFile) {
+        if (mCallback != null) {
+            mCallback.onRecordSegmentFinished(index, segmentFile);
+        }
+    }
+
     @Override
     public void oneShotFrameData(@Nullable byte[] data, int format, int width, int height) {
         if (mCallback != null) {
@@ -276,6 +349,20 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void oneShotRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+        if (mCallback != null) {
+            mCallback.oneShotRawFrameData(data, info);
+        }
+    }
+
+    @Override
+    public void everyRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+        if (mCallback != null) {
+            mCallback.everyRawFrameData(data, info);
+        }
+    }
+
     public void setCameraCallback(CameraCallback callback) {
         mCallback = callback;
     }
@@ -414,6 +501,27 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         iCamera.takePhoto(outputFile);
     }
 
+    /**
+     * see {@link ICamera#setZslEnabled(boolean)}
+     */
+    public void setZslEnabled(boolean enable) {
+        iCamera.setZslEnabled(enable);
+    }
+
+    /**
+     * see {@link ICamera#takePhotoFromPreview(File)}
+     */
+    public void takePhotoFromPreview(File outputFile) {
+        iCamera.takePhotoFromPreview(outputFile);
+    }
+
+    /**
+     * see {@link ICamera#takeBurst(int, File)}
+     */
+    public void takeBurst(int count, File directory) {
+        iCamera.takeBurst(count, directory);
+    }
+
     /**
      * see {@link ICamera#startRecord(File)}
      */
@@ -421,10 +529,42 @@ public class CameraPreview extends FrameLayout implements CameraCallback {
         iCamera.startRecord(outputFile);
     }
 
+    /**
+     * see {@link ICamera#setRecordBudget(RecordBudget)}
+     */
+    public void setRecordBudget(RecordBudget budget) {
+        iCamera.setRecordBudget(budget);
+    }
+
+    /**
+     * see {@link ICamera#startSegmentedRecord(File, long, long)}
+     */
+    public void startSegmentedRecord(File directory, long maxDurationMs, long maxFileBytes) {
+        iCamera.startSegmentedRecord(directory, maxDurationMs, maxFileBytes);
+    }
+
     /**
      * see {@link ICamera#stopRecord()}
      */
     public void stopRecord() {
         iCamera.stopRecord();
     }
+
+    /**
+     * see {@link ICamera#setEveryFramePreview(boolean)}
+     *
+     * @param enable see {@link ICamera#setEveryFramePreview(boolean)}
+     */
+    public void setEveryFramePreview(boolean enable) {
+        iCamera.setEveryFramePreview(enable);
+    }
+
+    /**
+     * see {@link ICamera#setRawFrameEnabled(boolean)}
+     *
+     * @param enable see {@link ICamera#setRawFrameEnabled(boolean)}
+     */
+    public void setRawFrameEnabled(boolean enable) {
+        iCamera.setRawFrameEnabled(enable);
+    }
 }
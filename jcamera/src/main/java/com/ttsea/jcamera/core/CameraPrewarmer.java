@@ -0,0 +1,209 @@
+package com.ttsea.jcamera.core;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.ttsea.jcamera.annotation.Facing;
+
+/**
+ * 摄像头预热<br>
+ * 1.提前启动相机线程，并在该线程中加载{@link CameraCapabilityCache}<br>
+ * 2.使用Camera1的时候还可以提前打开摄像头，Camera.open()是打开过程中最慢的一步<br>
+ * 3.之后{@link Camera1}和{@link Camera2}打开摄像头时会直接接管预热好的线程和摄像头<br>
+ * 4.预热后{@link #EXPIRE_MILLIS}内没有被接管的话自动释放，不会一直占用摄像头
+ */
+@SuppressWarnings("deprecation")
+final class CameraPrewarmer {
+    //预热后多久没有被接管就释放，单位:毫秒
+    private static final long EXPIRE_MILLIS = 5000;
+
+    private static final Object sLock = new Object();
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+    //预热时打开的Camera1摄像头，只在Camera1中使用
+    private static Camera sCamera;
+    private static int sCameraId;
+    //开始预热的时间，see SystemClock#elapsedRealtime()
+    private static long sStartTime;
+
+    private CameraPrewarmer() {
+    }
+
+    /**
+     * 预热摄像头，可以在任意线程调用，重复调用的时候只有第一次有效
+     *
+     * @param context    Context
+     * @param facing     要打开的摄像头
+     * @param openDevice 是否提前打开摄像头，只对Camera1有效
+     */
+    static void prewarm(Context context, @Facing final int facing, final boolean openDevice) {
+        final Context appContext = context.getApplicationContext();
+        //和CameraPreview选择Camera1还是Camera2的条件保持一致
+        final boolean useCamera1 = Build.VERSION.SDK_INT < 21 || !Utils.cameraSupportHighLevel(appContext);
+
+        final Handler handler;
+        synchronized (sLock) {
+            if (sThread != null) {
+                return;
+            }
+            sStartTime = SystemClock.elapsedRealtime();
+            sThread = new HandlerThread(useCamera1 ? "Camera1" : "Camera2");
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+            handler = sHandler;
+            JCameraLog.d("Prewarm camera, facing:" + facing + ", openDevice:" + openDevice);
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraCapabilityCache.preload(appContext);
+
+                if (useCamera1 && openDevice) {
+                    //和Camera1打开摄像头时使用同一个facing和id的对应关系
+                    openCamera1(Camera1.getCameraId(facing));
+                }
+            }
+        });
+        handler.postDelayed(mExpireRunnable, EXPIRE_MILLIS);
+    }
+
+    /**
+     * 在预热线程中提前打开Camera1摄像头
+     */
+    private static void openCamera1(int cameraId) {
+        Camera camera;
+        try {
+            camera = cameraId == Camera1.DEFAULT_CAMERA_ID ? Camera.open() : Camera.open(cameraId);
+        } catch (Exception e) {
+            //打开失败不影响之后正常打开，交给Camera1去处理错误
+            JCameraLog.w("Prewarm camera failed, e:" + e.getMessage());
+            return;
+        }
+
+        //过期检查在同一个线程中执行，不会早于这里，所以总是可以先保存下来
+        synchronized (sLock) {
+            sCamera = camera;
+            sCameraId = cameraId;
+        }
+        JCameraLog.d("Prewarm camera opened, cameraId:" + cameraId
+                + ", time:" + (SystemClock.elapsedRealtime() - sStartTime) + "ms");
+    }
+
+    /**
+     * 接管预热好的相机线程
+     *
+     * @param adoptCamera1 是否接着接管预热时打开的Camera1摄像头，为true的时候调用者必须在相机线程中调用
+     *                     {@link #adoptCamera1(int)}，为false的时候预热的摄像头在该线程中释放
+     * @return 预热好的线程，没有预热或者已经过期的时候返回null
+     */
+    static Prewarmed adoptHandlerThread(boolean adoptCamera1) {
+        synchronized (sLock) {
+            if (sThread == null) {
+                return null;
+            }
+
+            sHandler.removeCallbacks(mExpireRunnable);
+            if (!adoptCamera1) {
+                //排在预热任务之后执行，预热时打开的摄像头不会一直被占用
+                sHandler.post(mReleaseCameraRunnable);
+            }
+            Prewarmed prewarmed = new Prewarmed(sThread, sStartTime);
+            sThread = null;
+            sHandler = null;
+            return prewarmed;
+        }
+    }
+
+    /**
+     * 接管预热时打开的Camera1摄像头，需要在相机线程中调用，每次打开摄像头都要调用一次<br>
+     * 不是同一个摄像头的时候预热的摄像头会被释放
+     *
+     * @param cameraId 要打开的摄像头，see {@link Camera1#getCameraId(int)}
+     * @return 预热好的摄像头，没有或者不是同一个摄像头的时候返回null
+     */
+    static Camera adoptCamera1(int cameraId) {
+        Camera camera;
+        int id;
+        synchronized (sLock) {
+            camera = sCamera;
+            id = sCameraId;
+            sCamera = null;
+        }
+
+        if (camera != null && id != cameraId) {
+            //要打开的不是预热的摄像头，先释放掉
+            camera.release();
+            return null;
+        }
+        return camera;
+    }
+
+    /**
+     * 释放没有被接管的预热摄像头
+     */
+    private static final Runnable mReleaseCameraRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Camera camera;
+            synchronized (sLock) {
+                camera = sCamera;
+                sCamera = null;
+            }
+
+            if (camera != null) {
+                JCameraLog.d("Release prewarmed camera, cameraId:" + sCameraId);
+                camera.release();
+            }
+        }
+    };
+
+    /**
+     * 过期后释放预热的线程和摄像头
+     */
+    private static final Runnable mExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            HandlerThread thread;
+            Camera camera;
+            synchronized (sLock) {
+                if (sThread != Thread.currentThread()) {
+                    return;
+                }
+                thread = sThread;
+                camera = sCamera;
+                sThread = null;
+                sHandler = null;
+                sCamera = null;
+            }
+
+            JCameraLog.d("Prewarmed camera expired.");
+            if (camera != null) {
+                camera.release();
+            }
+            if (Build.VERSION.SDK_INT >= 18) {
+                thread.quitSafely();
+            } else {
+                thread.quit();
+            }
+        }
+    };
+
+    /**
+     * 预热好的相机线程
+     */
+    static final class Prewarmed {
+        final HandlerThread thread;
+        //开始预热的时间，see SystemClock#elapsedRealtime()
+        final long startTime;
+
+        private Prewarmed(HandlerThread thread, long startTime) {
+            this.thread = thread;
+            this.startTime = startTime;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import com.ttsea.jcamera.callbacks.CameraCallback;
 import java.io.File;
 import java.util.List;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public class CameraScanView extends FrameLayout implements CameraCallback {
@@ -200,6 +201,13 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onFirstFrame(long startTime, long frameTime) {
+        if (mCallback != null) {
+            mCallback.onFirstFrame(startTime, frameTime);
+        }
+    }
+
     @Override
     public void onPictureTaken(@Nullable File picFile, String errorMsg) {
         if (mCallback != null) {
@@ -207,6 +215,21 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onBurstPictureTaken(int index, @Nullable File picFile, long shutterTime, long savedTime,
+                                    String errorMsg) {
+        if (mCallback != null) {
+            mCallback.onBurstPictureTaken(index, picFile, shutterTime, savedTime, errorMsg);
+        }
+    }
+
+    @Override
+    public void onBurstFinished(int count, int savedCount) {
+        if (mCallback != null) {
+            mCallback.onBurstFinished(count, savedCount);
+        }
+    }
+
     @Override
     public void onRecordError(String errorMsg) {
         if (mCallback != null) {
@@ -214,6 +237,13 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void onRecordSegmentFinished(int index, @NonNull File segmentFile) {
+        if (mCallback != null) {
+            mCallback.onRecordSegmentFinished(index, segmentFile);
+        }
+    }
+
     @Override
     public void oneShotFrameData(@Nullable byte[] data, int format, int width, int height) {
         if (mCallback != null) {
@@ -228,6 +258,20 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
         }
     }
 
+    @Override
+    public void oneShotRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+        if (mCallback != null) {
+            mCallback.oneShotRawFrameData(data, info);
+        }
+    }
+
+    @Override
+    public void everyRawFrameData(@Nullable byte[] data, @NonNull FrameInfo info) {
+        if (mCallback != null) {
+            mCallback.everyRawFrameData(data, info);
+        }
+    }
+
     public void setCameraCallback(CameraCallback callback) {
         mCallback = callback;
     }
@@ -317,6 +361,24 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
         iCamera.setOneShotPreview();
     }
 
+    /**
+     * see {@link ICamera#setEveryFramePreview(boolean)}
+     *
+     * @param enable see {@link ICamera#setEveryFramePreview(boolean)}
+     */
+    public void setEveryFramePreview(boolean enable) {
+        iCamera.setEveryFramePreview(enable);
+    }
+
+    /**
+     * see {@link ICamera#setRawFrameEnabled(boolean)}
+     *
+     * @param enable see {@link ICamera#setRawFrameEnabled(boolean)}
+     */
+    public void setRawFrameEnabled(boolean enable) {
+        iCamera.setRawFrameEnabled(enable);
+    }
+
     //////////////////////////////////////////////////////////////////////////////////////////////
     // ---------------------------- 以下代码是间接调用iMaskView ----------------------------
     //////////////////////////////////////////////////////////////////////////////////////////////
@@ -329,4 +391,16 @@ public class CameraScanView extends FrameLayout implements CameraCallback {
     public Rect getScanRect() {
         return iMaskView.getScanRect();
     }
+
+    /**
+     * 将扫描框换算到原始帧坐标系中，用于原始帧模式下只处理扫描框内的数据
+     *
+     * @param info see {@link CameraCallback#oneShotRawFrameData(byte[], FrameInfo)}
+     * @param out  用于存放结果，为空的时候会新建一个Rect
+     * @return 扫描框在原始帧中的区域
+     */
+    public Rect getScanRect(FrameInfo info, @Nullable Rect out) {
+        return info.mapViewRectToFrame(iMaskView.getScanRect(),
+                iMaskView.getViewWidth(), iMaskView.getViewHeight(), out);
+    }
 }
@@ -0,0 +1,233 @@
+package com.ttsea.jcamera.core;
+
+/**
+ * 摄像头状态机<br>
+ * 1.状态只在相机线程中修改，其他线程可以随时读取，用来快速拒绝当前状态下不允许的操作<br>
+ * 2.每个操作都是一个命令(对应Message.what)，{@link #isAllowed(int)}决定当前状态下能否执行<br>
+ * 3.{@link #isCoalescable(int)}的命令只保留最后一次，例如连续缩放、连续设置闪光灯，
+ * 避免重复调用setParameters
+ */
+final class CameraStateMachine {
+    /** 摄像头已关闭 */
+    static final int STATE_CLOSED = 0;
+    /** 正在打开摄像头 */
+    static final int STATE_OPENING = 1;
+    /** 摄像头已打开，还没有预览 */
+    static final int STATE_OPENED = 2;
+    /** 正在预览 */
+    static final int STATE_PREVIEWING = 3;
+    /** 正在拍照或者连拍 */
+    static final int STATE_CAPTURING = 4;
+    /** 正在录像 */
+    static final int STATE_RECORDING = 5;
+
+    static final int CMD_OPEN = 1;
+    static final int CMD_RELEASE = 2;
+    static final int CMD_SURFACE_CREATED = 3;
+    static final int CMD_START_PREVIEW = 4;
+    static final int CMD_STOP_PREVIEW = 5;
+    static final int CMD_SET_ASPECT_RATIO = 6;
+    static final int CMD_SET_ROTATION = 7;
+    static final int CMD_SET_FLASH = 8;
+    static final int CMD_ZOOM = 9;
+    static final int CMD_AUTO_FOCUS = 10;
+    static final int CMD_TAP_FOCUS = 11;
+    static final int CMD_TAKE_PHOTO = 12;
+    static final int CMD_TAKE_PHOTO_FROM_PREVIEW = 13;
+    static final int CMD_TAKE_BURST = 14;
+    static final int CMD_START_RECORD = 15;
+    static final int CMD_STOP_RECORD = 16;
+    static final int CMD_ONE_SHOT_PREVIEW = 17;
+    static final int CMD_UPDATE_PREVIEW_CALLBACK = 18;
+    static final int CMD_APPLY_PARAMS = 19;
+    /** 最大的命令值，用于遍历所有命令 */
+    static final int MAX_CMD = CMD_APPLY_PARAMS;
+
+    private volatile int mState = STATE_CLOSED;
+
+    int getState() {
+        return mState;
+    }
+
+    /**
+     * 切换状态，只能在相机线程中调用
+     */
+    void moveTo(int state) {
+        if (mState == state) {
+            return;
+        }
+        JCameraLog.d("State " + getStateStr(mState) + " -> " + getStateStr(state));
+        mState = state;
+    }
+
+    /**
+     * 是否正在预览，拍照和录像的时候预览也在进行
+     */
+    boolean isPreviewing() {
+        int state = mState;
+        return state == STATE_PREVIEWING || state == STATE_CAPTURING || state == STATE_RECORDING;
+    }
+
+    /**
+     * 摄像头是否正在使用，正在拍照或者录像都代表真正使用
+     */
+    boolean isInUsing() {
+        int state = mState;
+        return state == STATE_CAPTURING || state == STATE_RECORDING;
+    }
+
+    /**
+     * 当前状态下是否允许执行该命令
+     */
+    boolean isAllowed(int command) {
+        return isAllowed(command, mState);
+    }
+
+    static boolean isAllowed(int command, int state) {
+        switch (command) {
+            case CMD_OPEN:
+                return state == STATE_CLOSED || state == STATE_OPENED || state == STATE_PREVIEWING;
+
+            case CMD_RELEASE:
+                //打开失败的时候也需要退出相机线程
+                return true;
+
+            case CMD_UPDATE_PREVIEW_CALLBACK:
+                return state != STATE_CLOSED;
+
+            case CMD_SURFACE_CREATED:
+            case CMD_SET_ASPECT_RATIO:
+            case CMD_SET_ROTATION:
+            case CMD_SET_FLASH:
+            case CMD_ZOOM:
+                return state == STATE_OPENED || state == STATE_PREVIEWING;
+
+            case CMD_START_PREVIEW:
+                return state == STATE_OPENED;
+
+            case CMD_STOP_PREVIEW:
+            case CMD_TAKE_PHOTO:
+            case CMD_TAKE_BURST:
+            case CMD_START_RECORD:
+                return state == STATE_PREVIEWING;
+
+            case CMD_AUTO_FOCUS:
+            case CMD_TAP_FOCUS:
+            case CMD_TAKE_PHOTO_FROM_PREVIEW:
+            case CMD_ONE_SHOT_PREVIEW:
+                return state == STATE_PREVIEWING || state == STATE_RECORDING;
+
+            case CMD_STOP_RECORD:
+                return state == STATE_RECORDING;
+
+            case CMD_APPLY_PARAMS:
+                //拍照的时候不能调用setParameters，恢复预览后再提交
+                return state == STATE_OPENED || state == STATE_PREVIEWING || state == STATE_RECORDING;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 该命令是否只需要执行最后一次，还没执行的同类命令可以直接丢弃
+     */
+    static boolean isCoalescable(int command) {
+        switch (command) {
+            case CMD_OPEN:
+            case CMD_SET_ASPECT_RATIO:
+            case CMD_SET_ROTATION:
+            case CMD_SET_FLASH:
+            case CMD_ZOOM:
+            case CMD_AUTO_FOCUS:
+            case CMD_TAP_FOCUS:
+            case CMD_ONE_SHOT_PREVIEW:
+            case CMD_UPDATE_PREVIEW_CALLBACK:
+            case CMD_APPLY_PARAMS:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 该命令是否需要回调结果(拍照、连拍、录像)，不能直接丢弃，被拒绝的时候要回调失败
+     */
+    static boolean needsResult(int command) {
+        switch (command) {
+            case CMD_TAKE_PHOTO:
+            case CMD_TAKE_PHOTO_FROM_PREVIEW:
+            case CMD_TAKE_BURST:
+            case CMD_START_RECORD:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    static String getStateStr(int state) {
+        switch (state) {
+            case STATE_CLOSED:
+                return "CLOSED";
+            case STATE_OPENING:
+                return "OPENING";
+            case STATE_OPENED:
+                return "OPENED";
+            case STATE_PREVIEWING:
+                return "PREVIEWING";
+            case STATE_CAPTURING:
+                return "CAPTURING";
+            case STATE_RECORDING:
+                return "RECORDING";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
+    }
+
+    static String getCommandStr(int command) {
+        switch (command) {
+            case CMD_OPEN:
+                return "OPEN";
+            case CMD_RELEASE:
+                return "RELEASE";
+            case CMD_SURFACE_CREATED:
+                return "SURFACE_CREATED";
+            case CMD_START_PREVIEW:
+                return "START_PREVIEW";
+            case CMD_STOP_PREVIEW:
+                return "STOP_PREVIEW";
+            case CMD_SET_ASPECT_RATIO:
+                return "SET_ASPECT_RATIO";
+            case CMD_SET_ROTATION:
+                return "SET_ROTATION";
+            case CMD_SET_FLASH:
+                return "SET_FLASH";
+            case CMD_ZOOM:
+                return "ZOOM";
+            case CMD_AUTO_FOCUS:
+                return "AUTO_FOCUS";
+            case CMD_TAP_FOCUS:
+                return "TAP_FOCUS";
+            case CMD_TAKE_PHOTO:
+                return "TAKE_PHOTO";
+            case CMD_TAKE_PHOTO_FROM_PREVIEW:
+                return "TAKE_PHOTO_FROM_PREVIEW";
+            case CMD_TAKE_BURST:
+                return "TAKE_BURST";
+            case CMD_START_RECORD:
+                return "START_RECORD";
+            case CMD_STOP_RECORD:
+                return "STOP_RECORD";
+            case CMD_ONE_SHOT_PREVIEW:
+                return "ONE_SHOT_PREVIEW";
+            case CMD_UPDATE_PREVIEW_CALLBACK:
+                return "UPDATE_PREVIEW_CALLBACK";
+            case CMD_APPLY_PARAMS:
+                return "APPLY_PARAMS";
+            default:
+                return "UNKNOWN(" + command + ")";
+        }
+    }
+}
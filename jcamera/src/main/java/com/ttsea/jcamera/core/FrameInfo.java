@@ -0,0 +1,208 @@
+package com.ttsea.jcamera.core;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 原始预览帧的描述信息<br>
+ * 原始帧是相机传感器方向的数据，没有经过旋转，这里记录了要让数据和屏幕上看到的一致需要：<br>
+ * 1.顺时针旋转{@link #getRotation()}度<br>
+ * 2.旋转后再水平镜像({@link #isMirror()}，前置摄像头)<br>
+ * 同时提供了将view中的区域(比如扫描框)换算到原始帧坐标系的方法，
+ * 使用者只需要处理自己关心的区域，而不用旋转整帧数据
+ */
+public final class FrameInfo {
+    private final int format;
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final boolean mirror;
+
+    FrameInfo(int format, int width, int height, int rotation, boolean mirror) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.mirror = mirror;
+    }
+
+    /**
+     * 判断该描述信息是否和给定的参数一致，用于复用FrameInfo
+     */
+    boolean matches(int format, int width, int height, int rotation, boolean mirror) {
+        return this.format == format && this.width == width && this.height == height
+                && this.rotation == rotation && this.mirror == mirror;
+    }
+
+    /** 数据格式，see {@link android.graphics.ImageFormat} */
+    public int getFormat() {
+        return format;
+    }
+
+    /** 原始帧宽度(传感器方向) */
+    public int getWidth() {
+        return width;
+    }
+
+    /** 原始帧高度(传感器方向) */
+    public int getHeight() {
+        return height;
+    }
+
+    /** 原始帧需要顺时针旋转的角度，0/90/180/270 */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /** 旋转后是否需要水平镜像 */
+    public boolean isMirror() {
+        return mirror;
+    }
+
+    /** 旋转后(和屏幕方向一致)的宽度 */
+    public int getRotatedWidth() {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /** 旋转后(和屏幕方向一致)的高度 */
+    public int getRotatedHeight() {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+    /**
+     * 将view中的区域换算到原始帧坐标系中<br>
+     * 这里认为view完整地显示了旋转(镜像)后的帧，且view和帧之间只有缩放关系
+     *
+     * @param viewRect   view中的区域，比如{@link CameraScanView#getScanRect()}
+     * @param viewWidth  view宽度
+     * @param viewHeight view高度
+     * @param out        用于存放结果，为空的时候会新建一个Rect
+     * @return 原始帧中的区域，已经限制在帧的范围内
+     */
+    @NonNull
+    public Rect mapViewRectToFrame(@NonNull Rect viewRect, int viewWidth, int viewHeight,
+                                   @Nullable Rect out) {
+        if (out == null) {
+            out = new Rect();
+        }
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            setClamped(out, 0, 0, 0, 0);
+            return out;
+        }
+
+        int rotatedWidth = getRotatedWidth();
+        int rotatedHeight = getRotatedHeight();
+
+        //先从view坐标系缩放到旋转后的帧坐标系
+        int left = viewRect.left * rotatedWidth / viewWidth;
+        int right = viewRect.right * rotatedWidth / viewWidth;
+        int top = viewRect.top * rotatedHeight / viewHeight;
+        int bottom = viewRect.bottom * rotatedHeight / viewHeight;
+
+        //去掉镜像
+        if (mirror) {
+            int tmp = left;
+            left = rotatedWidth - right;
+            right = rotatedWidth - tmp;
+        }
+
+        //再逆向旋转到原始帧坐标系
+        switch (rotation) {
+            case 90:
+                //(x,y) -> (y, height - x)
+                setClamped(out, top, height - right, bottom, height - left);
+                break;
+            case 180:
+                //(x,y) -> (width - x, height - y)
+                setClamped(out, width - right, height - bottom, width - left, height - top);
+                break;
+            case 270:
+                //(x,y) -> (width - y, x)
+                setClamped(out, width - bottom, left, width - top, right);
+                break;
+            default:
+                setClamped(out, left, top, right, bottom);
+                break;
+        }
+        return out;
+    }
+
+    /**
+     * 将区域限制在帧的范围内，和帧没有交集的时候为空区域<br>
+     * 直接给字段赋值，不调用Rect的方法，本地单元测试中也可以使用
+     */
+    private void setClamped(Rect out, int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom) {
+            left = top = right = bottom = 0;
+        }
+
+        out.left = left;
+        out.top = top;
+        out.right = right;
+        out.bottom = bottom;
+    }
+
+    /**
+     * 从原始帧中截取frameRect区域的亮度(Y)数据，并旋转(镜像)成和屏幕方向一致<br>
+     * 只处理frameRect区域，代价和区域大小成正比，而不是和整帧大小成正比
+     *
+     * @param data      原始帧数据(NV21等Y平面在前的格式)
+     * @param frameRect 原始帧中的区域，see {@link #mapViewRectToFrame(Rect, int, int, Rect)}
+     * @param out       用于存放结果，长度不能小于 frameRect.width() * frameRect.height()
+     * @return 旋转后区域的宽度，旋转后区域的高度为 frameRect.width() * frameRect.height() / 宽度
+     */
+    public int cropLuminance(@NonNull byte[] data, @NonNull Rect frameRect, @NonNull byte[] out) {
+        int cropWidth = frameRect.right - frameRect.left;
+        int cropHeight = frameRect.bottom - frameRect.top;
+        if (out.length < cropWidth * cropHeight) {
+            throw new IllegalArgumentException("out is too small, need:" + cropWidth * cropHeight
+                    + ", out:" + out.length);
+        }
+
+        int outWidth = rotation % 180 == 0 ? cropWidth : cropHeight;
+
+        for (int y = 0; y < cropHeight; y++) {
+            int s = (frameRect.top + y) * width + frameRect.left;
+            for (int x = 0; x < cropWidth; x++) {
+                int ox;
+                int oy;
+                switch (rotation) {
+                    case 90:
+                        ox = cropHeight - 1 - y;
+                        oy = x;
+                        break;
+                    case 180:
+                        ox = cropWidth - 1 - x;
+                        oy = cropHeight - 1 - y;
+                        break;
+                    case 270:
+                        ox = y;
+                        oy = cropWidth - 1 - x;
+                        break;
+                    default:
+                        ox = x;
+                        oy = y;
+                        break;
+                }
+                if (mirror) {
+                    ox = outWidth - 1 - ox;
+                }
+                out[oy * outWidth + ox] = data[s + x];
+            }
+        }
+
+        return outWidth;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameInfo{format=" + format + ", size=" + width + "x" + height
+                + ", rotation=" + rotation + ", mirror=" + mirror + "}";
+    }
+}
@@ -146,6 +146,37 @@ interface ICamera {
      */
     void takePhoto(@Nullable File outputFile);
 
+    /**
+     * 开启或者关闭零延时拍照，开启后会一直保存最近的几帧预览数据，
+     * 供{@link #takePhotoFromPreview(File)}使用
+     *
+     * @param enable true:开启，false:关闭
+     */
+    void setZslEnabled(boolean enable);
+
+    /**
+     * 零延时拍照<br>
+     * 从最近的几帧预览数据中取出最清晰的一帧编码成JPEG，不会调用系统拍照，也不会停止预览，
+     * 照片分辨率和预览分辨率一样，适合对分辨率要求不高、对速度要求高的场景，例如拍票据<br>
+     * 需要先调用{@link #setZslEnabled(boolean)}开启，结果通过{@link CameraCallback#onPictureTaken(File, String)}回调
+     *
+     * @param outputFile 照片输出文件，可以为空<br>
+     *                   为空的时候，系统会自动以当前手机时间作为文件名
+     */
+    void takePhotoFromPreview(@Nullable File outputFile);
+
+    /**
+     * 连拍<br>
+     * 每拍完一张马上恢复预览并拍下一张，照片在单独的线程中写入文件，
+     * 每张照片保存后回调{@link CameraCallback#onBurstPictureTaken(int, File, long, long, String)}，
+     * 全部完成后回调{@link CameraCallback#onBurstFinished(int, int)}
+     *
+     * @param count     连拍张数，不能小于1
+     * @param directory 照片保存的目录，可以为空<br>
+     *                  为空的时候保存到默认的图片目录
+     */
+    void takeBurst(int count, @Nullable File directory);
+
     /**
      * 开始录像
      *
@@ -153,6 +184,26 @@ interface ICamera {
      */
     void startRecord(@NonNull File outputFile);
 
+    /**
+     * 开始分段录像<br>
+     * 每段达到指定时长或者大小后自动切换到新文件继续录像，每写完一段回调
+     * {@link CameraCallback#onRecordSegmentFinished(int, File)}，调用者可以边录边上传，
+     * 中途崩溃也只会丢失最后一段。调用{@link #stopRecord()}结束录像
+     *
+     * @param directory    录像文件保存的目录，不可为空
+     * @param maxDurationMs 每段的最长时长，单位:毫秒，<=0表示不限制
+     * @param maxFileBytes  每段的最大字节数，<=0表示不限制，和maxDurationMs至少要设置一个
+     */
+    void startSegmentedRecord(@NonNull File directory, long maxDurationMs, long maxFileBytes);
+
+    /**
+     * 设置录像参数的上限，下一次开始录像时生效<br>
+     * 会在摄像头支持的画质中选择满足上限的最高画质，必要时调低码率和帧率，避免低端机录像丢帧
+     *
+     * @param budget 录像参数的上限，为空的时候按照默认的顺序选择画质
+     */
+    void setRecordBudget(@Nullable RecordBudget budget);
+
     /**
      * 停止录像
      */
@@ -188,4 +239,23 @@ interface ICamera {
     boolean zoomOut(float value);
 
     void setOneShotPreview();
+
+    /**
+     * 开启或者关闭每一帧数据回调，开启后每一帧预览数据都会通过
+     * {@link CameraCallback#everyFrameData(byte[], int, int, int)}回调<br>
+     * 注：回调中的byte[]是循环复用的，回调结束后会马上归还给相机，不要在回调之外持有该数组
+     *
+     * @param enable true:开启，false:关闭
+     */
+    void setEveryFramePreview(boolean enable);
+
+    /**
+     * 开启或者关闭原始帧模式<br>
+     * 开启后预览数据不再旋转，而是通过{@link CameraCallback#oneShotRawFrameData(byte[], FrameInfo)}和
+     * {@link CameraCallback#everyRawFrameData(byte[], FrameInfo)}回调原始数据和{@link FrameInfo}，
+     * 只需要处理部分区域的使用者可以省去整帧旋转的开销
+     *
+     * @param enable true:开启，false:关闭
+     */
+    void setRawFrameEnabled(boolean enable);
 }
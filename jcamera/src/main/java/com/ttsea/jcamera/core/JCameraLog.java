@@ -1,11 +1,20 @@
 package com.ttsea.jcamera.core;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 用来打印想要输出的数据，默认为false，将DEBUG设为false后会根据{@link #LOG_TAG}来输错日志 <br>
  * 从高到低为ASSERT, ERROR, WARN, INFO, DEBUG, VERBOSE<br>
  * 使用adb shell setprop log.tag.{@link #LOG_TAG}来控制输出log等级<br>
+ * 1.关闭日志的时候只做一次等级判断，不会遍历调用栈；调用处的字符串拼接可以用{@link #isLoggable(int)}
+ * 或者带格式参数的{@link #df(String, Object...)}等方法避免<br>
+ * 2.开启日志的时候每条日志只遍历一次调用栈，类名到tag的转换会缓存起来<br>
+ * 3.调用{@link #enableFileLog(File)}后日志会同时写入{@link LogFileSink}，由后台线程写入文件，
+ * 文件有自己的等级，默认为INFO，see {@link #setFileLogLevel(int)}，和logcat的等级互不影响
  * <p>
  * <b>more:</b>更多请点 <a href="http://www.ttsea.com" target="_blank">这里</a> <br>
  * <b>date:</b> 2017/4/10 9:55 <br>
@@ -13,12 +22,25 @@ import android.util.Log;
  * <b>version:</b> 1.0.0 <br>
  */
 final class JCameraLog {
-    private static boolean DEBUG = false;
+    private static volatile boolean DEBUG = false;
     /**
      * 输出日志等级，当DEBUG为false的时候会根据设置的等级来输出日志<br>
      * 从高到低为ASSERT, ERROR, WARN, INFO, DEBUG, VERBOSE<br>
      */
     private static String LOG_TAG = "loa.log.LEVEL";
+    //系统属性中设置的日志等级多久重新读取一次，单位:毫秒
+    private static final long LEVEL_REFRESH_INTERVAL = 1000;
+
+    //从系统属性中读取到的最低输出等级，Log.ASSERT + 1表示都不输出
+    private static volatile int sPropLevel = Log.ASSERT + 1;
+    private static volatile long sPropLevelTime = -LEVEL_REFRESH_INTERVAL;
+    //类名和tag的对应关系，避免每条日志都截取字符串
+    private static final ConcurrentHashMap<String, String> sTagCache = new ConcurrentHashMap<>();
+    //写入文件的最低等级，默认不写DEBUG日志，避免开启日志文件后每一帧的日志都要拼接字符串
+    private static volatile int sFilePriority = Log.INFO;
+    //没有tag并且不输出到logcat的时候，写入文件使用的tag
+    private static final String DEFAULT_TAG = "JCamera";
+    private static volatile LogFileSink sFileSink;
 
     /**
      * 开启或者关闭log
@@ -29,14 +51,82 @@ final class JCameraLog {
         DEBUG = enable;
     }
 
+    /**
+     * 开启日志文件，日志会保存在directory中，单个文件最大{@link LogFileSink#DEFAULT_MAX_FILE_BYTES}，
+     * 写满后保留一个备份文件
+     *
+     * @param directory 日志文件保存的目录，为空的时候关闭日志文件
+     */
+    public static synchronized void enableFileLog(File directory) {
+        LogFileSink sink = sFileSink;
+        if (sink != null) {
+            if (directory != null && directory.equals(sink.getDirectory())) {
+                return;
+            }
+            sFileSink = null;
+            sink.close();
+        }
+
+        if (directory != null) {
+            sFileSink = new LogFileSink(directory, LogFileSink.DEFAULT_MAX_FILE_BYTES,
+                    LogFileSink.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * 设置写入日志文件的最低等级，默认为{@link Log#INFO}
+     *
+     * @param priority see {@link Log#DEBUG}
+     */
+    public static void setFileLogLevel(int priority) {
+        sFilePriority = priority;
+    }
+
+    /**
+     * 导出最近一段时间的日志，在后台线程中写入文件，需要先调用{@link #enableFileLog(File)}
+     *
+     * @param durationMs 导出多长时间内的日志，单位:毫秒
+     * @param outputFile 导出的文件
+     * @return true:已经开始导出，false:没有开启日志文件
+     */
+    public static boolean dumpRecent(long durationMs, File outputFile) {
+        LogFileSink sink = sFileSink;
+        return sink != null && sink.dumpRecent(durationMs, outputFile);
+    }
+
+    /**
+     * 该等级的日志是否会输出(logcat或者文件)，拼接日志比较耗时的地方可以先判断一下
+     *
+     * @param priority see {@link Log#DEBUG}
+     */
+    public static boolean isLoggable(int priority) {
+        return isLogcatLoggable(priority) || isFileLoggable(priority);
+    }
+
+    private static boolean isFileLoggable(int priority) {
+        return priority >= sFilePriority && sFileSink != null;
+    }
+
+    private static boolean isLogcatLoggable(int priority) {
+        if (DEBUG) {
+            return true;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (now - sPropLevelTime >= LEVEL_REFRESH_INTERVAL) {
+            sPropLevel = readPropLevel();
+            sPropLevelTime = now;
+        }
+        return priority >= sPropLevel;
+    }
+
     public static void v(String msg) {
         v(null, msg);
     }
 
     public static void v(String tag, String msg) {
-        if (DEBUG || Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
-            msg = combineLogMsg(msg);
-            Log.i(tag == null ? getTag() : tag, "" + msg);
+        if (isLoggable(Log.VERBOSE)) {
+            print(Log.VERBOSE, tag, msg);
         }
     }
 
@@ -44,14 +134,21 @@ final class JCameraLog {
         d(null, msg);
     }
 
+    /**
+     * @param saveToFile 为true的时候只要开启了日志文件，不管文件的等级是什么都会写入文件；
+     *                   为false的时候只输出到logcat，不写入文件
+     */
     public static void d(String msg, boolean saveToFile) {
-        d(null, msg);
+        if (saveToFile) {
+            print(Log.DEBUG, null, msg, sFileSink);
+        } else if (isLogcatLoggable(Log.DEBUG)) {
+            print(Log.DEBUG, null, msg, null);
+        }
     }
 
     public static void d(String tag, String msg) {
-        if (DEBUG || Log.isLoggable(LOG_TAG, Log.DEBUG)) {
-            msg = combineLogMsg(msg);
-            Log.d(tag == null ? getTag() : tag, "" + msg);
+        if (isLoggable(Log.DEBUG)) {
+            print(Log.DEBUG, tag, msg);
         }
     }
 
@@ -60,9 +157,8 @@ final class JCameraLog {
     }
 
     public static void i(String tag, String msg) {
-        if (DEBUG || Log.isLoggable(LOG_TAG, Log.INFO)) {
-            msg = combineLogMsg(msg);
-            Log.i(tag == null ? getTag() : tag, "" + msg);
+        if (isLoggable(Log.INFO)) {
+            print(Log.INFO, tag, msg);
         }
     }
 
@@ -71,9 +167,8 @@ final class JCameraLog {
     }
 
     public static void w(String tag, String msg) {
-        if (DEBUG || Log.isLoggable(LOG_TAG, Log.WARN)) {
-            msg = combineLogMsg(msg);
-            Log.w(tag == null ? getTag() : tag, "" + msg);
+        if (isLoggable(Log.WARN)) {
+            print(Log.WARN, tag, msg);
         }
     }
 
@@ -82,9 +177,8 @@ final class JCameraLog {
     }
 
     public static void e(String tag, String msg) {
-        if (DEBUG || Log.isLoggable(LOG_TAG, Log.ERROR)) {
-            msg = combineLogMsg(msg);
-            Log.e(tag == null ? getTag() : tag, "" + msg);
+        if (isLoggable(Log.ERROR)) {
+            print(Log.ERROR, tag, msg);
         }
     }
 
@@ -93,65 +187,118 @@ final class JCameraLog {
     }
 
     /**
-     * 当传入的tag为null时，默认获取类名来作为tag
+     * 带格式参数的debug日志，不输出的时候不会格式化字符串<br>
+     * 注：不输出的时候基本类型参数仍然会装箱，但不会拼接和格式化字符串，代价比直接拼接小得多
+     *
+     * @param format see {@link String#format(String, Object...)}
      */
-    private static String getTag() {
-        StackTraceElement[] traces = new Throwable().fillInStackTrace()
-                .getStackTrace();
-        String callingClass = "";
+    public static void df(String format, Object... args) {
+        if (isLoggable(Log.DEBUG)) {
+            print(Log.DEBUG, null, String.format(format, args));
+        }
+    }
 
-        for (StackTraceElement trace : traces) {
-            callingClass = trace.getClassName();
-            if (!callingClass.equals(JCameraLog.class.getName())) {
-                if (callingClass.lastIndexOf('.') != -1) {
-                    callingClass = callingClass.substring(callingClass
-                            .lastIndexOf('.') + 1);
-                }
-                if (callingClass.lastIndexOf('$') != -1) {
-                    callingClass = callingClass.substring(0,
-                            callingClass.indexOf('$'));
-                }
-                break;
+    private static void print(int priority, String tag, String msg) {
+        print(priority, tag, msg, isFileLoggable(priority) ? sFileSink : null);
+    }
+
+    /**
+     * 输出日志，只遍历一次调用栈，同时得到tag和调用位置<br>
+     * 只写入文件的时候不遍历调用栈，避免增加调用线程的耗时
+     *
+     * @param sink 需要写入的日志文件，为空的时候不写入文件
+     */
+    private static void print(int priority, String tag, String msg, LogFileSink sink) {
+        boolean toFile = sink != null;
+
+        if (!isLogcatLoggable(priority)) {
+            if (toFile) {
+                sink.add(priority, tag == null ? DEFAULT_TAG : tag, msg);
             }
+            return;
         }
 
-        return callingClass;
+        StackTraceElement caller = getCaller();
+        if (tag == null) {
+            tag = caller == null ? "" : getTag(caller.getClassName());
+        }
+        String body = combineLogMsg(caller, msg);
+        Log.println(priority, tag, getThreadStr() + body);
+        if (toFile) {
+            sink.add(priority, tag, body);
+        }
     }
 
     /**
-     * 组装动态传参的字符串 将动态参数的字符串拼接成一个字符串
+     * 获取调用JCameraLog的位置
      */
-    private static String combineLogMsg(String... msg) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[")
-                .append(Thread.currentThread().getName())
-                .append(":")
-                .append(Thread.currentThread().getId())
-                .append("]");
-
-        StackTraceElement[] traces = new Throwable().fillInStackTrace()
-                .getStackTrace();
-        String caller = "<unknown>";
+    private static StackTraceElement getCaller() {
+        StackTraceElement[] traces = new Throwable().getStackTrace();
+        String logClass = JCameraLog.class.getName();
         for (StackTraceElement trace : traces) {
-            String callingClass = trace.getClassName();
-            if (!callingClass.equals(JCameraLog.class.getName())) {
-                if (callingClass.lastIndexOf('.') != -1) {
-                    callingClass = callingClass.substring(callingClass.lastIndexOf('.') + 1);
-                }
-                caller = callingClass + "." + trace.getMethodName() + "(rows:"
-                        + trace.getLineNumber() + ")";
-                break;
+            if (!trace.getClassName().equals(logClass)) {
+                return trace;
             }
         }
+        return null;
+    }
 
-        sb.append(caller).append(": ");
-        if (null != msg) {
-            for (String s : msg) {
-                sb.append(s);
-            }
+    /**
+     * 当传入的tag为null时，默认获取类名来作为tag，内部类使用外部类的类名
+     */
+    private static String getTag(String className) {
+        String tag = sTagCache.get(className);
+        if (tag != null) {
+            return tag;
+        }
+
+        tag = getSimpleName(className);
+        if (tag.indexOf('$') != -1) {
+            tag = tag.substring(0, tag.indexOf('$'));
+        }
+        sTagCache.put(className, tag);
+        return tag;
+    }
+
+    private static String getSimpleName(String className) {
+        int index = className.lastIndexOf('.');
+        return index == -1 ? className : className.substring(index + 1);
+    }
+
+    private static String getThreadStr() {
+        Thread thread = Thread.currentThread();
+        return "[" + thread.getName() + ":" + thread.getId() + "]";
+    }
+
+    /**
+     * 组装日志，加上调用位置
+     */
+    private static String combineLogMsg(StackTraceElement caller, String msg) {
+        StringBuilder sb = new StringBuilder();
+        if (caller == null) {
+            sb.append("<unknown>");
+        } else {
+            sb.append(getSimpleName(caller.getClassName()))
+                    .append(".")
+                    .append(caller.getMethodName())
+                    .append("(rows:")
+                    .append(caller.getLineNumber())
+                    .append(")");
         }
 
+        sb.append(": ").append(msg);
         return sb.toString();
     }
-}
 
+    /**
+     * 读取系统属性中设置的日志等级
+     */
+    private static int readPropLevel() {
+        for (int priority = Log.VERBOSE; priority <= Log.ASSERT; priority++) {
+            if (Log.isLoggable(LOG_TAG, priority)) {
+                return priority;
+            }
+        }
+        return Log.ASSERT + 1;
+    }
+}
@@ -0,0 +1,268 @@
+package com.ttsea.jcamera.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志文件输出<br>
+ * 1.日志先写入{@link LogRingBuffer}，调用线程只做内存写入，不会因为写文件增加相机线程的耗时<br>
+ * 2.后台线程定时把缓冲区中的日志批量写入文件，文件超过上限后重命名为{@link #BACKUP_SUFFIX}再重新写，
+ * 最多占用两个文件的空间<br>
+ * 3.出错的时候可以通过{@link #dumpRecent(long, File)}导出最近一段时间的日志，
+ * 即使这些日志还没来得及写入文件
+ */
+final class LogFileSink {
+    /** 日志文件名 */
+    static final String FILE_NAME = "jcamera.log";
+    /** 日志文件写满后的备份后缀 */
+    static final String BACKUP_SUFFIX = ".1";
+    /** 默认的单个日志文件大小上限，单位:字节 */
+    static final long DEFAULT_MAX_FILE_BYTES = 1024 * 1024;
+    /** 默认缓冲区中保存的日志条数 */
+    static final int DEFAULT_CAPACITY = 2048;
+    //多久写一次文件，单位:毫秒
+    private static final long FLUSH_INTERVAL = 500;
+
+    private final File mDirectory;
+    private final File mLogFile;
+    private final long maxFileBytes;
+    private final LogRingBuffer mBuffer;
+    private final ScheduledExecutorService mExecutor;
+
+    //以下字段只在写入线程中访问
+    private final LogRingBuffer.Entry mEntry = new LogRingBuffer.Entry();
+    private final StringBuilder mBatch = new StringBuilder(8 * 1024);
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private final Date mDate = new Date();
+    //下一条要写入文件的日志序号
+    private long mFlushSeq;
+    //被覆盖掉、没来得及写入文件的日志条数
+    private long mDroppedCount;
+
+    /**
+     * @param directory    日志文件保存的目录
+     * @param maxFileBytes 单个日志文件的大小上限，单位:字节
+     * @param capacity     缓冲区中最多保存的日志条数
+     */
+    LogFileSink(File directory, long maxFileBytes, int capacity) {
+        this.mDirectory = directory;
+        this.mLogFile = new File(directory, FILE_NAME);
+        this.maxFileBytes = maxFileBytes;
+        this.mBuffer = new LogRingBuffer(capacity);
+        this.mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JCamera-LogWriter");
+                //写日志不能和相机线程抢占CPU
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * 写入一条日志，可以在任意线程调用，只写入内存
+     */
+    void add(int priority, String tag, String msg) {
+        mBuffer.add(System.currentTimeMillis(), priority, tag, Thread.currentThread().getName(), msg);
+    }
+
+    /**
+     * 在写入线程中导出最近一段时间的日志，导出前会先把还没写入的日志写入日志文件
+     *
+     * @param durationMs 导出多长时间内的日志，单位:毫秒
+     * @param outputFile 导出的文件，已经存在的时候会被覆盖
+     * @return true:已经提交导出任务，false:已经关闭
+     */
+    boolean dumpRecent(final long durationMs, final File outputFile) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                    dumpRecentInThread(durationMs, outputFile);
+                }
+            });
+            return true;
+
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 写入剩余的日志后关闭，不会等待写入完成
+     */
+    void close() {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //already closed
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 把缓冲区中还没写入的日志批量写入文件
+     */
+    private void flush() {
+        long end = mBuffer.getNextSequence();
+        if (mFlushSeq >= end) {
+            return;
+        }
+
+        mBatch.setLength(0);
+        //写入太慢的时候最旧的日志会被覆盖，直接跳过
+        long oldest = end - mBuffer.getCapacity();
+        if (mFlushSeq < oldest) {
+            mDroppedCount += oldest - mFlushSeq;
+            mFlushSeq = oldest;
+        }
+
+        while (mFlushSeq < end) {
+            int result = mBuffer.read(mFlushSeq, mEntry);
+            if (result == LogRingBuffer.READ_PENDING) {
+                //还没写完，下次再写
+                break;
+            }
+            if (result == LogRingBuffer.READ_OK) {
+                appendEntry(mBatch, mEntry);
+            } else {
+                mDroppedCount++;
+            }
+            mFlushSeq++;
+        }
+
+        if (mDroppedCount > 0) {
+            mBatch.append("... ").append(mDroppedCount).append(" lines dropped ...\n");
+            mDroppedCount = 0;
+        }
+
+        if (mBatch.length() > 0) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(FILE_NAME, "Create log directory failed, dir:" + mDirectory);
+            return;
+        }
+
+        if (mLogFile.length() >= maxFileBytes) {
+            File backup = new File(mDirectory, FILE_NAME + BACKUP_SUFFIX);
+            if (backup.exists()) {
+                backup.delete();
+            }
+            mLogFile.renameTo(backup);
+        }
+
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(mLogFile, true);
+            os.write(mBatch.toString().getBytes("UTF-8"));
+
+        } catch (IOException e) {
+            //不能再通过JCameraLog输出，避免写文件失败的日志又进入缓冲区
+            Log.w(FILE_NAME, "Write log file failed, e:" + e.getMessage());
+
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
+    private void dumpRecentInThread(long durationMs, File outputFile) {
+        long end = mBuffer.getNextSequence();
+        long start = Math.max(0, end - mBuffer.getCapacity());
+        long fromTime = System.currentTimeMillis() - durationMs;
+
+        StringBuilder sb = new StringBuilder();
+        for (long seq = start; seq < end; seq++) {
+            if (mBuffer.read(seq, mEntry) == LogRingBuffer.READ_OK && mEntry.time >= fromTime) {
+                appendEntry(sb, mEntry);
+            }
+        }
+
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(outputFile, false);
+            os.write(sb.toString().getBytes("UTF-8"));
+            Log.i(FILE_NAME, "Dump recent logs to " + outputFile);
+
+        } catch (IOException e) {
+            Log.w(FILE_NAME, "Dump recent logs failed, e:" + e.getMessage());
+
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
+    private void appendEntry(StringBuilder sb, LogRingBuffer.Entry entry) {
+        mDate.setTime(entry.time);
+        sb.append(mDateFormat.format(mDate))
+                .append(" ")
+                .append(getPriorityChar(entry.priority))
+                .append("/")
+                .append(entry.tag)
+                .append(" [")
+                .append(entry.thread)
+                .append("]: ")
+                .append(entry.msg)
+                .append("\n");
+    }
+
+    private static char getPriorityChar(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+
+    private static void closeQuietly(OutputStream os) {
+        if (os != null) {
+            try {
+                os.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ttsea.jcamera.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 日志环形缓冲区<br>
+ * 1.所有槽位在创建时分配好，写入时不加锁，只做一次原子自增，多个线程可以同时写入<br>
+ * 2.缓冲区满了之后覆盖最旧的日志，内存占用固定<br>
+ * 3.每个槽位记录写入的序号，读取时通过前后两次比较序号判断数据是否完整，
+ * 还没写完或者已经被覆盖的日志不会被读到
+ */
+final class LogRingBuffer {
+    /** 读取成功 */
+    static final int READ_OK = 0;
+    /** 该序号的日志还没写完 */
+    static final int READ_PENDING = 1;
+    /** 该序号的日志已经被覆盖 */
+    static final int READ_LOST = 2;
+
+    /**
+     * 一条日志，读取时复用同一个对象
+     */
+    static final class Entry {
+        long time;
+        int priority;
+        String tag;
+        String thread;
+        String msg;
+    }
+
+    private final int mask;
+    private final long[] mTimes;
+    private final int[] mPriorities;
+    private final String[] mTags;
+    private final String[] mThreads;
+    private final String[] mMessages;
+    //每个槽位当前的状态，写入中为-(seq + 1)，写完为seq + 1
+    private final AtomicLongArray mStates;
+    //下一条日志的序号
+    private final AtomicLong mNextSeq = new AtomicLong(0);
+
+    /**
+     * @param capacity 最多保存的日志条数，会向上取整为2的幂
+     */
+    LogRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0, capacity:" + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        mTimes = new long[size];
+        mPriorities = new int[size];
+        mTags = new String[size];
+        mThreads = new String[size];
+        mMessages = new String[size];
+        mStates = new AtomicLongArray(size);
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 下一条日志的序号，比它小的序号都已经分配出去了
+     */
+    long getNextSequence() {
+        return mNextSeq.get();
+    }
+
+    /**
+     * 写入一条日志，可以在任意线程调用
+     */
+    void add(long time, int priority, String tag, String thread, String msg) {
+        long seq = mNextSeq.getAndIncrement();
+        int index = (int) (seq & mask);
+
+        mStates.set(index, -(seq + 1));
+        mTimes[index] = time;
+        mPriorities[index] = priority;
+        mTags[index] = tag;
+        mThreads[index] = thread;
+        mMessages[index] = msg;
+        mStates.set(index, seq + 1);
+    }
+
+    /**
+     * 读取一条日志
+     *
+     * @param seq   日志的序号
+     * @param entry 用于保存读取结果
+     * @return {@link #READ_OK}、{@link #READ_PENDING}、{@link #READ_LOST}
+     */
+    int read(long seq, Entry entry) {
+        int index = (int) (seq & mask);
+        long state = mStates.get(index);
+        if (state != seq + 1) {
+            return Math.abs(state) > seq + 1 ? READ_LOST : READ_PENDING;
+        }
+
+        entry.time = mTimes[index];
+        entry.priority = mPriorities[index];
+        entry.tag = mTags[index];
+        entry.thread = mThreads[index];
+        entry.msg = mMessages[index];
+
+        //读取的过程中被覆盖了
+        if (mStates.get(index) != state) {
+            return READ_LOST;
+        }
+        return READ_OK;
+    }
+}
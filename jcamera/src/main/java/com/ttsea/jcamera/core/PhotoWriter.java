@@ -0,0 +1,119 @@
+package com.ttsea.jcamera.core;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 照片写入队列<br>
+ * 1.在单独的线程中把照片写入文件，不占用相机线程，写文件慢的时候不会卡住聚焦、缩放和下一次拍照<br>
+ * 2.队列有上限，队列满的时候{@link #write(byte[], File, Callback)}直接返回false，由调用者决定如何处理(背压)<br>
+ * 3.文件通过{@link AtomicFileWriter}写入，按照同步策略写入存储设备并重命名后才会回调
+ * {@link Callback#onSaved(File, AtomicFileWriter.Metrics)}<br>
+ * 4.线程空闲一段时间后会自动退出，不需要主动关闭
+ */
+final class PhotoWriter {
+    /** 默认最多排队的照片数 */
+    static final int DEFAULT_CAPACITY = 4;
+    //写入线程空闲多久后退出
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    interface Callback {
+        /**
+         * 照片已经写入文件，在写入线程中回调
+         *
+         * @param file    照片文件
+         * @param metrics 写入耗时统计
+         */
+        void onSaved(File file, AtomicFileWriter.Metrics metrics);
+
+        /**
+         * 写入失败，在写入线程中回调
+         *
+         * @param file 照片文件
+         * @param e    失败原因
+         */
+        void onFailed(File file, Exception e);
+    }
+
+    private final int capacity;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicFileWriter mFileWriter;
+
+    PhotoWriter() {
+        this(DEFAULT_CAPACITY, AtomicFileWriter.FORCE_DATA);
+    }
+
+    /**
+     * @param capacity    最多排队的照片数(不包括正在写入的照片)，不能小于1
+     * @param forcePolicy 同步策略，see {@link AtomicFileWriter#FORCE_DATA}
+     */
+    PhotoWriter(int capacity, int forcePolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0, capacity:" + capacity);
+        }
+
+        this.capacity = capacity;
+        mFileWriter = new AtomicFileWriter(forcePolicy);
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JCamera-PhotoWriter");
+                //写文件不需要抢占相机线程和主线程
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 是否已经没有空位，此时再拍照也无法写入
+     */
+    boolean isFull() {
+        return mExecutor.getQueue().size() >= capacity;
+    }
+
+    /**
+     * 正在排队的照片数(不包括正在写入的照片)
+     */
+    int getPendingCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * 将照片放入写入队列
+     *
+     * @param data     照片数据，放入队列后调用者不能再修改
+     * @param file     照片文件
+     * @param callback 写入结果回调
+     * @return true:已放入队列，false:队列已满
+     */
+    boolean write(final byte[] data, final File file, final Callback callback) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        AtomicFileWriter.Metrics metrics = mFileWriter.write(data, file);
+                        JCameraLog.d("Saved " + file.getName() + ", " + metrics);
+                        callback.onSaved(file, metrics);
+
+                    } catch (Exception e) {
+                        JCameraLog.e("Save " + file + " failed, e:" + e.getMessage());
+                        callback.onFailed(file, e);
+                    }
+                }
+            });
+            return true;
+
+        } catch (RejectedExecutionException e) {
+            JCameraLog.w("PhotoWriter is full, pending:" + getPendingCount() + ", drop:" + file);
+            return false;
+        }
+    }
+}
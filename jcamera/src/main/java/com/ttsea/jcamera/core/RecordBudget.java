@@ -0,0 +1,88 @@
+package com.ttsea.jcamera.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 录像参数的上限，用于在低端机上选择不会丢帧的CamcorderProfile<br>
+ * 所有参数<=0都表示不限制，see {@link ICamera#setRecordBudget(RecordBudget)}
+ */
+public final class RecordBudget {
+    private final int maxVideoBitRate;
+    private final int maxFrameRate;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final long storageBytesPerSecond;
+
+    /**
+     * @param maxVideoBitRate       视频码率上限，单位:bps
+     * @param maxFrameRate          帧率上限，单位:fps
+     * @param maxWidth              视频长边的上限，单位:像素
+     * @param maxHeight             视频短边的上限，单位:像素
+     * @param storageBytesPerSecond 存储设备可以持续写入的速度估计值，单位:字节/秒，
+     *                              录像的码率(视频+音频)不会超过它的一半
+     */
+    public RecordBudget(int maxVideoBitRate, int maxFrameRate, int maxWidth, int maxHeight,
+                        long storageBytesPerSecond) {
+        this.maxVideoBitRate = maxVideoBitRate;
+        this.maxFrameRate = maxFrameRate;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.storageBytesPerSecond = storageBytesPerSecond;
+    }
+
+    public int getMaxVideoBitRate() {
+        return maxVideoBitRate;
+    }
+
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public long getStorageBytesPerSecond() {
+        return storageBytesPerSecond;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RecordBudget)) {
+            return false;
+        }
+
+        RecordBudget budget = (RecordBudget) o;
+        return maxVideoBitRate == budget.maxVideoBitRate
+                && maxFrameRate == budget.maxFrameRate
+                && maxWidth == budget.maxWidth
+                && maxHeight == budget.maxHeight
+                && storageBytesPerSecond == budget.storageBytesPerSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = maxVideoBitRate;
+        result = 31 * result + maxFrameRate;
+        result = 31 * result + maxWidth;
+        result = 31 * result + maxHeight;
+        result = 31 * result + (int) (storageBytesPerSecond ^ (storageBytesPerSecond >>> 32));
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RecordBudget{bitRate=" + maxVideoBitRate
+                + ", frameRate=" + maxFrameRate
+                + ", size=" + maxWidth + "x" + maxHeight
+                + ", storage=" + storageBytesPerSecond + "B/s}";
+    }
+}
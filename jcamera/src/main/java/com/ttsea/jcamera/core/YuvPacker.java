@@ -0,0 +1,234 @@
+package com.ttsea.jcamera.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 将YUV_420_888的三个plane打包成连续的NV21或I420数据<br>
+ * 1.三个plane的rowStride和pixelStride可以是任意值，按照stride读取数据<br>
+ * 2.常见的半平面布局(pixelStride为2，V和U交错存放在同一块内存中)会被识别出来，
+ * 色度数据按行用ByteBuffer.get批量拷贝，其他布局则逐个像素读取<br>
+ * 3.可以在打包的同时旋转/镜像，数据直接写到旋转后的位置，不需要先打包再旋转<br>
+ * 注：这里只使用纯Java代码，只依赖ByteBuffer，不依赖Android api；读取时会修改各buffer的position
+ */
+final class YuvPacker {
+    //半平面布局的检测结果
+    private static final int LAYOUT_UNKNOWN = 0;
+    private static final int LAYOUT_SEMI_PLANAR = 1;
+    private static final int LAYOUT_OTHER = 2;
+
+    //旋转时暂存一行数据
+    private byte[] mRowBuffer;
+    private int mLayout = LAYOUT_UNKNOWN;
+
+    /**
+     * 重置布局检测结果，数据来源(比如ImageReader)变化后调用
+     */
+    void reset() {
+        mLayout = LAYOUT_UNKNOWN;
+    }
+
+    /**
+     * 打包YUV数据
+     *
+     * @param yBuffer       Y平面
+     * @param yRowStride    Y平面的rowStride，Y平面的pixelStride总是1
+     * @param uBuffer       U平面
+     * @param vBuffer       V平面
+     * @param uvRowStride   U、V平面的rowStride
+     * @param uvPixelStride U、V平面的pixelStride
+     * @param width         图像宽度，必须是偶数
+     * @param height        图像高度，必须是偶数
+     * @param format        {@link YuvTransform#FORMAT_NV21} or {@link YuvTransform#FORMAT_I420}
+     * @param degrees       顺时针旋转角度，0/90/180/270
+     * @param mirror        旋转后是否水平镜像
+     * @param dst           用于存放结果，长度不能小于 width * height * 3 / 2
+     */
+    void pack(ByteBuffer yBuffer, int yRowStride, ByteBuffer uBuffer, ByteBuffer vBuffer,
+              int uvRowStride, int uvPixelStride, int width, int height,
+              int format, int degrees, boolean mirror, byte[] dst) {
+        if (format != YuvTransform.FORMAT_NV21 && format != YuvTransform.FORMAT_I420) {
+            throw new IllegalArgumentException("Unsupported format:" + format);
+        }
+        int bufferSize = YuvTransform.getBufferSize(width, height);
+        if (dst.length < bufferSize) {
+            throw new IllegalArgumentException("dst is too small, need:" + bufferSize + ", dst:" + dst.length);
+        }
+
+        degrees = ((degrees % 360) + 360) % 360;
+        boolean transform = degrees != 0 || mirror;
+
+        packLuminance(yBuffer, yRowStride, width, height, degrees, mirror, transform, dst);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        boolean semiPlanar = isSemiPlanar(uBuffer, vBuffer, uvRowStride, uvPixelStride,
+                chromaWidth, chromaHeight);
+
+        if (!transform && format == YuvTransform.FORMAT_NV21) {
+            //最常见的情况，每一行VU直接读到目标位置
+            int offset = width * height;
+            for (int row = 0; row < chromaHeight; row++) {
+                readChromaRow(uBuffer, vBuffer, row * uvRowStride, uvPixelStride, chromaWidth,
+                        semiPlanar, dst, offset);
+                offset += chromaWidth * 2;
+            }
+            return;
+        }
+
+        if (!transform && uvPixelStride == 1) {
+            //平面布局打包成I420，按行批量拷贝
+            int uOffset = width * height;
+            int vOffset = uOffset + chromaWidth * chromaHeight;
+            for (int row = 0; row < chromaHeight; row++) {
+                uBuffer.position(row * uvRowStride);
+                uBuffer.get(dst, uOffset + row * chromaWidth, chromaWidth);
+                vBuffer.position(row * uvRowStride);
+                vBuffer.get(dst, vOffset + row * chromaWidth, chromaWidth);
+            }
+            return;
+        }
+
+        packChroma(uBuffer, vBuffer, uvRowStride, uvPixelStride, width, height,
+                format, degrees, mirror, semiPlanar, dst);
+    }
+
+    /**
+     * 打包Y平面
+     */
+    private void packLuminance(ByteBuffer yBuffer, int yRowStride, int width, int height,
+                               int degrees, boolean mirror, boolean transform, byte[] dst) {
+        if (!transform) {
+            if (yRowStride == width) {
+                yBuffer.position(0);
+                yBuffer.get(dst, 0, width * height);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    yBuffer.position(row * yRowStride);
+                    yBuffer.get(dst, row * width, width);
+                }
+            }
+            return;
+        }
+
+        //先批量读出一行，再写到旋转后的位置
+        int start = YuvTransform.getStart(width, height, degrees, mirror);
+        int dx = YuvTransform.getStepX(height, degrees, mirror);
+        int dy = YuvTransform.getStepY(width, degrees, mirror);
+        byte[] rowBuffer = obtainRowBuffer(width);
+        for (int row = 0; row < height; row++) {
+            yBuffer.position(row * yRowStride);
+            yBuffer.get(rowBuffer, 0, width);
+            int d = start + row * dy;
+            for (int x = 0; x < width; x++) {
+                dst[d] = rowBuffer[x];
+                d += dx;
+            }
+        }
+    }
+
+    /**
+     * 需要旋转，或者需要从交错布局打包成I420时，逐行读出VU后写到目标位置
+     */
+    private void packChroma(ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+                            int width, int height, int format, int degrees, boolean mirror,
+                            boolean semiPlanar, byte[] dst) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int frameSize = width * height;
+        int chromaSize = chromaWidth * chromaHeight;
+
+        int start = YuvTransform.getStart(chromaWidth, chromaHeight, degrees, mirror);
+        int dx = YuvTransform.getStepX(chromaHeight, degrees, mirror);
+        int dy = YuvTransform.getStepY(chromaWidth, degrees, mirror);
+        byte[] rowBuffer = obtainRowBuffer(chromaWidth * 2);
+
+        for (int row = 0; row < chromaHeight; row++) {
+            readChromaRow(uBuffer, vBuffer, row * uvRowStride, uvPixelStride, chromaWidth,
+                    semiPlanar, rowBuffer, 0);
+
+            int d = start + row * dy;
+            if (format == YuvTransform.FORMAT_NV21) {
+                for (int x = 0, s = 0; x < chromaWidth; x++, s += 2) {
+                    dst[frameSize + d * 2] = rowBuffer[s];
+                    dst[frameSize + d * 2 + 1] = rowBuffer[s + 1];
+                    d += dx;
+                }
+            } else {
+                for (int x = 0, s = 0; x < chromaWidth; x++, s += 2) {
+                    dst[frameSize + chromaSize + d] = rowBuffer[s];
+                    dst[frameSize + d] = rowBuffer[s + 1];
+                    d += dx;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取一行色度数据，按VU交错写入out
+     *
+     * @param rowStart 这一行在U、V平面中的起始位置
+     */
+    private static void readChromaRow(ByteBuffer uBuffer, ByteBuffer vBuffer, int rowStart,
+                                      int pixelStride, int chromaWidth, boolean semiPlanar,
+                                      byte[] out, int outOffset) {
+        if (semiPlanar) {
+            //V平面本身就是VUVU...排列，最后一个U在V平面之外，单独读取
+            int length = chromaWidth * 2 - 1;
+            vBuffer.position(rowStart);
+            vBuffer.get(out, outOffset, length);
+            out[outOffset + length] = uBuffer.get(rowStart + (chromaWidth - 1) * 2);
+            return;
+        }
+
+        for (int x = 0, index = rowStart, o = outOffset; x < chromaWidth; x++, index += pixelStride) {
+            out[o++] = vBuffer.get(index);
+            out[o++] = uBuffer.get(index);
+        }
+    }
+
+    /**
+     * 判断U、V平面是否是交错存放的半平面布局，即V平面偏移一个字节后就是U平面<br>
+     * 这里比较的是内容而不是内存地址，内容一致时按半平面布局读取得到的数据也一定是正确的；
+     * 色度完全一样的画面(比如刚开启相机时的黑屏)不能说明内存是交错的，这种情况不缓存检测结果
+     */
+    private boolean isSemiPlanar(ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride,
+                                 int uvPixelStride, int chromaWidth, int chromaHeight) {
+        if (uvPixelStride != 2) {
+            return false;
+        }
+        if (mLayout != LAYOUT_UNKNOWN) {
+            return mLayout == LAYOUT_SEMI_PLANAR;
+        }
+
+        int length = (chromaHeight - 1) * uvRowStride + (chromaWidth - 1) * 2;
+        if (uBuffer.capacity() < length + 1 || vBuffer.capacity() < length + 1) {
+            mLayout = LAYOUT_OTHER;
+            return false;
+        }
+
+        boolean flat = true;
+        byte first = uBuffer.get(0);
+        for (int i = 0; i < length; i++) {
+            byte u = uBuffer.get(i);
+            if (vBuffer.get(i + 1) != u) {
+                mLayout = LAYOUT_OTHER;
+                return false;
+            }
+            if (u != first) {
+                flat = false;
+            }
+        }
+
+        if (!flat) {
+            mLayout = LAYOUT_SEMI_PLANAR;
+        }
+        return true;
+    }
+
+    private byte[] obtainRowBuffer(int size) {
+        if (mRowBuffer == null || mRowBuffer.length < size) {
+            mRowBuffer = new byte[size];
+        }
+        return mRowBuffer;
+    }
+}
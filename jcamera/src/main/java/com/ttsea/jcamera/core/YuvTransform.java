@@ -0,0 +1,238 @@
+package com.ttsea.jcamera.core;
+
+/**
+ * YUV数据旋转/镜像工具，支持NV21和I420两种格式<br>
+ * 1.支持顺时针旋转0/90/180/270度，以及旋转后的水平镜像(用于前置摄像头)<br>
+ * 2.旋转后的数据写入调用者提供的缓冲区，或者写入内部复用的缓冲区，不会每一帧都分配内存<br>
+ * 3.按块(tile)遍历数据，读写都集中在一小块内存中，避免按列跨行访问导致缓存失效<br>
+ * 注：这里只使用纯Java代码，不依赖Android api
+ */
+final class YuvTransform {
+    /** NV21格式，Y平面后面跟着VU交错的色度平面，与ImageFormat.NV21的值一致 */
+    static final int FORMAT_NV21 = 0x11;
+    /** I420格式，Y平面后面依次是U平面和V平面，与ImageFormat.YUV_420_888的值一致 */
+    static final int FORMAT_I420 = 0x23;
+
+    //每一块的边长(像素)，32x32的块读写加起来只占几KB，可以放进L1缓存
+    private static final int TILE = 32;
+
+    //内部复用的目标缓冲区
+    private byte[] mBuffer;
+
+    /**
+     * 获取指定大小的YUV420数据长度
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @return width * height * 3 / 2
+     */
+    static int getBufferSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * 获取内部复用的缓冲区，长度不够的时候才会重新分配
+     *
+     * @param size 需要的长度
+     * @return 长度不小于size的缓冲区
+     */
+    byte[] obtainBuffer(int size) {
+        if (mBuffer == null || mBuffer.length < size) {
+            mBuffer = new byte[size];
+        }
+        return mBuffer;
+    }
+
+    /**
+     * 旋转/镜像YUV数据，结果写入内部复用的缓冲区<br>
+     * 注：下一次调用时缓冲区会被覆盖，如需长期持有请先拷贝
+     *
+     * @param src     待处理的数据
+     * @param width   src宽度
+     * @param height  src高度
+     * @param format  {@link #FORMAT_NV21} or {@link #FORMAT_I420}
+     * @param degrees 顺时针旋转角度，0/90/180/270
+     * @param mirror  旋转后是否水平镜像
+     * @return 处理后的数据，旋转90/270度后宽高互换
+     */
+    byte[] transform(byte[] src, int width, int height, int format, int degrees, boolean mirror) {
+        byte[] dst = obtainBuffer(getBufferSize(width, height));
+        transform(src, dst, width, height, format, degrees, mirror);
+        return dst;
+    }
+
+    /**
+     * 旋转/镜像YUV数据，结果写入dst中
+     *
+     * @param src     待处理的数据
+     * @param dst     用于存放结果，长度不能小于 width * height * 3 / 2，不能与src是同一个数组
+     * @param width   src宽度，必须是偶数
+     * @param height  src高度，必须是偶数
+     * @param format  {@link #FORMAT_NV21} or {@link #FORMAT_I420}
+     * @param degrees 顺时针旋转角度，0/90/180/270
+     * @param mirror  旋转后是否水平镜像
+     */
+    static void transform(byte[] src, byte[] dst, int width, int height,
+                          int format, int degrees, boolean mirror) {
+        if (src == dst) {
+            throw new IllegalArgumentException("src and dst must be different arrays");
+        }
+        if (format != FORMAT_NV21 && format != FORMAT_I420) {
+            throw new IllegalArgumentException("Unsupported format:" + format);
+        }
+
+        int frameSize = width * height;
+        int bufferSize = getBufferSize(width, height);
+        if (src.length < bufferSize || dst.length < bufferSize) {
+            throw new IllegalArgumentException("Buffer too small, need:" + bufferSize
+                    + ", src:" + src.length + ", dst:" + dst.length);
+        }
+
+        degrees = ((degrees % 360) + 360) % 360;
+
+        //不需要旋转和镜像，直接拷贝
+        if (degrees == 0 && !mirror) {
+            System.arraycopy(src, 0, dst, 0, bufferSize);
+            return;
+        }
+
+        //Y平面
+        transformPlane(src, 0, width, height, dst, 0, degrees, mirror);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (format == FORMAT_NV21) {
+            //VU交错，以两个字节为一个像素整体移动
+            transformInterleavedPlane(src, frameSize, chromaWidth, chromaHeight,
+                    dst, frameSize, degrees, mirror);
+        } else {
+            int chromaSize = chromaWidth * chromaHeight;
+            transformPlane(src, frameSize, chromaWidth, chromaHeight,
+                    dst, frameSize, degrees, mirror);
+            transformPlane(src, frameSize + chromaSize, chromaWidth, chromaHeight,
+                    dst, frameSize + chromaSize, degrees, mirror);
+        }
+    }
+
+    /**
+     * 获取旋转后的宽度
+     *
+     * @param width   旋转前宽度
+     * @param height  旋转前高度
+     * @param degrees 顺时针旋转角度
+     * @return 旋转后宽度
+     */
+    static int getRotatedWidth(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? width : height;
+    }
+
+    /**
+     * 获取旋转后的高度
+     *
+     * @param width   旋转前宽度
+     * @param height  旋转前高度
+     * @param degrees 顺时针旋转角度
+     * @return 旋转后高度
+     */
+    static int getRotatedHeight(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? height : width;
+    }
+
+    /**
+     * 处理单字节像素的平面(Y平面，或者I420的U/V平面)
+     */
+    private static void transformPlane(byte[] src, int srcOffset, int width, int height,
+                                       byte[] dst, int dstOffset, int degrees, boolean mirror) {
+        int start = dstOffset + getStart(width, height, degrees, mirror);
+        int dx = getStepX(height, degrees, mirror);
+        int dy = getStepY(width, degrees, mirror);
+
+        for (int ty = 0; ty < height; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, height);
+            for (int tx = 0; tx < width; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, width);
+                for (int y = ty; y < yEnd; y++) {
+                    int s = srcOffset + y * width + tx;
+                    int d = start + tx * dx + y * dy;
+                    for (int x = tx; x < xEnd; x++) {
+                        dst[d] = src[s++];
+                        d += dx;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理两个字节为一个像素的平面(NV21的VU平面)
+     */
+    private static void transformInterleavedPlane(byte[] src, int srcOffset, int width, int height,
+                                                  byte[] dst, int dstOffset, int degrees, boolean mirror) {
+        int start = dstOffset + getStart(width, height, degrees, mirror) * 2;
+        int dx = getStepX(height, degrees, mirror) * 2;
+        int dy = getStepY(width, degrees, mirror) * 2;
+
+        for (int ty = 0; ty < height; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, height);
+            for (int tx = 0; tx < width; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, width);
+                for (int y = ty; y < yEnd; y++) {
+                    int s = srcOffset + (y * width + tx) * 2;
+                    int d = start + tx * dx + y * dy;
+                    for (int x = tx; x < xEnd; x++) {
+                        dst[d] = src[s];
+                        dst[d + 1] = src[s + 1];
+                        s += 2;
+                        d += dx;
+                    }
+                }
+            }
+        }
+    }
+
+    //源坐标(x,y)到目标下标的映射为：index = start + x * stepX + y * stepY，单位为像素
+    //0:   (x,y) -> (x, y)
+    //90:  (x,y) -> (height - 1 - y, x)，旋转后宽度为height
+    //180: (x,y) -> (width - 1 - x, height - 1 - y)
+    //270: (x,y) -> (y, width - 1 - x)，旋转后宽度为height
+    //镜像则是在旋转后再将目标x坐标翻转
+
+    static int getStart(int width, int height, int degrees, boolean mirror) {
+        switch (degrees) {
+            case 90:
+                return mirror ? 0 : height - 1;
+            case 180:
+                return mirror ? (height - 1) * width : height * width - 1;
+            case 270:
+                return mirror ? width * height - 1 : (width - 1) * height;
+            default:
+                return mirror ? width - 1 : 0;
+        }
+    }
+
+    static int getStepX(int height, int degrees, boolean mirror) {
+        switch (degrees) {
+            case 90:
+                return height;
+            case 180:
+                return mirror ? 1 : -1;
+            case 270:
+                return -height;
+            default:
+                return mirror ? -1 : 1;
+        }
+    }
+
+    static int getStepY(int width, int degrees, boolean mirror) {
+        switch (degrees) {
+            case 90:
+                return mirror ? 1 : -1;
+            case 180:
+                return -width;
+            case 270:
+                return mirror ? -1 : 1;
+            default:
+                return width;
+        }
+    }
+}
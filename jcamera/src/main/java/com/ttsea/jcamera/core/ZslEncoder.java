@@ -0,0 +1,151 @@
+package com.ttsea.jcamera.core;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.os.SystemClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 零延时拍照(ZSL)的编码线程<br>
+ * 1.在单独的线程中把预览帧旋转到拍照方向，通过{@link YuvImage#compressToJpeg(Rect, int, java.io.OutputStream)}编码<br>
+ * 2.编码结果通过{@link AtomicFileWriter}写入文件，旋转和编码用的缓冲区都会复用<br>
+ * 3.预览帧旋转完后马上通过{@link Callback#onFrameReleased(byte[])}交还，调用者可以把它归还给相机<br>
+ * 4.同时最多处理一帧、排队一帧，队列满的时候{@link #encode}直接返回false
+ */
+final class ZslEncoder {
+    /** JPEG质量 */
+    static final int JPEG_QUALITY = 90;
+    //最多排队的帧数(不包括正在编码的帧)
+    private static final int CAPACITY = 1;
+    //编码线程空闲多久后退出
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    interface Callback extends PhotoWriter.Callback {
+        /**
+         * 预览帧已经用完，在编码线程中回调
+         *
+         * @param frame 传入{@link #encode}的预览帧
+         */
+        void onFrameReleased(byte[] frame);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicFileWriter mFileWriter;
+    //以下缓冲区只在编码线程中使用
+    private byte[] mRotateBuffer;
+    private final JpegOutputStream mJpegStream = new JpegOutputStream();
+
+    ZslEncoder() {
+        mFileWriter = new AtomicFileWriter(AtomicFileWriter.FORCE_DATA);
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "JCamera-ZslEncoder");
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 将一帧NV21预览数据编码成JPEG并写入文件
+     *
+     * @param frame    预览数据，回调{@link Callback#onFrameReleased(byte[])}之前调用者不能修改
+     * @param width    帧宽度
+     * @param height   帧高度
+     * @param degrees  顺时针旋转角度，0/90/180/270
+     * @param file     照片文件
+     * @param callback 结果回调
+     * @return true:已放入队列，false:队列已满
+     */
+    boolean encode(final byte[] frame, final int width, final int height, final int degrees,
+                   final File file, final Callback callback) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    encodeInThread(frame, width, height, degrees, file, callback);
+                }
+            });
+            return true;
+
+        } catch (RejectedExecutionException e) {
+            JCameraLog.w("ZslEncoder is busy, drop:" + file);
+            return false;
+        }
+    }
+
+    private void encodeInThread(byte[] frame, int width, int height, int degrees,
+                                File file, Callback callback) {
+        long start = SystemClock.elapsedRealtime();
+        byte[] yuv;
+        int jpegWidth = width;
+        int jpegHeight = height;
+        try {
+            if (degrees == 0) {
+                //不需要旋转，直接编码原始帧，编码完后再交还
+                yuv = frame;
+            } else {
+                mRotateBuffer = obtainBuffer(mRotateBuffer, YuvTransform.getBufferSize(width, height));
+                YuvTransform.transform(frame, mRotateBuffer, width, height,
+                        YuvTransform.FORMAT_NV21, degrees, false);
+                yuv = mRotateBuffer;
+                jpegWidth = YuvTransform.getRotatedWidth(width, height, degrees);
+                jpegHeight = YuvTransform.getRotatedHeight(width, height, degrees);
+                callback.onFrameReleased(frame);
+                frame = null;
+            }
+
+            mJpegStream.reset();
+            YuvImage image = new YuvImage(yuv, ImageFormat.NV21, jpegWidth, jpegHeight, null);
+            boolean success = image.compressToJpeg(new Rect(0, 0, jpegWidth, jpegHeight),
+                    JPEG_QUALITY, mJpegStream);
+            if (frame != null) {
+                callback.onFrameReleased(frame);
+                frame = null;
+            }
+            if (!success) {
+                throw new IOException("compressToJpeg failed, size:" + jpegWidth + "x" + jpegHeight);
+            }
+            long encodeTime = SystemClock.elapsedRealtime() - start;
+
+            AtomicFileWriter.Metrics metrics = mFileWriter.write(mJpegStream.toByteBuffer(), file);
+            JCameraLog.d("Saved " + file.getName() + ", size:" + jpegWidth + "x" + jpegHeight
+                    + ", encode:" + encodeTime + "ms, " + metrics);
+            callback.onSaved(file, metrics);
+
+        } catch (Exception e) {
+            JCameraLog.e("Encode " + file + " failed, e:" + e.getMessage());
+            if (frame != null) {
+                callback.onFrameReleased(frame);
+            }
+            callback.onFailed(file, e);
+        }
+    }
+
+    private static byte[] obtainBuffer(byte[] buffer, int size) {
+        if (buffer == null || buffer.length < size) {
+            return new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * 可以直接访问内部数组的ByteArrayOutputStream，写入文件时不再拷贝一次
+     */
+    private static final class JpegOutputStream extends ByteArrayOutputStream {
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.ttsea.jcamera.core;
+
+/**
+ * 零延时拍照(ZSL)用的预览帧环形缓冲区<br>
+ * 1.保存最近{@link #getCapacity()}帧预览数据，数组本身就是交给相机循环使用的缓冲区，不做任何拷贝<br>
+ * 2.放入新帧时挤出最旧的一帧，调用者需要把挤出的缓冲区归还给相机<br>
+ * 3.拍照时通过{@link #takeSharpest(int, int)}取出最清晰的一帧<br>
+ * 注：不是线程安全的，只能在相机线程中使用
+ */
+final class ZslFrameRing {
+    //计算清晰度时，短边上最多采样多少个点，低分辨率下也只需要几千个点就能区分出模糊的帧
+    private static final int SAMPLE_COUNT = 96;
+
+    private final byte[][] mFrames;
+    //最旧一帧的下标
+    private int mHead;
+    private int mSize;
+
+    /**
+     * @param capacity 最多保存的帧数，不能小于1
+     */
+    ZslFrameRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0, capacity:" + capacity);
+        }
+        mFrames = new byte[capacity][];
+    }
+
+    int getCapacity() {
+        return mFrames.length;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 放入最新的一帧
+     *
+     * @param frame 预览数据
+     * @return 被挤出的最旧一帧，没有挤出的时候返回null
+     */
+    byte[] push(byte[] frame) {
+        byte[] evicted = null;
+        if (mSize == mFrames.length) {
+            evicted = mFrames[mHead];
+            mFrames[mHead] = frame;
+            mHead = (mHead + 1) % mFrames.length;
+        } else {
+            mFrames[(mHead + mSize) % mFrames.length] = frame;
+            mSize++;
+        }
+        return evicted;
+    }
+
+    /**
+     * 取出最清晰的一帧，取出后该帧不再属于环形缓冲区，清晰度相同的时候取较新的一帧
+     *
+     * @param width  帧宽度
+     * @param height 帧高度
+     * @return 最清晰的一帧，没有数据的时候返回null
+     */
+    byte[] takeSharpest(int width, int height) {
+        if (mSize == 0) {
+            return null;
+        }
+
+        int best = -1;
+        long bestScore = -1;
+        //从新到旧遍历，只有更清晰的时候才替换
+        for (int i = mSize - 1; i >= 0; i--) {
+            long score = getSharpness(mFrames[(mHead + i) % mFrames.length], width, height);
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+
+        byte[] frame = mFrames[(mHead + best) % mFrames.length];
+        //后面的帧往前移一位，保持从旧到新的顺序
+        for (int i = best; i < mSize - 1; i++) {
+            mFrames[(mHead + i) % mFrames.length] = mFrames[(mHead + i + 1) % mFrames.length];
+        }
+        mSize--;
+        mFrames[(mHead + mSize) % mFrames.length] = null;
+        return frame;
+    }
+
+    /**
+     * 清空环形缓冲区，不归还缓冲区，调用者需要重新把所有缓冲区交给相机
+     */
+    void clear() {
+        for (int i = 0; i < mFrames.length; i++) {
+            mFrames[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * 计算一帧的清晰度<br>
+     * 在Y平面上均匀采样，计算每个采样点拉普拉斯响应(4*中心 - 上下左右)的方差，
+     * 失焦或者抖动的帧边缘平滑，方差明显更小
+     *
+     * @param frame  预览数据，前width*height个字节为Y平面
+     * @param width  帧宽度
+     * @param height 帧高度
+     * @return 清晰度，越大越清晰
+     */
+    static long getSharpness(byte[] frame, int width, int height) {
+        if (frame == null || width < 3 || height < 3 || frame.length < width * height) {
+            return 0;
+        }
+
+        int step = Math.max(1, Math.min(width, height) / SAMPLE_COUNT);
+        long sum = 0;
+        long sumSquares = 0;
+        int count = 0;
+        for (int y = 1; y < height - 1; y += step) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x += step) {
+                int offset = row + x;
+                int laplacian = 4 * (frame[offset] & 0xFF)
+                        - (frame[offset - 1] & 0xFF) - (frame[offset + 1] & 0xFF)
+                        - (frame[offset - width] & 0xFF) - (frame[offset + width] & 0xFF);
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+
+        //方差 = E(x^2) - E(x)^2，放大count倍避免整数除法丢精度
+        return sumSquares - sum * sum / count;
+    }
+}
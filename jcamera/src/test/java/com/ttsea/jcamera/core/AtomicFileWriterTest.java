@@ -0,0 +1,142 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AtomicFileWriter}的本地单元测试
+ */
+public class AtomicFileWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_allPolicies() throws IOException {
+        int[] policies = {AtomicFileWriter.FORCE_NONE, AtomicFileWriter.FORCE_DATA, AtomicFileWriter.FORCE_ALL};
+        for (int policy : policies) {
+            File file = new File(folder.getRoot(), "IMG_" + policy + ".jpg");
+            byte[] data = createData(4096 + policy);
+
+            AtomicFileWriter.Metrics metrics = new AtomicFileWriter(policy).write(data, file);
+
+            assertArrayEquals(data, read(file));
+            assertEquals(data.length, metrics.bytes);
+            if (policy == AtomicFileWriter.FORCE_NONE) {
+                assertEquals(0, metrics.forceNanos);
+            }
+            assertNoTempFile(folder.getRoot());
+        }
+    }
+
+    @Test
+    public void write_replacesExistingFile() throws IOException {
+        File file = folder.newFile("IMG.jpg");
+        writeDirectly(file, createData(10000));
+
+        byte[] data = createData(100);
+        new AtomicFileWriter(AtomicFileWriter.FORCE_NONE).write(data, file);
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void write_directBufferFromPosition() throws IOException {
+        byte[] data = createData(1000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.position(100);
+        buffer.limit(900);
+
+        File file = new File(folder.getRoot(), "direct.bin");
+        AtomicFileWriter.Metrics metrics = new AtomicFileWriter(AtomicFileWriter.FORCE_DATA).write(buffer, file);
+
+        byte[] expected = new byte[800];
+        System.arraycopy(data, 100, expected, 0, expected.length);
+        assertArrayEquals(expected, read(file));
+        assertEquals(800, metrics.bytes);
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void write_createsParentDirectory() throws IOException {
+        File file = new File(folder.getRoot(), "a/b/IMG.jpg");
+        byte[] data = createData(10);
+        new AtomicFileWriter(AtomicFileWriter.FORCE_NONE).write(data, file);
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void failedRename_keepsTargetAndRemovesTempFile() throws IOException {
+        //目标是一个非空目录，重命名一定会失败
+        File target = folder.newFolder("IMG.jpg");
+        File child = new File(target, "keep");
+        writeDirectly(child, createData(10));
+
+        try {
+            new AtomicFileWriter(AtomicFileWriter.FORCE_NONE).write(createData(10), target);
+            fail("Rename should fail.");
+        } catch (IOException e) {
+            //expected
+        }
+
+        assertTrue(target.isDirectory());
+        assertTrue(child.exists());
+        assertNoTempFile(folder.getRoot());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy_isRejected() {
+        new AtomicFileWriter(3);
+    }
+
+    private static void assertNoTempFile(File dir) {
+        String[] names = dir.list();
+        assertNotNull(names);
+        for (String name : names) {
+            assertFalse("Temp file left:" + name, name.endsWith(".tmp"));
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    private static void writeDirectly(File file, byte[] data) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream is = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = is.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                offset += count;
+            }
+        } finally {
+            is.close();
+        }
+        return data;
+    }
+}
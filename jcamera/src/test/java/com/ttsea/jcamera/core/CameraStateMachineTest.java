@@ -0,0 +1,99 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Test;
+
+import static com.ttsea.jcamera.core.CameraStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * {@link CameraStateMachine}的本地单元测试<br>
+ * 注：moveTo()会打印日志，依赖Android api，这里只测试静态方法
+ */
+public class CameraStateMachineTest {
+    private static final int[] STATES = {
+            STATE_CLOSED, STATE_OPENING, STATE_OPENED, STATE_PREVIEWING, STATE_CAPTURING, STATE_RECORDING
+    };
+
+    /**
+     * 每个命令允许执行的状态，顺序和{@link #STATES}一致：
+     * CLOSED, OPENING, OPENED, PREVIEWING, CAPTURING, RECORDING
+     */
+    private static final Object[][] ALLOWED = {
+            {CMD_OPEN, new boolean[]{true, false, true, true, false, false}},
+            {CMD_RELEASE, new boolean[]{true, true, true, true, true, true}},
+            {CMD_SURFACE_CREATED, new boolean[]{false, false, true, true, false, false}},
+            {CMD_START_PREVIEW, new boolean[]{false, false, true, false, false, false}},
+            {CMD_STOP_PREVIEW, new boolean[]{false, false, false, true, false, false}},
+            {CMD_SET_ASPECT_RATIO, new boolean[]{false, false, true, true, false, false}},
+            {CMD_SET_ROTATION, new boolean[]{false, false, true, true, false, false}},
+            {CMD_SET_FLASH, new boolean[]{false, false, true, true, false, false}},
+            {CMD_ZOOM, new boolean[]{false, false, true, true, false, false}},
+            {CMD_AUTO_FOCUS, new boolean[]{false, false, false, true, false, true}},
+            {CMD_TAP_FOCUS, new boolean[]{false, false, false, true, false, true}},
+            {CMD_TAKE_PHOTO, new boolean[]{false, false, false, true, false, false}},
+            {CMD_TAKE_PHOTO_FROM_PREVIEW, new boolean[]{false, false, false, true, false, true}},
+            {CMD_TAKE_BURST, new boolean[]{false, false, false, true, false, false}},
+            {CMD_START_RECORD, new boolean[]{false, false, false, true, false, false}},
+            {CMD_STOP_RECORD, new boolean[]{false, false, false, false, false, true}},
+            {CMD_ONE_SHOT_PREVIEW, new boolean[]{false, false, false, true, false, true}},
+            {CMD_UPDATE_PREVIEW_CALLBACK, new boolean[]{false, true, true, true, true, true}},
+            {CMD_APPLY_PARAMS, new boolean[]{false, false, true, true, false, true}},
+    };
+
+    @Test
+    public void isAllowed_everyCommandInEveryState() {
+        assertEquals(MAX_CMD, ALLOWED.length);
+        for (Object[] row : ALLOWED) {
+            int command = (Integer) row[0];
+            boolean[] allowed = (boolean[]) row[1];
+            for (int i = 0; i < STATES.length; i++) {
+                assertEquals(getCommandStr(command) + " in " + getStateStr(STATES[i]),
+                        allowed[i], CameraStateMachine.isAllowed(command, STATES[i]));
+            }
+        }
+    }
+
+    @Test
+    public void isAllowed_unknownCommandIsRejected() {
+        for (int state : STATES) {
+            assertFalse(CameraStateMachine.isAllowed(0, state));
+            assertFalse(CameraStateMachine.isAllowed(MAX_CMD + 1, state));
+        }
+    }
+
+    @Test
+    public void isAllowed_usesCurrentState() {
+        //新建的状态机处于关闭状态
+        CameraStateMachine machine = new CameraStateMachine();
+        assertEquals(STATE_CLOSED, machine.getState());
+        assertTrue(machine.isAllowed(CMD_OPEN));
+        assertFalse(machine.isAllowed(CMD_TAKE_PHOTO));
+        assertFalse(machine.isPreviewing());
+        assertFalse(machine.isInUsing());
+    }
+
+    @Test
+    public void resultCommands_areNotCoalescable() {
+        //需要回调结果的命令不能被合并，否则会少一次回调
+        for (int command = 1; command <= MAX_CMD; command++) {
+            if (needsResult(command)) {
+                assertFalse(getCommandStr(command), isCoalescable(command));
+            }
+        }
+        assertTrue(needsResult(CMD_TAKE_PHOTO));
+        assertTrue(needsResult(CMD_TAKE_PHOTO_FROM_PREVIEW));
+        assertTrue(needsResult(CMD_TAKE_BURST));
+        assertTrue(needsResult(CMD_START_RECORD));
+        assertFalse(needsResult(CMD_STOP_RECORD));
+    }
+
+    @Test
+    public void everyCommandHasName() {
+        for (int command = 1; command <= MAX_CMD; command++) {
+            assertFalse(getCommandStr(command).startsWith("UNKNOWN"));
+        }
+        for (int state : STATES) {
+            assertFalse(getStateStr(state).startsWith("UNKNOWN"));
+        }
+    }
+}
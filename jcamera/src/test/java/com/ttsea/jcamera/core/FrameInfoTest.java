@@ -0,0 +1,121 @@
+package com.ttsea.jcamera.core;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link FrameInfo}的本地单元测试<br>
+ * 本地测试中Rect的方法都没有实现，这里只读写Rect的字段
+ */
+public class FrameInfoTest {
+    //640x480的原始帧，view和旋转后的帧一样大，没有缩放
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void mapViewRect_allRotations() {
+        //旋转后帧中的区域(10,20)-(110,70)
+        assertRect(10, 20, 110, 70, map(0, false, 10, 20, 110, 70));
+        //90度：(x,y) -> (y, height - x)
+        assertRect(20, HEIGHT - 110, 70, HEIGHT - 10, map(90, false, 10, 20, 110, 70));
+        //180度：(x,y) -> (width - x, height - y)
+        assertRect(WIDTH - 110, HEIGHT - 70, WIDTH - 10, HEIGHT - 20, map(180, false, 10, 20, 110, 70));
+        //270度：(x,y) -> (width - y, x)
+        assertRect(WIDTH - 70, 10, WIDTH - 20, 110, map(270, false, 10, 20, 110, 70));
+    }
+
+    @Test
+    public void mapViewRect_mirror() {
+        //旋转后帧宽度为480，镜像后x方向翻转：(10,110) -> (370,470)
+        assertRect(20, HEIGHT - 470, 70, HEIGHT - 370, map(90, true, 10, 20, 110, 70));
+        //旋转后帧宽度为480
+        assertRect(WIDTH - 70, 370, WIDTH - 20, 470, map(270, true, 10, 20, 110, 70));
+        //不旋转时直接翻转x
+        assertRect(WIDTH - 110, 20, WIDTH - 10, 70, map(0, true, 10, 20, 110, 70));
+    }
+
+    @Test
+    public void mapViewRect_matchesCropLuminance() {
+        //将区域映射回原始帧后截取，结果应该和view中看到的区域一致
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int i = 0; i < 2; i++) {
+                boolean mirror = i == 1;
+                FrameInfo info = new FrameInfo(0x11, 8, 6, rotation, mirror);
+                int rotatedWidth = info.getRotatedWidth();
+                int rotatedHeight = info.getRotatedHeight();
+
+                //整帧旋转后的Y平面就是屏幕上看到的画面
+                byte[] frame = new byte[YuvTransform.getBufferSize(8, 6)];
+                for (int n = 0; n < frame.length; n++) {
+                    frame[n] = (byte) n;
+                }
+                byte[] full = new byte[frame.length];
+                YuvTransform.transform(frame, full, 8, 6, YuvTransform.FORMAT_NV21, rotation, mirror);
+
+                Rect viewRect = rect(1, 2, 4, 5);
+                Rect frameRect = info.mapViewRectToFrame(viewRect, rotatedWidth, rotatedHeight, null);
+                byte[] out = new byte[9];
+                int outWidth = info.cropLuminance(frame, frameRect, out);
+
+                assertEquals(3, outWidth);
+                for (int y = 0; y < 3; y++) {
+                    for (int x = 0; x < 3; x++) {
+                        assertEquals("rotation:" + rotation + ", mirror:" + mirror,
+                                full[(y + 2) * rotatedWidth + x + 1], out[y * 3 + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mapViewRect_scalesAndClamps() {
+        FrameInfo info = new FrameInfo(0x11, WIDTH, HEIGHT, 0, false);
+        //view是帧的两倍大，区域超出了view的范围
+        Rect out = info.mapViewRectToFrame(rect(-20, 100, 1400, 400), WIDTH * 2, HEIGHT * 2, null);
+        assertRect(0, 50, WIDTH, 200, out);
+    }
+
+    @Test
+    public void mapViewRect_outsideFrameIsEmpty() {
+        FrameInfo info = new FrameInfo(0x11, WIDTH, HEIGHT, 90, false);
+        Rect out = info.mapViewRectToFrame(rect(HEIGHT + 10, 0, HEIGHT + 20, 10), HEIGHT, WIDTH, null);
+        assertRect(0, 0, 0, 0, out);
+    }
+
+    @Test
+    public void mapViewRect_invalidViewSizeIsEmpty() {
+        FrameInfo info = new FrameInfo(0x11, WIDTH, HEIGHT, 0, false);
+        Rect out = rect(1, 2, 3, 4);
+        assertSame(out, info.mapViewRectToFrame(rect(10, 10, 20, 20), 0, HEIGHT, out));
+        assertRect(0, 0, 0, 0, out);
+    }
+
+    private static Rect map(int rotation, boolean mirror, int left, int top, int right, int bottom) {
+        FrameInfo info = new FrameInfo(0x11, WIDTH, HEIGHT, rotation, mirror);
+        return info.mapViewRectToFrame(rect(left, top, right, bottom),
+                info.getRotatedWidth(), info.getRotatedHeight(), new Rect());
+    }
+
+    private static Rect rect(int left, int top, int right, int bottom) {
+        Rect rect = new Rect();
+        rect.left = left;
+        rect.top = top;
+        rect.right = right;
+        rect.bottom = bottom;
+        return rect;
+    }
+
+    private static void assertRect(int left, int top, int right, int bottom, Rect actual) {
+        String expected = "(" + left + "," + top + ")-(" + right + "," + bottom + ")";
+        String message = "expected:" + expected + ", actual:(" + actual.left + "," + actual.top
+                + ")-(" + actual.right + "," + actual.bottom + ")";
+        assertEquals(message, left, actual.left);
+        assertEquals(message, top, actual.top);
+        assertEquals(message, right, actual.right);
+        assertEquals(message, bottom, actual.bottom);
+    }
+}
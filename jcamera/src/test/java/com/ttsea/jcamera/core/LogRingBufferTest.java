@@ -0,0 +1,103 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LogRingBuffer}的本地单元测试
+ */
+public class LogRingBufferTest {
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        assertEquals(1, new LogRingBuffer(1).getCapacity());
+        assertEquals(8, new LogRingBuffer(5).getCapacity());
+        assertEquals(8, new LogRingBuffer(8).getCapacity());
+        assertEquals(16, new LogRingBuffer(9).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity_isRejected() {
+        new LogRingBuffer(0);
+    }
+
+    @Test
+    public void read_returnsWrittenEntry() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        buffer.add(123L, 4, "tag", "main", "hello");
+        assertEquals(1, buffer.getNextSequence());
+
+        LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+        assertEquals(LogRingBuffer.READ_OK, buffer.read(0, entry));
+        assertEquals(123L, entry.time);
+        assertEquals(4, entry.priority);
+        assertEquals("tag", entry.tag);
+        assertEquals("main", entry.thread);
+        assertEquals("hello", entry.msg);
+    }
+
+    @Test
+    public void read_notWrittenYetIsPending() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+        assertEquals(LogRingBuffer.READ_PENDING, buffer.read(0, entry));
+
+        buffer.add(0, 3, "tag", "main", "msg0");
+        assertEquals(LogRingBuffer.READ_PENDING, buffer.read(1, entry));
+    }
+
+    @Test
+    public void read_overwrittenIsLost() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.add(i, 3, "tag", "main", "msg" + i);
+        }
+
+        LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+        assertEquals(LogRingBuffer.READ_LOST, buffer.read(0, entry));
+        assertEquals(LogRingBuffer.READ_LOST, buffer.read(1, entry));
+        for (int i = 2; i < 6; i++) {
+            assertEquals(LogRingBuffer.READ_OK, buffer.read(i, entry));
+            assertEquals("msg" + i, entry.msg);
+        }
+        assertEquals(LogRingBuffer.READ_PENDING, buffer.read(6, entry));
+    }
+
+    @Test
+    public void concurrentWriters_noEntryIsTorn() throws InterruptedException {
+        final int threadCount = 4;
+        final int perThread = 2000;
+        final LogRingBuffer buffer = new LogRingBuffer(threadCount * perThread);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String name = "t" + t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        //time和msg写同一个值，读到的一条日志里两者必须一致
+                        buffer.add(i, 3, "tag", name, name + ":" + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * perThread, buffer.getNextSequence());
+        Set<String> messages = new HashSet<>();
+        LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+        for (long seq = 0; seq < buffer.getNextSequence(); seq++) {
+            assertEquals(LogRingBuffer.READ_OK, buffer.read(seq, entry));
+            assertEquals(entry.thread + ":" + entry.time, entry.msg);
+            assertTrue(messages.add(entry.msg));
+        }
+    }
+}
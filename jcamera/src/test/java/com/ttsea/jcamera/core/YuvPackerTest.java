@@ -0,0 +1,241 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link YuvPacker}的本地单元测试<br>
+ * 按照ImageReader常见的几种plane布局构造数据，结果和先打包再用{@link YuvTransform}旋转的结果对比
+ */
+public class YuvPackerTest {
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 46;
+    private static final int[] DEGREES = {0, 90, 180, 270};
+    private static final int[] FORMATS = {YuvTransform.FORMAT_NV21, YuvTransform.FORMAT_I420};
+
+    @Test
+    public void semiPlanar_tightRowStride() {
+        checkAll(new SemiPlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH));
+    }
+
+    @Test
+    public void semiPlanar_paddedRowStride() {
+        checkAll(new SemiPlanarImage(WIDTH, HEIGHT, WIDTH + 10, WIDTH + 26));
+    }
+
+    @Test
+    public void planar_paddedRowStride() {
+        checkAll(new PlanarImage(WIDTH, HEIGHT, WIDTH + 6, WIDTH / 2 + 6, 1));
+    }
+
+    @Test
+    public void separatePlanesWithPixelStride2_fallBackToPerPixel() {
+        //pixelStride为2但U、V不在同一块内存中，不能按半平面批量读取
+        checkAll(new PlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH + 4, 2));
+    }
+
+    @Test
+    public void flatChroma_doesNotCacheLayout() {
+        YuvPacker packer = new YuvPacker();
+        byte[] dst = new byte[YuvTransform.getBufferSize(WIDTH, HEIGHT)];
+
+        //色度完全一样的画面，之后换成真正的平面布局也要能正确打包
+        TestImage flat = new SemiPlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH, true);
+        flat.pack(packer, YuvTransform.FORMAT_NV21, 0, false, dst);
+        assertArrayEquals(flat.expected(YuvTransform.FORMAT_NV21, 0, false), dst);
+
+        TestImage other = new PlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH + 4, 2);
+        other.pack(packer, YuvTransform.FORMAT_NV21, 0, false, dst);
+        assertArrayEquals(other.expected(YuvTransform.FORMAT_NV21, 0, false), dst);
+    }
+
+    @Test
+    public void reset_detectsLayoutAgain() {
+        YuvPacker packer = new YuvPacker();
+        byte[] dst = new byte[YuvTransform.getBufferSize(WIDTH, HEIGHT)];
+
+        TestImage semiPlanar = new SemiPlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH);
+        semiPlanar.pack(packer, YuvTransform.FORMAT_NV21, 90, false, dst);
+
+        packer.reset();
+        TestImage other = new PlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH + 4, 2);
+        other.pack(packer, YuvTransform.FORMAT_NV21, 90, false, dst);
+        assertArrayEquals(other.expected(YuvTransform.FORMAT_NV21, 90, false), dst);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallDst_isRejected() {
+        TestImage image = new SemiPlanarImage(WIDTH, HEIGHT, WIDTH, WIDTH);
+        image.pack(new YuvPacker(), YuvTransform.FORMAT_NV21, 0, false,
+                new byte[YuvTransform.getBufferSize(WIDTH, HEIGHT) - 1]);
+    }
+
+    private static void checkAll(TestImage image) {
+        for (int format : FORMATS) {
+            for (int degrees : DEGREES) {
+                for (int i = 0; i < 2; i++) {
+                    boolean mirror = i == 1;
+                    //每次都用新的packer，同一个packer连续打包也要正确
+                    YuvPacker packer = new YuvPacker();
+                    for (int n = 0; n < 2; n++) {
+                        byte[] dst = new byte[YuvTransform.getBufferSize(image.width, image.height)];
+                        image.pack(packer, format, degrees, mirror, dst);
+                        assertArrayEquals(image + ", format:" + format + ", degrees:" + degrees
+                                        + ", mirror:" + mirror + ", n:" + n,
+                                image.expected(format, degrees, mirror), dst);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 模拟一帧YUV_420_888图像，y/u/v为没有stride的原始数据
+     */
+    private abstract static class TestImage {
+        final int width;
+        final int height;
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+
+        TestImage(int width, int height, boolean flatChroma) {
+            this.width = width;
+            this.height = height;
+            y = new byte[width * height];
+            u = new byte[width * height / 4];
+            v = new byte[width * height / 4];
+            for (int i = 0; i < y.length; i++) {
+                y[i] = (byte) (i * 7 + i / 256);
+            }
+            for (int i = 0; i < u.length; i++) {
+                u[i] = flatChroma ? (byte) 128 : (byte) (i * 13 + 1);
+                v[i] = flatChroma ? (byte) 128 : (byte) (i * 17 + 5);
+            }
+        }
+
+        abstract void pack(YuvPacker packer, int format, int degrees, boolean mirror, byte[] dst);
+
+        /**
+         * 先打包成没有旋转的数据，再用YuvTransform旋转
+         */
+        byte[] expected(int format, int degrees, boolean mirror) {
+            int frameSize = width * height;
+            int chromaSize = frameSize / 4;
+            byte[] packed = new byte[YuvTransform.getBufferSize(width, height)];
+            System.arraycopy(y, 0, packed, 0, frameSize);
+            if (format == YuvTransform.FORMAT_NV21) {
+                for (int i = 0; i < chromaSize; i++) {
+                    packed[frameSize + i * 2] = v[i];
+                    packed[frameSize + i * 2 + 1] = u[i];
+                }
+            } else {
+                System.arraycopy(u, 0, packed, frameSize, chromaSize);
+                System.arraycopy(v, 0, packed, frameSize + chromaSize, chromaSize);
+            }
+
+            byte[] result = new byte[packed.length];
+            YuvTransform.transform(packed, result, width, height, format, degrees, mirror);
+            return result;
+        }
+
+        ByteBuffer createLuminance(int rowStride) {
+            byte[] data = new byte[rowStride * (height - 1) + width];
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(y, row * width, data, row * rowStride, width);
+            }
+            return ByteBuffer.wrap(data);
+        }
+    }
+
+    /**
+     * V和U交错存放在同一块内存中，U平面从V平面的第二个字节开始，和大部分手机一样
+     */
+    private static final class SemiPlanarImage extends TestImage {
+        private final int yRowStride;
+        private final int uvRowStride;
+
+        SemiPlanarImage(int width, int height, int yRowStride, int uvRowStride) {
+            this(width, height, yRowStride, uvRowStride, false);
+        }
+
+        SemiPlanarImage(int width, int height, int yRowStride, int uvRowStride, boolean flatChroma) {
+            super(width, height, flatChroma);
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+        }
+
+        @Override
+        void pack(YuvPacker packer, int format, int degrees, boolean mirror, byte[] dst) {
+            int chromaWidth = width / 2;
+            int chromaHeight = height / 2;
+            //和ImageReader一样，每个plane只到最后一个有效字节为止
+            int planeLength = (chromaHeight - 1) * uvRowStride + (chromaWidth - 1) * 2 + 1;
+            byte[] chroma = new byte[planeLength + 1];
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    int index = row * uvRowStride + x * 2;
+                    chroma[index] = v[row * chromaWidth + x];
+                    chroma[index + 1] = u[row * chromaWidth + x];
+                }
+            }
+            ByteBuffer vBuffer = ByteBuffer.wrap(chroma, 0, planeLength).slice();
+            ByteBuffer uBuffer = ByteBuffer.wrap(chroma, 1, planeLength).slice();
+
+            packer.pack(createLuminance(yRowStride), yRowStride, uBuffer, vBuffer,
+                    uvRowStride, 2, width, height, format, degrees, mirror, dst);
+        }
+
+        @Override
+        public String toString() {
+            return "SemiPlanar, yRowStride:" + yRowStride + ", uvRowStride:" + uvRowStride;
+        }
+    }
+
+    /**
+     * U、V分别存放在不同的内存中
+     */
+    private static final class PlanarImage extends TestImage {
+        private final int yRowStride;
+        private final int uvRowStride;
+        private final int uvPixelStride;
+
+        PlanarImage(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride) {
+            super(width, height, false);
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+        }
+
+        @Override
+        void pack(YuvPacker packer, int format, int degrees, boolean mirror, byte[] dst) {
+            packer.pack(createLuminance(yRowStride), yRowStride, createChroma(u), createChroma(v),
+                    uvRowStride, uvPixelStride, width, height, format, degrees, mirror, dst);
+        }
+
+        private ByteBuffer createChroma(byte[] plane) {
+            int chromaWidth = width / 2;
+            int chromaHeight = height / 2;
+            //空隙填上和相邻数据无关的值，读错位置时能发现
+            byte[] data = new byte[(chromaHeight - 1) * uvRowStride + (chromaWidth - 1) * uvPixelStride + 1];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) 0xA5;
+            }
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    data[row * uvRowStride + x * uvPixelStride] = plane[row * chromaWidth + x];
+                }
+            }
+            return ByteBuffer.wrap(data);
+        }
+
+        @Override
+        public String toString() {
+            return "Planar, yRowStride:" + yRowStride + ", uvRowStride:" + uvRowStride
+                    + ", uvPixelStride:" + uvPixelStride;
+        }
+    }
+}
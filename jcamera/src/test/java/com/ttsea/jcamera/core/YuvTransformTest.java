@@ -0,0 +1,161 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link YuvTransform}的本地单元测试，和逐像素计算的结果对比
+ */
+public class YuvTransformTest {
+    private static final int[] DEGREES = {0, 90, 180, 270};
+
+    @Test
+    public void nv21_matchesReference() {
+        //尺寸不是块边长的整数倍，覆盖不完整的块
+        checkAll(YuvTransform.FORMAT_NV21, 70, 46);
+        checkAll(YuvTransform.FORMAT_NV21, 2, 2);
+        checkAll(YuvTransform.FORMAT_NV21, 64, 32);
+    }
+
+    @Test
+    public void i420_matchesReference() {
+        checkAll(YuvTransform.FORMAT_I420, 70, 46);
+        checkAll(YuvTransform.FORMAT_I420, 2, 2);
+        checkAll(YuvTransform.FORMAT_I420, 64, 32);
+    }
+
+    @Test
+    public void negativeAndLargeDegrees_areNormalized() {
+        byte[] src = createFrame(70, 46);
+        byte[] expected = new byte[src.length];
+        byte[] actual = new byte[src.length];
+
+        YuvTransform.transform(src, expected, 70, 46, YuvTransform.FORMAT_NV21, 270, false);
+        YuvTransform.transform(src, actual, 70, 46, YuvTransform.FORMAT_NV21, -90, false);
+        assertArrayEquals(expected, actual);
+
+        YuvTransform.transform(src, actual, 70, 46, YuvTransform.FORMAT_NV21, 630, false);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void transform_reusesInternalBuffer() {
+        YuvTransform transform = new YuvTransform();
+        byte[] src = createFrame(70, 46);
+
+        byte[] first = transform.transform(src, 70, 46, YuvTransform.FORMAT_NV21, 90, false);
+        byte[] second = transform.transform(src, 70, 46, YuvTransform.FORMAT_NV21, 180, true);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void rotatedSize() {
+        assertEquals(46, YuvTransform.getRotatedWidth(70, 46, 90));
+        assertEquals(70, YuvTransform.getRotatedHeight(70, 46, 270));
+        assertEquals(70, YuvTransform.getRotatedWidth(70, 46, 180));
+        assertEquals(46, YuvTransform.getRotatedHeight(70, 46, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sameArray_isRejected() {
+        byte[] src = createFrame(4, 4);
+        YuvTransform.transform(src, src, 4, 4, YuvTransform.FORMAT_NV21, 90, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallBuffer_isRejected() {
+        byte[] src = createFrame(4, 4);
+        YuvTransform.transform(src, new byte[src.length - 1], 4, 4, YuvTransform.FORMAT_NV21, 90, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedFormat_isRejected() {
+        byte[] src = createFrame(4, 4);
+        YuvTransform.transform(src, new byte[src.length], 4, 4, 0x32315659, 90, false);
+    }
+
+    private static void checkAll(int format, int width, int height) {
+        byte[] src = createFrame(width, height);
+        for (int degrees : DEGREES) {
+            for (int i = 0; i < 2; i++) {
+                boolean mirror = i == 1;
+                byte[] actual = new byte[src.length];
+                YuvTransform.transform(src, actual, width, height, format, degrees, mirror);
+
+                byte[] expected = reference(src, width, height, format, degrees, mirror);
+                assertArrayEquals("format:" + format + ", size:" + width + "x" + height
+                        + ", degrees:" + degrees + ", mirror:" + mirror, expected, actual);
+            }
+        }
+    }
+
+    /**
+     * 每个字节的值都不一样(取模后尽量不重复)，位置错了一定能发现
+     */
+    private static byte[] createFrame(int width, int height) {
+        byte[] data = new byte[YuvTransform.getBufferSize(width, height)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        return data;
+    }
+
+    /**
+     * 逐像素按照旋转公式计算，不分块
+     */
+    private static byte[] reference(byte[] src, int width, int height, int format,
+                                    int degrees, boolean mirror) {
+        byte[] dst = new byte[src.length];
+        int frameSize = width * height;
+        rotatePlane(src, 0, width, height, 1, dst, 0, degrees, mirror);
+
+        int cw = width / 2;
+        int ch = height / 2;
+        if (format == YuvTransform.FORMAT_NV21) {
+            rotatePlane(src, frameSize, cw, ch, 2, dst, frameSize, degrees, mirror);
+        } else {
+            rotatePlane(src, frameSize, cw, ch, 1, dst, frameSize, degrees, mirror);
+            rotatePlane(src, frameSize + cw * ch, cw, ch, 1, dst, frameSize + cw * ch, degrees, mirror);
+        }
+        return dst;
+    }
+
+    private static void rotatePlane(byte[] src, int srcOffset, int width, int height, int pixelSize,
+                                    byte[] dst, int dstOffset, int degrees, boolean mirror) {
+        int dstWidth = degrees % 180 == 0 ? width : height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                switch (degrees) {
+                    case 90:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case 180:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    case 270:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                    default:
+                        dx = x;
+                        dy = y;
+                        break;
+                }
+                if (mirror) {
+                    dx = dstWidth - 1 - dx;
+                }
+
+                int s = srcOffset + (y * width + x) * pixelSize;
+                int d = dstOffset + (dy * dstWidth + dx) * pixelSize;
+                for (int i = 0; i < pixelSize; i++) {
+                    dst[d + i] = src[s + i];
+                }
+            }
+        }
+    }
+}
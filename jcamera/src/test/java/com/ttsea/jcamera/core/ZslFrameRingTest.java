@@ -0,0 +1,144 @@
+package com.ttsea.jcamera.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ZslFrameRing}的本地单元测试
+ */
+public class ZslFrameRingTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void push_evictsOldestWhenFull() {
+        ZslFrameRing ring = new ZslFrameRing(2);
+        byte[] a = createFlat();
+        byte[] b = createFlat();
+        byte[] c = createFlat();
+
+        assertNull(ring.push(a));
+        assertNull(ring.push(b));
+        assertEquals(2, ring.size());
+        assertSame(a, ring.push(c));
+        assertSame(b, ring.push(createFlat()));
+        assertEquals(2, ring.size());
+    }
+
+    @Test
+    public void takeSharpest_picksSharpestFrame() {
+        ZslFrameRing ring = new ZslFrameRing(4);
+        byte[] sharp = createChecker(1);
+        ring.push(createFlat());
+        ring.push(createChecker(8));
+        ring.push(sharp);
+        ring.push(createFlat());
+
+        assertSame(sharp, ring.takeSharpest(WIDTH, HEIGHT));
+        assertEquals(3, ring.size());
+    }
+
+    @Test
+    public void takeSharpest_prefersNewerOnTie() {
+        ZslFrameRing ring = new ZslFrameRing(3);
+        byte[] older = createFlat();
+        byte[] newer = createFlat();
+        ring.push(older);
+        ring.push(newer);
+
+        assertSame(newer, ring.takeSharpest(WIDTH, HEIGHT));
+        assertSame(older, ring.takeSharpest(WIDTH, HEIGHT));
+        assertNull(ring.takeSharpest(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void takeSharpest_keepsOrderOfRemainingFrames() {
+        ZslFrameRing ring = new ZslFrameRing(3);
+        byte[] first = createFlat();
+        byte[] sharp = createChecker(1);
+        byte[] last = createFlat();
+        //先绕一圈，让最旧的一帧不在数组开头
+        ring.push(createFlat());
+        ring.push(first);
+        ring.push(sharp);
+        ring.push(last);
+
+        assertSame(sharp, ring.takeSharpest(WIDTH, HEIGHT));
+        //剩下的帧仍然从旧到新，再放满后挤出的是最旧的一帧
+        assertNull(ring.push(createFlat()));
+        assertSame(first, ring.push(createFlat()));
+        assertSame(last, ring.push(createFlat()));
+    }
+
+    @Test
+    public void clear_dropsAllFrames() {
+        ZslFrameRing ring = new ZslFrameRing(2);
+        ring.push(createFlat());
+        ring.push(createFlat());
+        ring.clear();
+
+        assertEquals(0, ring.size());
+        assertNull(ring.takeSharpest(WIDTH, HEIGHT));
+        assertNull(ring.push(createFlat()));
+    }
+
+    @Test
+    public void sharpness_blurredIsLower() {
+        byte[] sharp = createChecker(2);
+        byte[] blurred = blur(sharp);
+
+        assertEquals(0, ZslFrameRing.getSharpness(createFlat(), WIDTH, HEIGHT));
+        assertTrue(ZslFrameRing.getSharpness(sharp, WIDTH, HEIGHT)
+                > ZslFrameRing.getSharpness(blurred, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void sharpness_invalidInputIsZero() {
+        assertEquals(0, ZslFrameRing.getSharpness(null, WIDTH, HEIGHT));
+        assertEquals(0, ZslFrameRing.getSharpness(new byte[4], 2, 2));
+        assertEquals(0, ZslFrameRing.getSharpness(new byte[10], WIDTH, HEIGHT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity_isRejected() {
+        new ZslFrameRing(0);
+    }
+
+    private static byte[] createFlat() {
+        byte[] frame = new byte[YuvTransform.getBufferSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+
+    private static byte[] createChecker(int cell) {
+        byte[] frame = createFlat();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame[y * WIDTH + x] = (byte) (((x / cell) + (y / cell)) % 2 == 0 ? 30 : 220);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * 3x3均值模糊，模拟失焦的帧
+     */
+    private static byte[] blur(byte[] src) {
+        byte[] dst = src.clone();
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                int sum = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        sum += src[(y + dy) * WIDTH + x + dx] & 0xFF;
+                    }
+                }
+                dst[y * WIDTH + x] = (byte) (sum / 9);
+            }
+        }
+        return dst;
+    }
+}